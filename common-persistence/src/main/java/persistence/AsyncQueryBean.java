@@ -0,0 +1,34 @@
+package persistence;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import javax.ejb.AsyncResult;
+import javax.ejb.Asynchronous;
+import javax.ejb.EJBException;
+import javax.ejb.LocalBean;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+
+/**
+ * Container managed threads of {@link AsyncQueryExecutor}. Queries run as
+ * asynchronous EJB invocations, so container controls number of threads,
+ * their naming context and security context.
+ */
+@Stateless
+@LocalBean
+public class AsyncQueryBean {
+    
+    @Asynchronous
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public <Result> Future<Result> run(Callable<Result> task) {
+        try {
+            return new AsyncResult<Result>(task.call());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new EJBException(e);
+        }
+    }
+}
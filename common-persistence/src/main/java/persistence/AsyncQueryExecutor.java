@@ -0,0 +1,160 @@
+package persistence;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Runs independent read queries concurrently, each on its own
+ * {@link EntityManager} created from given factory and closed after query, so
+ * returned entities are detached.
+ * <p>
+ * In container queries run as asynchronous invocations of
+ * {@link AsyncQueryBean}, so container manages their threads:
+ * 
+ * <pre>
+ * &#064;PersistenceUnit
+ * EntityManagerFactory entityManagerFactory;
+ * &#064;EJB
+ * AsyncQueryBean asyncQueryBean;
+ * 
+ * AsyncQueryExecutor queries = new AsyncQueryExecutor(entityManagerFactory, asyncQueryBean);
+ * </pre>
+ * 
+ * Outside of container (Java SE, tests) queries run on bounded pool of own
+ * daemon threads, when all threads are busy and queue is full query is
+ * rejected with {@link RejectedExecutionException}.
+ * 
+ * <pre>
+ * Future&lt;List&lt;OrderEntity&gt;&gt; orders = queries.findMany(OrderEntity.class, &quot;SELECT o FROM OrderEntity o WHERE o.open = TRUE&quot;, withoutParams());
+ * Future&lt;List&lt;AlertEntity&gt;&gt; alerts = queries.findMany(AlertEntity.class, &quot;SELECT a FROM AlertEntity a&quot;, withoutParams());
+ * dashboard.show(orders.get(), alerts.get());
+ * </pre>
+ */
+public class AsyncQueryExecutor {
+    
+    private final EntityManagerFactory entityManagerFactory;
+    private final ExecutorService executor;
+    private final AsyncQueryBean bean;
+    
+    /**
+     * Queries run on container managed threads of given bean.
+     */
+    public AsyncQueryExecutor(EntityManagerFactory entityManagerFactory, AsyncQueryBean bean) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.executor = null;
+        this.bean = bean;
+    }
+    
+    /**
+     * Queries run on own threads, for use outside of container only. Idle
+     * threads end after a minute.
+     */
+    public AsyncQueryExecutor(EntityManagerFactory entityManagerFactory, int threads, int queueCapacity) {
+        this(entityManagerFactory, newThreadPool(threads, queueCapacity));
+    }
+    
+    /**
+     * Uses given executor, outside of container only.
+     */
+    public AsyncQueryExecutor(EntityManagerFactory entityManagerFactory, ExecutorService executor) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.executor = executor;
+        this.bean = null;
+    }
+    
+    public <EntityType> Future<List<EntityType>> findMany(final Class<EntityType> entityClass, final String query, QueryParamBuilder params) {
+        final QueryParamBuilder preparedParams = prepared(params);
+        return submit(new QueryTask<List<EntityType>>() {
+            @Override
+            List<EntityType> execute(EntityManager entityManager) {
+                return EntityManagerHelper.findMany(entityManager, entityClass, query, preparedParams);
+            }
+        });
+    }
+    
+    public <Type> Future<List<Type>> findManyDynamicTyped(final String query, QueryParamBuilder params) {
+        final QueryParamBuilder preparedParams = prepared(params);
+        return submit(new QueryTask<List<Type>>() {
+            @Override
+            List<Type> execute(EntityManager entityManager) {
+                return EntityManagerHelper.findManyDynamicTyped(entityManager, query, preparedParams);
+            }
+        });
+    }
+    
+    public <EntityType> Future<EntityType> findOneOrNull(final Class<EntityType> entityClass, final String query, QueryParamBuilder params) {
+        final QueryParamBuilder preparedParams = prepared(params);
+        return submit(new QueryTask<EntityType>() {
+            @Override
+            EntityType execute(EntityManager entityManager) {
+                return EntityManagerHelper.findOneOrNull(entityManager, entityClass, query, preparedParams);
+            }
+        });
+    }
+    
+    /**
+     * Stops accepting queries, already submitted queries are finished.
+     * Container managed threads are left to container.
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+    
+    private <Result> Future<Result> submit(QueryTask<Result> task) {
+        return bean != null ? bean.run(task) : executor.submit(task);
+    }
+    
+    private static ExecutorService newThreadPool(int threads, int queueCapacity) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new QueryThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+    
+    private static QueryParamBuilder prepared(QueryParamBuilder params) {
+        return params == null ? null : params.prepared();
+    }
+    
+    private abstract class QueryTask<Result> implements Callable<Result> {
+        
+        @Override
+        public Result call() {
+            EntityManager entityManager = entityManagerFactory.createEntityManager();
+            try {
+                return execute(entityManager);
+            } finally {
+                entityManager.close();
+            }
+        }
+        
+        abstract Result execute(EntityManager entityManager);
+    }
+    
+    private static class QueryThreadFactory implements ThreadFactory {
+        
+        private static final AtomicInteger pool = new AtomicInteger();
+        private final AtomicInteger thread = new AtomicInteger();
+        private final String prefix = "async-query-" + pool.incrementAndGet() + "-";
+        
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread result = new Thread(runnable, prefix + thread.incrementAndGet());
+            result.setDaemon(true);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package persistence;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache bounded by number of entries and optionally by time to live of entry,
+ * used by caches of this module. When cache is full least recently used entry
+ * is evicted.
+ * <p>
+ * All operations are synchronized on cache, so compound operations may
+ * synchronize on it too.
+ */
+class BoundedCache<Key, Value> {
+    
+    private volatile int maximumSize;
+    private volatile long timeToLiveMillis;
+    private final Map<Key, Entry<Value>> entries = new LinkedHashMap<Key, Entry<Value>>(16, 0.75f, true) {
+        
+        private static final long serialVersionUID = 1L;
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry<Value>> eldest) {
+            if (size() > maximumSize) {
+                evicted(eldest.getKey(), eldest.getValue().value);
+                return true;
+            }
+            return false;
+        }
+    };
+    
+    /**
+     * Entries without time to live.
+     */
+    BoundedCache(int maximumSize) {
+        this(maximumSize, 0);
+    }
+    
+    /**
+     * @param timeToLiveMillis
+     *            time to live of entry, 0 when entries do not expire
+     */
+    BoundedCache(int maximumSize, long timeToLiveMillis) {
+        this.maximumSize = maximumSize;
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+    
+    /**
+     * Value of key, <code>null</code> when there is none or it expired.
+     */
+    synchronized Value get(Key key) {
+        Entry<Value> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires != 0 && System.currentTimeMillis() > entry.expires) {
+            entries.remove(key);
+            evicted(key, entry.value);
+            return null;
+        }
+        return entry.value;
+    }
+    
+    synchronized void put(Key key, Value value) {
+        long ttl = timeToLiveMillis;
+        entries.put(key, new Entry<Value>(value, ttl == 0 ? 0 : System.currentTimeMillis() + ttl));
+    }
+    
+    synchronized void remove(Key key) {
+        entries.remove(key);
+    }
+    
+    /**
+     * Removes all entries, without notification of {@link #evicted(Object, Object)}.
+     */
+    synchronized void clear() {
+        entries.clear();
+    }
+    
+    synchronized int size() {
+        return entries.size();
+    }
+    
+    int getMaximumSize() {
+        return maximumSize;
+    }
+    
+    synchronized void setMaximumSize(int maximumSize) {
+        this.maximumSize = maximumSize;
+        Iterator<Map.Entry<Key, Entry<Value>>> iterator = entries.entrySet().iterator();
+        while (entries.size() > maximumSize && iterator.hasNext()) {
+            Map.Entry<Key, Entry<Value>> eldest = iterator.next();
+            iterator.remove();
+            evicted(eldest.getKey(), eldest.getValue().value);
+        }
+    }
+    
+    /**
+     * Applies to entries put from now on.
+     */
+    void setTimeToLive(long timeToLive, TimeUnit unit) {
+        this.timeToLiveMillis = unit.toMillis(timeToLive);
+    }
+    
+    /**
+     * Called with cache lock held when entry is evicted because cache is full
+     * or entry expired.
+     */
+    void evicted(Key key, Value value) {
+    }
+    
+    private static class Entry<Value> {
+        
+        private final Value value;
+        private final long expires;
+        
+        Entry(Value value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
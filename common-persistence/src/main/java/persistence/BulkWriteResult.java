@@ -0,0 +1,58 @@
+package persistence;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summary of bulk write: number of written entities, flushes and elapsed time.
+ * For chunked bulk statements count is number of affected rows and flushes
+ * is number of committed chunks.
+ * 
+ * @see BulkWriter
+ * @see ChunkedBulkExecutor
+ */
+public class BulkWriteResult {
+    
+    private final long count;
+    private final long flushes;
+    private final long elapsedNanos;
+    
+    BulkWriteResult(long count, long flushes, long elapsedNanos) {
+        this.count = count;
+        this.flushes = flushes;
+        this.elapsedNanos = elapsedNanos;
+    }
+    
+    public long getCount() {
+        return count;
+    }
+    
+    public long getFlushes() {
+        return flushes;
+    }
+    
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+    
+    public double getEntitiesPerSecond() {
+        if (elapsedNanos == 0) {
+            return 0;
+        }
+        return count * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("BulkWriteResult [count=");
+        builder.append(count);
+        builder.append(", flushes=");
+        builder.append(flushes);
+        builder.append(", elapsedMillis=");
+        builder.append(getElapsedMillis());
+        builder.append(", entitiesPerSecond=");
+        builder.append(Math.round(getEntitiesPerSecond()));
+        builder.append("]");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,120 @@
+package persistence;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Writes large collections of entities in chunks.
+ * <p>
+ * After each chunk of <code>batchSize</code> entities persistence context is
+ * flushed and cleared, so memory used by persistence context is bounded by
+ * single chunk and flushed inserts/updates are sent to database as JDBC
+ * batches. Clearing detaches <strong>all</strong> entities managed by entity
+ * manager, including entities loaded before bulk write started.
+ * <p>
+ * JDBC batch writing can't be switched on for single entity manager, it has to
+ * be configured in persistence unit, with batch size equal to
+ * <code>batchSize</code> or its divisor:
+ * 
+ * <pre>
+ * &lt;property name=&quot;eclipselink.jdbc.batch-writing&quot; value=&quot;JDBC&quot;/&gt;
+ * &lt;property name=&quot;eclipselink.jdbc.batch-writing.size&quot; value=&quot;500&quot;/&gt;
+ * </pre>
+ * 
+ * Without it each entity is written by its own statement, which is logged as
+ * warning once per factory.
+ * 
+ * <pre>
+ * BulkWriteResult result = EntityManagerHelper.persistAll(entityManager, importedPersons, 1000);
+ * log.info(&quot;Imported &quot; + result);
+ * </pre>
+ */
+public class BulkWriter {
+    
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    
+    static final String BATCH_WRITING = "eclipselink.jdbc.batch-writing";
+    
+    private static final Logger log = Logger.getLogger(BulkWriter.class.getName());
+    /** factories already warned about missing batch writing, referenced weakly */
+    private static final Map<EntityManagerFactory, Boolean> warned = new WeakHashMap<EntityManagerFactory, Boolean>();
+    
+    private final EntityManager entityManager;
+    private final int batchSize;
+    
+    public BulkWriter(EntityManager entityManager) {
+        this(entityManager, DEFAULT_BATCH_SIZE);
+    }
+    
+    public BulkWriter(EntityManager entityManager, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.entityManager = entityManager;
+        this.batchSize = batchSize;
+    }
+    
+    public BulkWriteResult persistAll(Iterable<?> entities) {
+        return write(entities, false);
+    }
+    
+    public BulkWriteResult mergeAll(Iterable<?> entities) {
+        return write(entities, true);
+    }
+    
+    private BulkWriteResult write(Iterable<?> entities, boolean merge) {
+        if (ProviderHints.isSupportedBy(entityManager)) {
+            warnWithoutBatchWriting(entityManager.getEntityManagerFactory());
+        }
+        String operation = merge ? "mergeAll" : "persistAll";
+        long statisticsStart = QueryStatistics.start();
+        long start = System.nanoTime();
+        long count = 0;
+        long flushes = 0;
+        try {
+            for (Object entity : entities) {
+                if (merge) {
+                    entityManager.merge(entity);
+                } else {
+                    entityManager.persist(entity);
+                }
+                count++;
+                if (count % batchSize == 0) {
+                    flushAndClear();
+                    flushes++;
+                }
+            }
+            if (count % batchSize != 0) {
+                flushAndClear();
+                flushes++;
+            }
+        } catch (RuntimeException e) {
+            QueryStatistics.recordFailure(statisticsStart, operation, null);
+            throw e;
+        }
+        QueryStatistics.recordWrite(statisticsStart, operation, count);
+        return new BulkWriteResult(count, flushes, System.nanoTime() - start);
+    }
+    
+    private static void warnWithoutBatchWriting(EntityManagerFactory factory) {
+        synchronized (warned) {
+            if (warned.containsKey(factory)) {
+                return;
+            }
+            warned.put(factory, Boolean.TRUE);
+        }
+        if (!factory.getProperties().containsKey(BATCH_WRITING)) {
+            log.log(Level.WARNING, "Persistence unit does not configure {0}, entities are written without JDBC batches", BATCH_WRITING);
+        }
+    }
+    
+    private void flushAndClear() {
+        entityManager.flush();
+        entityManager.clear();
+    }
+}
@@ -0,0 +1,204 @@
+package persistence;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.TypedQuery;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Type.PersistenceType;
+
+/**
+ * Loads entities by many identifiers with <code>IN</code> queries split into
+ * chunks. Size of each chunk is padded to power of two (by repeating last
+ * identifier), so only few distinct SQL statements are produced and they stay
+ * in statement caches. With EclipseLink entities already held in shared
+ * cache are read from there first without touching database (cache usage
+ * <code>CheckCacheOnly</code> reads shared cache, not persistence context).
+ * <p>
+ * Identifiers are converted to type of entity identifier when they are
+ * integral numbers of other type (like {@link Integer} for {@link Long}
+ * identifier) and their value fits,
+ * identifiers of other types are rejected. Duplicate identifiers return the
+ * same entity again. Only single basic identifiers are supported, entities
+ * with composite identifier (<code>IdClass</code> or
+ * <code>EmbeddedId</code>) are rejected.
+ * 
+ * @see EntityManagerHelper#findManyByIds(EntityManager, Class, Collection)
+ */
+final class ByIdsQueries {
+    
+    static final int MAXIMUM_CHUNK_SIZE = 512;
+    
+    private static final String IDS = "ids";
+    /** lookups by entity class name of weakly referenced factories */
+    private static final Map<EntityManagerFactory, Map<String, Lookup>> lookups = new WeakHashMap<EntityManagerFactory, Map<String, Lookup>>();
+    
+    static <EntityType> List<EntityType> findManyByIds(EntityManager entityManager, Class<EntityType> entityClass, Collection<?> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<EntityType>(0);
+        }
+        Lookup lookup = lookupFor(entityManager, entityClass);
+        String query = lookup.query;
+        List<Object> converted = new ArrayList<Object>(ids.size());
+        for (Object id : ids) {
+            converted.add(lookup.convert(id));
+        }
+        PersistenceUnitUtil util = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+        Set<Object> remaining = new LinkedHashSet<Object>(converted);
+        Map<Object, EntityType> found = new HashMap<Object, EntityType>(remaining.size() * 2);
+        if (ProviderHints.isSupportedBy(entityManager)) {
+            TypedQuery<EntityType> cached = QueryDefinitionCache.getShared().createQuery(entityManager, query, entityClass);
+            cached.setHint(ProviderHints.CACHE_USAGE, ProviderHints.CACHE_USAGE_CHECK_CACHE_ONLY);
+            cached.setParameter(IDS, new ArrayList<Object>(remaining));
+            collect(cached.getResultList(), util, found, remaining);
+        }
+        Object[] chunk = new Object[Math.min(MAXIMUM_CHUNK_SIZE, paddedSize(remaining.size()))];
+        List<Object> pending = new ArrayList<Object>(remaining);
+        for (int start = 0; start < pending.size(); start += MAXIMUM_CHUNK_SIZE) {
+            int size = Math.min(MAXIMUM_CHUNK_SIZE, pending.size() - start);
+            int padded = paddedSize(size);
+            for (int i = 0; i < padded; i++) {
+                chunk[i] = pending.get(start + Math.min(i, size - 1));
+            }
+            TypedQuery<EntityType> queryObject = QueryDefinitionCache.getShared().createQuery(entityManager, query, entityClass);
+            queryObject.setParameter(IDS, Arrays.asList(chunk).subList(0, padded));
+            collect(queryObject.getResultList(), util, found, remaining);
+        }
+        List<EntityType> result = new ArrayList<EntityType>(found.size());
+        for (Object id : converted) {
+            EntityType entity = found.get(id);
+            if (entity != null) {
+                result.add(entity);
+            }
+        }
+        return result;
+    }
+    
+    static int paddedSize(int size) {
+        int padded = Integer.highestOneBit(Math.max(size, 1));
+        return padded == size ? padded : padded << 1;
+    }
+    
+    private static <EntityType> void collect(List<EntityType> entities, PersistenceUnitUtil util, Map<Object, EntityType> found, Set<Object> remaining) {
+        for (EntityType entity : entities) {
+            Object id = util.getIdentifier(entity);
+            found.put(id, entity);
+            remaining.remove(id);
+        }
+    }
+    
+    private static Lookup lookupFor(EntityManager entityManager, Class<?> entityClass) {
+        Map<String, Lookup> lookupsOfFactory;
+        synchronized (lookups) {
+            lookupsOfFactory = lookups.get(entityManager.getEntityManagerFactory());
+            if (lookupsOfFactory == null) {
+                lookupsOfFactory = new HashMap<String, Lookup>();
+                lookups.put(entityManager.getEntityManagerFactory(), lookupsOfFactory);
+            }
+        }
+        Lookup lookup;
+        synchronized (lookupsOfFactory) {
+            lookup = lookupsOfFactory.get(entityClass.getName());
+        }
+        if (lookup == null) {
+            EntityType<?> entityType = entityManager.getMetamodel().entity(entityClass);
+            if (!entityType.hasSingleIdAttribute() || entityType.getIdType().getPersistenceType() != PersistenceType.BASIC) {
+                throw new IllegalArgumentException("Loading by many composite identifiers is not supported: " + entityClass.getName());
+            }
+            Class<?> idType = entityType.getIdType().getJavaType();
+            String idAttribute = entityType.getId(idType).getName();
+            lookup = new Lookup("SELECT e FROM " + entityType.getName() + " e WHERE e." + idAttribute + " IN :" + IDS, idType);
+            synchronized (lookupsOfFactory) {
+                lookupsOfFactory.put(entityClass.getName(), lookup);
+            }
+        }
+        return lookup;
+    }
+    
+    /**
+     * Query and identifier type of single entity class.
+     */
+    private static class Lookup {
+        
+        private final String query;
+        private final Class<?> idType;
+        
+        Lookup(String query, Class<?> idType) {
+            this.query = query;
+            this.idType = wrapperOf(idType);
+        }
+        
+        Object convert(Object id) {
+            if (idType.isInstance(id)) {
+                return id;
+            }
+            if (isIntegral(id) && isIntegral(idType)) {
+                long value = ((Number) id).longValue();
+                Object converted;
+                if (idType == Long.class) {
+                    converted = Long.valueOf(value);
+                } else if (idType == Integer.class) {
+                    converted = Integer.valueOf((int) value);
+                } else if (idType == Short.class) {
+                    converted = Short.valueOf((short) value);
+                } else if (idType == Byte.class) {
+                    converted = Byte.valueOf((byte) value);
+                } else {
+                    converted = BigInteger.valueOf(value);
+                }
+                if (((Number) converted).longValue() == value && BigInteger.valueOf(value).equals(new BigInteger(id.toString()))) {
+                    return converted;
+                }
+            }
+            throw new IllegalArgumentException("Identifier " + id + (id == null ? "" : " of " + id.getClass().getName())
+                    + " does not match identifier type " + idType.getName());
+        }
+        
+        private static boolean isIntegral(Object id) {
+            return id instanceof Long || id instanceof Integer || id instanceof Short || id instanceof Byte || id instanceof BigInteger;
+        }
+        
+        private static boolean isIntegral(Class<?> type) {
+            return type == Long.class || type == Integer.class || type == Short.class || type == Byte.class || type == BigInteger.class;
+        }
+        
+        private static Class<?> wrapperOf(Class<?> type) {
+            if (!type.isPrimitive()) {
+                return type;
+            }
+            if (type == long.class) {
+                return Long.class;
+            }
+            if (type == int.class) {
+                return Integer.class;
+            }
+            if (type == short.class) {
+                return Short.class;
+            }
+            if (type == byte.class) {
+                return Byte.class;
+            }
+            if (type == char.class) {
+                return Character.class;
+            }
+            if (type == boolean.class) {
+                return Boolean.class;
+            }
+            return type == double.class ? Double.class : Float.class;
+        }
+    }
+    
+    private ByIdsQueries() {
+    }
+}
@@ -0,0 +1,303 @@
+package persistence;
+
+import java.math.BigInteger;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+
+/**
+ * Executes JPQL bulk <code>UPDATE</code>/<code>DELETE</code> in chunks of key
+ * range, each chunk in its own transaction, so rows are locked only for
+ * duration of single chunk.
+ * <p>
+ * Statement restricts numeric key by two parameters, lower bound inclusive
+ * and upper bound exclusive, which are bound to consecutive ranges of
+ * <code>chunkSize</code> keys between given minimum and maximum. Chunks run
+ * sequentially or in parallel on given executor, at most
+ * <code>parallelism</code> chunks are submitted at once and next chunk is
+ * submitted when one of them completes. After first failed chunk no other
+ * chunks are started, committed chunks stay committed.
+ * <p>
+ * Each chunk commits its own transaction of entity manager created from the
+ * factory, so persistence unit has to be <code>RESOURCE_LOCAL</code>, JTA
+ * units fail on first chunk with {@link IllegalStateException}. In container the
+ * factory is injected by <code>&#064;PersistenceUnit</code> of unit with
+ * <code>non-jta-data-source</code>.
+ * 
+ * <pre>
+ * BulkWriteResult result = new ChunkedBulkExecutor(entityManagerFactory).execute(
+ *         &quot;DELETE FROM LogEntry l WHERE l.created &lt; :before AND l.id &gt;= :fromId AND l.id &lt; :toId&quot;,
+ *         withParam(&quot;before&quot;, monthAgo), &quot;fromId&quot;, &quot;toId&quot;, minId, maxId, 10000, null);
+ * </pre>
+ */
+public class ChunkedBulkExecutor {
+    
+    /**
+     * Notified after each committed chunk, possibly concurrently from
+     * executor threads. Exceptions thrown by listener are logged, they do
+     * not fail the chunk.
+     */
+    public interface ProgressListener {
+        
+        void chunkCompleted(long fromKey, long toKey, int affectedRows, long completedChunks, long totalChunks);
+    }
+    
+    private static final Logger log = Logger.getLogger(ChunkedBulkExecutor.class.getName());
+    
+    private final EntityManagerFactory entityManagerFactory;
+    private final ExecutorService executor;
+    private final int parallelism;
+    
+    /**
+     * Chunks run sequentially in calling thread.
+     */
+    public ChunkedBulkExecutor(EntityManagerFactory entityManagerFactory) {
+        this(entityManagerFactory, null, 1);
+    }
+    
+    /**
+     * Chunks run in parallel on given executor, each on its own entity
+     * manager, at most one chunk per available processor at once.
+     */
+    public ChunkedBulkExecutor(EntityManagerFactory entityManagerFactory, ExecutorService executor) {
+        this(entityManagerFactory, executor, Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * Chunks run in parallel on given executor, at most
+     * <code>parallelism</code> chunks at once.
+     */
+    public ChunkedBulkExecutor(EntityManagerFactory entityManagerFactory, ExecutorService executor, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.entityManagerFactory = entityManagerFactory;
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+    
+    /**
+     * @param minKey
+     *            lowest key to process
+     * @param maxKey
+     *            highest key to process, lower than {@link Long#MAX_VALUE} as
+     *            upper bound of last chunk is exclusive
+     * @param listener
+     *            progress listener or <code>null</code>
+     * @return number of affected rows and committed chunks
+     * @throws PersistenceException
+     *             when any chunk failed, cause is failure of first chunk
+     */
+    public BulkWriteResult execute(String statement, QueryParamBuilder params, String lowerKeyParam, String upperKeyParam,
+            long minKey, long maxKey, long chunkSize, ProgressListener listener) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        if (maxKey == Long.MAX_VALUE) {
+            throw new IllegalArgumentException("Maximum key must be lower than " + Long.MAX_VALUE + ", upper bound of chunk is exclusive");
+        }
+        long start = System.nanoTime();
+        QueryParamBuilder preparedParams = params == null ? null : params.prepared();
+        Progress progress = new Progress(totalChunks(minKey, maxKey, chunkSize), listener);
+        Chunks chunks = new Chunks(statement, preparedParams, lowerKeyParam, upperKeyParam, minKey, maxKey, chunkSize, progress);
+        if (executor == null) {
+            while (chunks.hasNext() && !progress.failed.get()) {
+                chunks.next().call();
+            }
+        } else {
+            runInParallel(chunks, progress);
+        }
+        return progress.result(System.nanoTime() - start);
+    }
+    
+    private static long totalChunks(long minKey, long maxKey, long chunkSize) {
+        if (maxKey < minKey) {
+            return 0;
+        }
+        BigInteger chunks = BigInteger.valueOf(maxKey).subtract(BigInteger.valueOf(minKey))
+                .divide(BigInteger.valueOf(chunkSize)).add(BigInteger.ONE);
+        if (chunks.bitLength() > 63) {
+            throw new IllegalArgumentException("Too many chunks of size " + chunkSize + " between " + minKey + " and " + maxKey);
+        }
+        return chunks.longValue();
+    }
+    
+    private void runInParallel(Chunks chunks, Progress progress) {
+        CompletionService<Void> completion = new ExecutorCompletionService<Void>(executor);
+        int running = 0;
+        PersistenceException failure = null;
+        while (running < parallelism && chunks.hasNext()) {
+            completion.submit(chunks.next());
+            running++;
+        }
+        while (running > 0) {
+            try {
+                completion.take().get();
+            } catch (InterruptedException e) {
+                progress.failed.set(true);
+                Thread.currentThread().interrupt();
+                throw new PersistenceException("Interrupted while waiting for bulk chunks", e);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof PersistenceException ? (PersistenceException) e.getCause()
+                            : new PersistenceException(e.getCause());
+                }
+            }
+            running--;
+            if (failure == null && chunks.hasNext()) {
+                completion.submit(chunks.next());
+                running++;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+    
+    private static class Progress {
+        
+        private final long totalChunks;
+        private final ProgressListener listener;
+        private final AtomicLong completedChunks = new AtomicLong();
+        private final AtomicLong affectedRows = new AtomicLong();
+        private final AtomicBoolean failed = new AtomicBoolean();
+        
+        Progress(long totalChunks, ProgressListener listener) {
+            this.totalChunks = totalChunks;
+            this.listener = listener;
+        }
+        
+        void completed(long fromKey, long toKey, int rows) {
+            affectedRows.addAndGet(rows);
+            long completed = completedChunks.incrementAndGet();
+            if (listener != null) {
+                try {
+                    listener.chunkCompleted(fromKey, toKey, rows, completed, totalChunks);
+                } catch (RuntimeException e) {
+                    log.log(Level.WARNING, "Progress listener failed after chunk [" + fromKey + ", " + toKey + ") was committed", e);
+                }
+            }
+        }
+        
+        BulkWriteResult result(long elapsedNanos) {
+            return new BulkWriteResult(affectedRows.get(), completedChunks.get(), elapsedNanos);
+        }
+    }
+    
+    /**
+     * Chunks of key range created on demand, without overflow of keys near
+     * {@link Long} bounds.
+     */
+    private class Chunks {
+        
+        private final String statement;
+        private final QueryParamBuilder params;
+        private final String lowerKeyParam;
+        private final String upperKeyParam;
+        private final long maxKey;
+        private final long chunkSize;
+        private final Progress progress;
+        private long fromKey;
+        private boolean finished;
+        
+        Chunks(String statement, QueryParamBuilder params, String lowerKeyParam, String upperKeyParam, long minKey, long maxKey, long chunkSize, Progress progress) {
+            this.statement = statement;
+            this.params = params;
+            this.lowerKeyParam = lowerKeyParam;
+            this.upperKeyParam = upperKeyParam;
+            this.maxKey = maxKey;
+            this.chunkSize = chunkSize;
+            this.progress = progress;
+            this.fromKey = minKey;
+            this.finished = maxKey < minKey;
+        }
+        
+        boolean hasNext() {
+            return !finished;
+        }
+        
+        Chunk next() {
+            long remaining = maxKey - fromKey;
+            long toKey;
+            if (remaining >= 0 && remaining < chunkSize) {
+                toKey = maxKey + 1;
+                finished = true;
+            } else {
+                toKey = fromKey + chunkSize;
+            }
+            Chunk chunk = new Chunk(statement, params, lowerKeyParam, upperKeyParam, fromKey, toKey, progress);
+            fromKey = toKey;
+            return chunk;
+        }
+    }
+    
+    private class Chunk implements Callable<Void> {
+        
+        private final String statement;
+        private final QueryParamBuilder params;
+        private final String lowerKeyParam;
+        private final String upperKeyParam;
+        private final long fromKey;
+        private final long toKey;
+        private final Progress progress;
+        
+        Chunk(String statement, QueryParamBuilder params, String lowerKeyParam, String upperKeyParam, long fromKey, long toKey, Progress progress) {
+            this.statement = statement;
+            this.params = params;
+            this.lowerKeyParam = lowerKeyParam;
+            this.upperKeyParam = upperKeyParam;
+            this.fromKey = fromKey;
+            this.toKey = toKey;
+            this.progress = progress;
+        }
+        
+        @Override
+        public Void call() {
+            if (progress.failed.get()) {
+                return null;
+            }
+            EntityManager entityManager = entityManagerFactory.createEntityManager();
+            int rows;
+            try {
+                EntityTransaction transaction;
+                try {
+                    transaction = entityManager.getTransaction();
+                } catch (IllegalStateException e) {
+                    progress.failed.set(true);
+                    throw new IllegalStateException("Chunked bulk statements need RESOURCE_LOCAL persistence unit", e);
+                }
+                try {
+                    transaction.begin();
+                    Query queryObject = entityManager.createQuery(statement);
+                    EntityManagerHelper.bind(queryObject, params);
+                    queryObject.setParameter(lowerKeyParam, fromKey);
+                    queryObject.setParameter(upperKeyParam, toKey);
+                    rows = queryObject.executeUpdate();
+                    transaction.commit();
+                } catch (RuntimeException e) {
+                    progress.failed.set(true);
+                    if (transaction.isActive()) {
+                        transaction.rollback();
+                    }
+                    throw new PersistenceException("Bulk chunk [" + fromKey + ", " + toKey + ") failed", e);
+                }
+            } finally {
+                entityManager.close();
+            }
+            progress.completed(fromKey, toKey, rows);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package persistence;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Numeric query result stored by columns in primitive arrays, without boxing
+ * of values and without row objects. Column of million <code>long</code>
+ * values takes 8 MB instead of tens of MB needed by <code>Object[]</code> rows
+ * of <code>Long</code> or <code>BigDecimal</code>.
+ * <p>
+ * Off-heap result keeps columns in direct buffers outside of Java heap, which
+ * suits very large results read once, buffers are released by garbage
+ * collector together with result. SQL <code>NULL</code> is read as zero, use
+ * <code>COALESCE</code> when zero is valid value.
+ * <p>
+ * Result holds at most {@link #MAXIMUM_CAPACITY} rows, off-heap one at most
+ * as many rows as fit in 2 GB buffer of its widest column.
+ * 
+ * <pre>
+ * ColumnarResult amounts = findColumnar(entityManager, &quot;SELECT id, amount FROM payment WHERE year = :year&quot;,
+ *         withParam(&quot;year&quot;, 2013), ColumnType.LONG, ColumnType.DOUBLE);
+ * double total = 0;
+ * for (double amount : amounts.getDoubles(1)) {
+ *     total += amount;
+ * }
+ * </pre>
+ * 
+ * @see EntityManagerHelper#findColumnar(javax.persistence.EntityManager, String, QueryParamBuilder, ColumnType...)
+ */
+public class ColumnarResult {
+    
+    public enum ColumnType {
+        LONG(8), INT(4), DOUBLE(8);
+        
+        private final int width;
+        
+        private ColumnType(int width) {
+            this.width = width;
+        }
+    }
+    
+    static final int INITIAL_CAPACITY = 1024;
+    /** Largest array some virtual machines allocate. */
+    static final int MAXIMUM_CAPACITY = Integer.MAX_VALUE - 8;
+    static final int FETCH_SIZE = 1000;
+    
+    private final ColumnType[] types;
+    private final boolean offHeap;
+    /** long[], int[] or double[] for heap result, {@link ByteBuffer} for off-heap one */
+    private final Object[] columns;
+    private int size;
+    private int capacity;
+    private final int maximumCapacity;
+    
+    ColumnarResult(ColumnType[] types, boolean offHeap) {
+        this.types = types.clone();
+        this.offHeap = offHeap;
+        this.columns = new Object[types.length];
+        this.maximumCapacity = maximumCapacity(types, offHeap);
+        allocate(INITIAL_CAPACITY);
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public int getColumnCount() {
+        return types.length;
+    }
+    
+    public ColumnType getColumnType(int column) {
+        return types[column];
+    }
+    
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+    
+    public long getLong(int column, int row) {
+        checkRow(row);
+        switch (types[column]) {
+            case LONG:
+                return offHeap ? ((ByteBuffer) columns[column]).getLong(row << 3) : ((long[]) columns[column])[row];
+            case INT:
+                return getInt(column, row);
+            default:
+                throw new IllegalArgumentException("Column " + column + " is " + types[column]);
+        }
+    }
+    
+    public int getInt(int column, int row) {
+        checkRow(row);
+        checkType(column, ColumnType.INT);
+        return offHeap ? ((ByteBuffer) columns[column]).getInt(row << 2) : ((int[]) columns[column])[row];
+    }
+    
+    public double getDouble(int column, int row) {
+        checkRow(row);
+        switch (types[column]) {
+            case DOUBLE:
+                return offHeap ? ((ByteBuffer) columns[column]).getDouble(row << 3) : ((double[]) columns[column])[row];
+            case LONG:
+                return getLong(column, row);
+            default:
+                return getInt(column, row);
+        }
+    }
+    
+    /**
+     * Values of {@link ColumnType#LONG} column of heap result, returned array
+     * is not copied.
+     */
+    public long[] getLongs(int column) {
+        checkHeap(column, ColumnType.LONG);
+        return (long[]) columns[column];
+    }
+    
+    /**
+     * Values of {@link ColumnType#INT} column of heap result, returned array
+     * is not copied.
+     */
+    public int[] getInts(int column) {
+        checkHeap(column, ColumnType.INT);
+        return (int[]) columns[column];
+    }
+    
+    /**
+     * Values of {@link ColumnType#DOUBLE} column of heap result, returned
+     * array is not copied.
+     */
+    public double[] getDoubles(int column) {
+        checkHeap(column, ColumnType.DOUBLE);
+        return (double[]) columns[column];
+    }
+    
+    /**
+     * Read-only view of {@link ColumnType#LONG} column of heap or off-heap
+     * result.
+     */
+    public LongBuffer getLongBuffer(int column) {
+        checkType(column, ColumnType.LONG);
+        return offHeap ? view(column).asLongBuffer().asReadOnlyBuffer() : LongBuffer.wrap((long[]) columns[column]).asReadOnlyBuffer();
+    }
+    
+    public IntBuffer getIntBuffer(int column) {
+        checkType(column, ColumnType.INT);
+        return offHeap ? view(column).asIntBuffer().asReadOnlyBuffer() : IntBuffer.wrap((int[]) columns[column]).asReadOnlyBuffer();
+    }
+    
+    public DoubleBuffer getDoubleBuffer(int column) {
+        checkType(column, ColumnType.DOUBLE);
+        return offHeap ? view(column).asDoubleBuffer().asReadOnlyBuffer() : DoubleBuffer.wrap((double[]) columns[column]).asReadOnlyBuffer();
+    }
+    
+    void readAll(ResultSet resultSet) throws SQLException {
+        if (resultSet.getMetaData().getColumnCount() < types.length) {
+            throw new IllegalArgumentException("Query selects " + resultSet.getMetaData().getColumnCount() + " columns, expected " + types.length);
+        }
+        while (resultSet.next()) {
+            if (size == capacity) {
+                allocate(grownCapacity(capacity, maximumCapacity));
+            }
+            for (int column = 0; column < types.length; column++) {
+                read(resultSet, column);
+            }
+            size++;
+        }
+        if (!offHeap && size < capacity) {
+            allocate(size);
+        }
+    }
+    
+    private void read(ResultSet resultSet, int column) throws SQLException {
+        Object values = columns[column];
+        switch (types[column]) {
+            case LONG:
+                if (offHeap) {
+                    ((ByteBuffer) values).putLong(size << 3, resultSet.getLong(column + 1));
+                } else {
+                    ((long[]) values)[size] = resultSet.getLong(column + 1);
+                }
+                break;
+            case INT:
+                if (offHeap) {
+                    ((ByteBuffer) values).putInt(size << 2, resultSet.getInt(column + 1));
+                } else {
+                    ((int[]) values)[size] = resultSet.getInt(column + 1);
+                }
+                break;
+            default:
+                if (offHeap) {
+                    ((ByteBuffer) values).putDouble(size << 3, resultSet.getDouble(column + 1));
+                } else {
+                    ((double[]) values)[size] = resultSet.getDouble(column + 1);
+                }
+        }
+    }
+    
+    /**
+     * Doubled capacity, at most given maximum.
+     * 
+     * @throws IllegalStateException when capacity already is maximal
+     */
+    static int grownCapacity(int capacity, int maximumCapacity) {
+        if (capacity >= maximumCapacity) {
+            throw new IllegalStateException("Columnar result can't hold more than " + maximumCapacity + " rows");
+        }
+        return (int) Math.min(Math.max(2L * capacity, 1), maximumCapacity);
+    }
+    
+    /**
+     * Maximum rows, off-heap columns are limited by bytes of their buffers.
+     */
+    static int maximumCapacity(ColumnType[] types, boolean offHeap) {
+        int maximum = MAXIMUM_CAPACITY;
+        if (offHeap) {
+            for (ColumnType type : types) {
+                maximum = Math.min(maximum, Integer.MAX_VALUE / type.width);
+            }
+        }
+        return maximum;
+    }
+    
+    /**
+     * Allocates columns of given capacity keeping read values.
+     */
+    private void allocate(int newCapacity) {
+        for (int column = 0; column < types.length; column++) {
+            Object values = columns[column];
+            if (offHeap) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(newCapacity * types[column].width).order(ByteOrder.nativeOrder());
+                if (values != null) {
+                    ByteBuffer old = ((ByteBuffer) values).duplicate();
+                    old.position(0).limit(size * types[column].width);
+                    buffer.put(old);
+                    buffer.clear();
+                }
+                columns[column] = buffer;
+            } else if (types[column] == ColumnType.LONG) {
+                columns[column] = values == null ? new long[newCapacity] : Arrays.copyOf((long[]) values, newCapacity);
+            } else if (types[column] == ColumnType.INT) {
+                columns[column] = values == null ? new int[newCapacity] : Arrays.copyOf((int[]) values, newCapacity);
+            } else {
+                columns[column] = values == null ? new double[newCapacity] : Arrays.copyOf((double[]) values, newCapacity);
+            }
+        }
+        capacity = newCapacity;
+    }
+    
+    private ByteBuffer view(int column) {
+        ByteBuffer buffer = ((ByteBuffer) columns[column]).duplicate();
+        buffer.position(0).limit(size * types[column].width);
+        return buffer.slice().order(ByteOrder.nativeOrder());
+    }
+    
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+    }
+    
+    private void checkType(int column, ColumnType type) {
+        if (types[column] != type) {
+            throw new IllegalArgumentException("Column " + column + " is " + types[column]);
+        }
+    }
+    
+    private void checkHeap(int column, ColumnType type) {
+        checkType(column, type);
+        if (offHeap) {
+            throw new IllegalStateException("Off-heap result has no arrays, use buffer views");
+        }
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("ColumnarResult [types=");
+        builder.append(Arrays.toString(types));
+        builder.append(", size=");
+        builder.append(size);
+        builder.append(", offHeap=");
+        builder.append(offHeap);
+        builder.append("]");
+        return builder.toString();
+    }
+}
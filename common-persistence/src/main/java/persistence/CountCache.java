@@ -0,0 +1,126 @@
+package persistence;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Query;
+
+/**
+ * Short living cache of count queries used by paged queries, so flipping pages
+ * with unchanged filters does not count results again. Counts are kept per
+ * factory, factories are referenced weakly and are not held after
+ * undeployment.
+ * 
+ * @see EntityManagerHelper#findPage(EntityManager, Class, String, QueryParamBuilder, int, int)
+ */
+public class CountCache {
+    
+    public static final int DEFAULT_MAXIMUM_SIZE = 1000;
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    
+    private static final CountCache shared = new CountCache(DEFAULT_MAXIMUM_SIZE, DEFAULT_TIME_TO_LIVE_MILLIS);
+    
+    public static CountCache getShared() {
+        return shared;
+    }
+    
+    private final Map<EntityManagerFactory, BoundedCache<Key, Long>> byFactory = new WeakHashMap<EntityManagerFactory, BoundedCache<Key, Long>>();
+    private final int maximumSize;
+    private volatile long timeToLiveMillis;
+    
+    /**
+     * @param maximumSize
+     *            maximum number of counts of single factory
+     */
+    public CountCache(int maximumSize, long timeToLiveMillis) {
+        this.maximumSize = maximumSize;
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+    
+    public void setTimeToLive(long timeToLive, TimeUnit unit) {
+        synchronized (byFactory) {
+            this.timeToLiveMillis = unit.toMillis(timeToLive);
+            for (BoundedCache<Key, Long> counts : byFactory.values()) {
+                counts.setTimeToLive(timeToLive, unit);
+            }
+        }
+    }
+    
+    public void invalidateAll() {
+        synchronized (byFactory) {
+            byFactory.clear();
+        }
+    }
+    
+    long count(EntityManager entityManager, String countQuery, QueryParamBuilder params) {
+        BoundedCache<Key, Long> counts = countsOf(entityManager.getEntityManagerFactory());
+        Key key = new Key(countQuery, params);
+        Long cached = counts.get(key);
+        if (cached != null) {
+            return cached.longValue();
+        }
+        long start = QueryStatistics.start();
+        long count;
+        try {
+            Query queryObject = QueryDefinitionCache.getShared().createQuery(entityManager, countQuery);
+            EntityManagerHelper.bind(queryObject, params);
+            count = ((Number) queryObject.getSingleResult()).longValue();
+            QueryStatistics.record(start, countQuery, params, 1);
+        } catch (RuntimeException e) {
+            QueryStatistics.recordFailure(start, countQuery, params);
+            throw e;
+        }
+        counts.put(key, Long.valueOf(count));
+        return count;
+    }
+    
+    private BoundedCache<Key, Long> countsOf(EntityManagerFactory factory) {
+        synchronized (byFactory) {
+            BoundedCache<Key, Long> counts = byFactory.get(factory);
+            if (counts == null) {
+                counts = new BoundedCache<Key, Long>(maximumSize, timeToLiveMillis);
+                byFactory.put(factory, counts);
+            }
+            return counts;
+        }
+    }
+    
+    /**
+     * Count query of single factory.
+     */
+    private static class Key {
+        
+        private final String query;
+        private final Map<Object, Object> params;
+        private final int hash;
+        
+        Key(String query, QueryParamBuilder params) {
+            this.query = query;
+            this.params = QueryParamBuilder.toMap(params);
+            int result = query.hashCode();
+            result = 31 * result + this.params.hashCode();
+            this.hash = result;
+        }
+        
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return query.equals(other.query)
+                    && params.equals(other.params);
+        }
+    }
+}
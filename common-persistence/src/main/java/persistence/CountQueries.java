@@ -0,0 +1,91 @@
+package persistence;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Derives count query from JPQL select query: select clause is replaced by
+ * count of root identification variable, ORDER BY is dropped and fetch joins
+ * become plain joins. Root variable is never <code>NULL</code>, so each row of
+ * select query is counted. <code>DISTINCT</code> is kept only for
+ * identification variable, queries with <code>DISTINCT</code> path or
+ * <code>GROUP BY</code>/<code>HAVING</code> clause can't be counted by single
+ * JPQL query and are rejected.
+ * 
+ * <pre>
+ * SELECT DISTINCT p FROM PersonEntity p JOIN FETCH p.addresses a WHERE a.city = :city ORDER BY p.name
+ * </pre>
+ * 
+ * becomes
+ * 
+ * <pre>
+ * SELECT COUNT(DISTINCT p) FROM PersonEntity p JOIN p.addresses a WHERE a.city = :city
+ * </pre>
+ */
+final class CountQueries {
+    
+    private static final int MAXIMUM_SIZE = 1024;
+    private static final Pattern FETCH_JOIN = Pattern.compile("(?i)\\bjoin\\s+fetch\\b");
+    private static final Pattern ALIAS = Pattern.compile("(?i)^from\\s+[\\w.$]+\\s+(?:as\\s+)?([\\w$]+)");
+    private static final Pattern GROUP_BY = Pattern.compile("(?i)group\\s+by\\b");
+    private static final Pattern IDENTIFICATION_VARIABLE = Pattern.compile("[\\w$]+");
+    private static final BoundedCache<String, String> derived = new BoundedCache<String, String>(MAXIMUM_SIZE);
+    
+    static String toCountQuery(String query) {
+        String result = derived.get(query);
+        if (result == null) {
+            result = derive(query);
+            derived.put(query, result);
+        }
+        return result;
+    }
+    
+    private static String derive(String query) {
+        int select = Projections.indexOfKeyword(query, "select", 0);
+        int from = Projections.indexOfKeyword(query, "from", select + 1);
+        if (from < 0) {
+            throw new IllegalArgumentException("Can't derive count query without FROM clause: " + query);
+        }
+        if (isGrouped(query, from)) {
+            throw new IllegalArgumentException("Can't derive count query of groups: " + query);
+        }
+        int orderBy = Projections.indexOfKeyword(query, "order", from);
+        String fromClause = (orderBy < 0 ? query.substring(from) : query.substring(from, orderBy)).trim();
+        Matcher alias = ALIAS.matcher(fromClause);
+        if (!alias.find()) {
+            throw new IllegalArgumentException("Can't derive count query without identification variable: " + query);
+        }
+        String counted = alias.group(1);
+        String distinct = "";
+        if (select >= 0) {
+            String items = query.substring(select + "select".length(), from).trim();
+            if (items.regionMatches(true, 0, "distinct", 0, "distinct".length())) {
+                items = items.substring("distinct".length()).trim();
+                if (!IDENTIFICATION_VARIABLE.matcher(items).matches()) {
+                    throw new IllegalArgumentException("Can't derive count query of DISTINCT " + items + ": " + query);
+                }
+                distinct = "DISTINCT ";
+                counted = items;
+            }
+        }
+        StringBuilder builder = new StringBuilder(query.length());
+        builder.append("SELECT COUNT(");
+        builder.append(distinct);
+        builder.append(counted);
+        builder.append(") ");
+        builder.append(FETCH_JOIN.matcher(fromClause).replaceAll("JOIN"));
+        return builder.toString();
+    }
+    
+    private static boolean isGrouped(String query, int from) {
+        for (int i = Projections.indexOfKeyword(query, "group", from); i >= 0; i = Projections.indexOfKeyword(query, "group", i + 1)) {
+            if (GROUP_BY.matcher(query).region(i, query.length()).lookingAt()) {
+                return true;
+            }
+        }
+        return Projections.indexOfKeyword(query, "having", from) >= 0;
+    }
+    
+    private CountQueries() {
+    }
+}
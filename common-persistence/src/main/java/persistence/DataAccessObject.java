@@ -9,6 +9,7 @@ import java.lang.annotation.Target;
 import javax.ejb.LocalBean;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttributeType;
+import javax.interceptor.InterceptorBinding;
 
 /**
  * Data Access Object stereotype.
@@ -17,6 +18,9 @@ import javax.ejb.TransactionAttributeType;
  * Business methods products view of database as transport objects.
  * Related topic: <strong>Command Query Responsibility Separation (CQRS)</strong>
  * 
+ * Methods are monitored for N+1 lazy loading by
+ * {@link DataAccessObjectLazyLoadInterceptor} when enabled.
+ * 
  * @see Stateless
  * @see LocalBean
  * @see TransactionAttributeType#SUPPORTS
@@ -26,6 +30,7 @@ import javax.ejb.TransactionAttributeType;
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.TYPE)
 @Documented
+@InterceptorBinding
 public @interface DataAccessObject {
     
 }
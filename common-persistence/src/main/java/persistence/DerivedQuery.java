@@ -0,0 +1,205 @@
+package persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * JPQL derived from name of repository method, like
+ * <code>findByCustomerAndStatusOrderByCreatedDesc</code>. Conditions are
+ * joined by <code>And</code>/<code>Or</code>, each condition is property name
+ * optionally followed by operator ({@link Operator}), orderings are property
+ * names optionally followed by <code>Asc</code>/<code>Desc</code>. Method
+ * <code>findAll</code> has no conditions.
+ * <p>
+ * Conditions are bound to positional parameters in order of method
+ * parameters.
+ * 
+ * @see RepositoryProcessor
+ */
+final class DerivedQuery {
+    
+    static final String ALIAS = "e";
+    
+    private static final String FIND_BY = "findBy";
+    private static final String FIND_ALL = "findAll";
+    private static final String ORDER_BY = "OrderBy";
+    private static final Pattern CONNECTOR = Pattern.compile("(?<=[a-z0-9])(?=(And|Or)[A-Z])");
+    private static final Pattern ORDERING = Pattern.compile("(?<=Asc|Desc)(?=[A-Z])");
+    
+    enum Operator {
+        IS_NOT_NULL("IsNotNull", "IS NOT NULL", false),
+        IS_NULL("IsNull", "IS NULL", false),
+        GREATER_THAN_EQUAL("GreaterThanEqual", ">=", true),
+        LESS_THAN_EQUAL("LessThanEqual", "<=", true),
+        GREATER_THAN("GreaterThan", ">", true),
+        LESS_THAN("LessThan", "<", true),
+        NOT_LIKE("NotLike", "NOT LIKE", true),
+        LIKE("Like", "LIKE", true),
+        NOT_IN("NotIn", "NOT IN", true),
+        IN("In", "IN", true),
+        NOT("Not", "<>", true),
+        EQUAL("", "=", true);
+        
+        private final String suffix;
+        private final String jpql;
+        private final boolean parameter;
+        
+        private Operator(String suffix, String jpql, boolean parameter) {
+            this.suffix = suffix;
+            this.jpql = jpql;
+            this.parameter = parameter;
+        }
+        
+        boolean hasParameter() {
+            return parameter;
+        }
+        
+        boolean isCollection() {
+            return this == IN || this == NOT_IN;
+        }
+        
+        boolean isText() {
+            return this == LIKE || this == NOT_LIKE;
+        }
+    }
+    
+    static class Condition {
+        
+        private final String connector;
+        private final String property;
+        private final Operator operator;
+        
+        Condition(String connector, String property, Operator operator) {
+            this.connector = connector;
+            this.property = property;
+            this.operator = operator;
+        }
+        
+        String getProperty() {
+            return property;
+        }
+        
+        Operator getOperator() {
+            return operator;
+        }
+    }
+    
+    /**
+     * @throws IllegalArgumentException when method name does not follow
+     *             conventions or refers to property not in given set
+     */
+    static DerivedQuery parse(String methodName, Set<String> properties) {
+        String rest;
+        if (methodName.startsWith(FIND_BY) && methodName.length() > FIND_BY.length()) {
+            rest = methodName.substring(FIND_BY.length());
+        } else if (methodName.startsWith(FIND_ALL)) {
+            rest = methodName.substring(FIND_ALL.length());
+            if (!rest.isEmpty() && !rest.startsWith(ORDER_BY)) {
+                throw new IllegalArgumentException("method name " + methodName + " should be findAll or findAllOrderBy...");
+            }
+        } else {
+            throw new IllegalArgumentException("method name " + methodName + " should start with " + FIND_BY + " or " + FIND_ALL);
+        }
+        String conditions = rest;
+        String orderings = "";
+        int orderBy = rest.lastIndexOf(ORDER_BY);
+        if (orderBy >= 0 && rest.length() > orderBy + ORDER_BY.length()) {
+            conditions = rest.substring(0, orderBy);
+            orderings = rest.substring(orderBy + ORDER_BY.length());
+        }
+        DerivedQuery query = new DerivedQuery();
+        if (!conditions.isEmpty()) {
+            for (String part : CONNECTOR.split(conditions)) {
+                String connector = null;
+                if (!query.conditions.isEmpty()) {
+                    connector = part.startsWith("And") ? "AND" : "OR";
+                    part = part.substring(connector.length());
+                }
+                query.conditions.add(conditionOf(connector, part, properties, methodName));
+            }
+        }
+        if (!orderings.isEmpty()) {
+            for (String part : ORDERING.split(orderings)) {
+                query.orderings.add(orderingOf(part, properties, methodName));
+            }
+        }
+        return query;
+    }
+    
+    private static Condition conditionOf(String connector, String part, Set<String> properties, String methodName) {
+        for (Operator operator : Operator.values()) {
+            if (part.endsWith(operator.suffix)) {
+                String property = propertyName(part.substring(0, part.length() - operator.suffix.length()));
+                if (properties.contains(property)) {
+                    return new Condition(connector, property, operator);
+                }
+            }
+        }
+        throw new IllegalArgumentException("method " + methodName + " refers to unknown property " + propertyName(part));
+    }
+    
+    private static String orderingOf(String part, Set<String> properties, String methodName) {
+        String direction = "";
+        if (part.endsWith("Desc")) {
+            direction = " DESC";
+            part = part.substring(0, part.length() - 4);
+        } else if (part.endsWith("Asc")) {
+            part = part.substring(0, part.length() - 3);
+        }
+        String property = propertyName(part);
+        if (!properties.contains(property)) {
+            throw new IllegalArgumentException("method " + methodName + " orders by unknown property " + property);
+        }
+        return ALIAS + "." + property + direction;
+    }
+    
+    /**
+     * Decapitalizes like {@link java.beans.Introspector#decapitalize(String)}.
+     */
+    static String propertyName(String name) {
+        if (name.length() > 1 && Character.isUpperCase(name.charAt(1)) && Character.isUpperCase(name.charAt(0))) {
+            return name;
+        }
+        return name.isEmpty() ? name : Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+    
+    private final List<Condition> conditions = new ArrayList<Condition>();
+    private final List<String> orderings = new ArrayList<String>();
+    
+    private DerivedQuery() {
+    }
+    
+    List<Condition> getConditions() {
+        return Collections.unmodifiableList(conditions);
+    }
+    
+    int getParameterCount() {
+        int count = 0;
+        for (Condition condition : conditions) {
+            if (condition.operator.hasParameter()) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    String toJpql(String entityName) {
+        StringBuilder jpql = new StringBuilder();
+        jpql.append("SELECT ").append(ALIAS).append(" FROM ").append(entityName).append(" ").append(ALIAS);
+        int position = 0;
+        for (Condition condition : conditions) {
+            jpql.append(condition.connector == null ? " WHERE " : " " + condition.connector + " ");
+            jpql.append(ALIAS).append(".").append(condition.property).append(" ").append(condition.operator.jpql);
+            if (condition.operator.hasParameter()) {
+                jpql.append(" ?").append(++position);
+            }
+        }
+        for (int i = 0; i < orderings.size(); i++) {
+            jpql.append(i == 0 ? " ORDER BY " : ", ").append(orderings.get(i));
+        }
+        return jpql.toString();
+    }
+}
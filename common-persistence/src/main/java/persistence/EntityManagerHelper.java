@@ -1,67 +1,484 @@
 package persistence;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 
+import persistence.ColumnarResult.ColumnType;
+import persistence.KeysetPager.KeyExtractor;
+
 /**
  * Makes using of {@link EntityManager} little bit easier.
+ * <p>
+ * Queries are created through {@link QueryDefinitionCache}, so the same JPQL is
+ * parsed by provider only once.
+ * Calls are measured by {@link QueryStatistics} when enabled.
  * 
  * @author Michal Michaluk <michaluk.michal@gmail.com>
  */
 public class EntityManagerHelper {
     
+    public static final int READ_ONLY_FETCH_SIZE = 100;
+    
+    private static final Logger log = Logger.getLogger(EntityManagerHelper.class.getName());
+    
     public static <EntityType> EntityType findOne(EntityManager entityManager, Class<EntityType> entityClass, String query, QueryParamBuilder params) throws NotFoundException {
-        TypedQuery<EntityType> queryObject = entityManager.createQuery(query, entityClass);
-        for (String name : params.map.keySet()) {
-            Object value = params.map.get(name);
-            queryObject.setParameter(name, value);
-        }
+        return findOne(entityManager, entityClass, query, params, null);
+    }
+    
+    /**
+     * Variant of {@link #findOne(EntityManager, Class, String, QueryParamBuilder)}
+     * loading associations of given fetch plan.
+     */
+    public static <EntityType> EntityType findOne(EntityManager entityManager, Class<EntityType> entityClass, String query, QueryParamBuilder params, FetchPlan plan) throws NotFoundException {
+        long start = QueryStatistics.start();
         try {
-            return queryObject.getSingleResult();
-        } catch (NoResultException e) {
-            throw new NotFoundException();
+            TypedQuery<EntityType> queryObject = QueryDefinitionCache.getShared().createQuery(entityManager, query, entityClass);
+            bind(queryObject, params);
+            FetchPlan.apply(entityManager, queryObject, plan);
+            try {
+                EntityType result = queryObject.getSingleResult();
+                QueryStatistics.record(start, query, params, 1);
+                return result;
+            } catch (NoResultException e) {
+                QueryStatistics.record(start, query, params, 0);
+                throw new NotFoundException();
+            }
+        } catch (RuntimeException e) {
+            QueryStatistics.recordFailure(start, query, params);
+            throw e;
         }
     }
     
     public static <EntityType> List<EntityType> findMany(EntityManager entityManager, Class<EntityType> entityClass, String query, QueryParamBuilder params) {
-        TypedQuery<EntityType> queryObject = entityManager.createQuery(query, entityClass);
-        for (String name : params.map.keySet()) {
-            Object value = params.map.get(name);
-            queryObject.setParameter(name, value);
+        return findMany(entityManager, entityClass, query, params, null);
+    }
+    
+    /**
+     * Variant of {@link #findMany(EntityManager, Class, String, QueryParamBuilder)}
+     * loading associations of given fetch plan for all returned entities in
+     * one query per association.
+     */
+    public static <EntityType> List<EntityType> findMany(EntityManager entityManager, Class<EntityType> entityClass, String query, QueryParamBuilder params, FetchPlan plan) {
+        long start = QueryStatistics.start();
+        try {
+            TypedQuery<EntityType> queryObject = QueryDefinitionCache.getShared().createQuery(entityManager, query, entityClass);
+            bind(queryObject, params);
+            FetchPlan.apply(entityManager, queryObject, plan);
+            List<EntityType> result = queryObject.getResultList();
+            QueryStatistics.record(start, query, params, result.size());
+            return result;
+        } catch (RuntimeException e) {
+            QueryStatistics.recordFailure(start, query, params);
+            throw e;
+        }
+    }
+    
+    /**
+     * Lookup without exceptions, returns first result or <code>null</code>
+     * when nothing was found. Reads at most one row and does not check for
+     * duplicates.
+     */
+    public static <EntityType> EntityType findOneOrNull(EntityManager entityManager, Class<EntityType> entityClass, String query, QueryParamBuilder params) {
+        return findOneOrNull(entityManager, entityClass, query, params, null);
+    }
+    
+    /**
+     * Variant of {@link #findOneOrNull(EntityManager, Class, String, QueryParamBuilder)}
+     * loading associations of given fetch plan.
+     */
+    public static <EntityType> EntityType findOneOrNull(EntityManager entityManager, Class<EntityType> entityClass, String query, QueryParamBuilder params, FetchPlan plan) {
+        long start = QueryStatistics.start();
+        try {
+            TypedQuery<EntityType> queryObject = QueryDefinitionCache.getShared().createQuery(entityManager, query, entityClass);
+            bind(queryObject, params);
+            FetchPlan.apply(entityManager, queryObject, plan);
+            queryObject.setMaxResults(1);
+            List<EntityType> result = queryObject.getResultList();
+            QueryStatistics.record(start, query, params, result.size());
+            return result.isEmpty() ? null : result.get(0);
+        } catch (RuntimeException e) {
+            QueryStatistics.recordFailure(start, query, params);
+            throw e;
+        }
+    }
+    
+    /**
+     * Display only variant of {@link #findMany(EntityManager, Class, String, QueryParamBuilder)}.
+     * Returned entities are not registered for change tracking and must not
+     * be modified, rows are fetched {@link #READ_ONLY_FETCH_SIZE} at once.
+     */
+    public static <EntityType> List<EntityType> findManyReadOnly(EntityManager entityManager, Class<EntityType> entityClass, String query, QueryParamBuilder params) {
+        return findManyReadOnly(entityManager, entityClass, query, params, READ_ONLY_FETCH_SIZE);
+    }
+    
+    /**
+     * Display only variant of {@link #findMany(EntityManager, Class, String, QueryParamBuilder)}
+     * with given JDBC fetch size, relationships of <code>batchFetchPaths</code>
+     * (like <code>p.addresses</code>) are loaded by single query per path for
+     * all returned entities instead of query per entity.
+     */
+    public static <EntityType> List<EntityType> findManyReadOnly(EntityManager entityManager, Class<EntityType> entityClass, String query, QueryParamBuilder params, int fetchSize, String... batchFetchPaths) {
+        long start = QueryStatistics.start();
+        try {
+            TypedQuery<EntityType> queryObject = QueryDefinitionCache.getShared().createQuery(entityManager, query, entityClass);
+            bind(queryObject, params);
+            ProviderHints.readOnly(queryObject, fetchSize, batchFetchPaths);
+            List<EntityType> result = queryObject.getResultList();
+            QueryStatistics.record(start, query, params, result.size());
+            return result;
+        } catch (RuntimeException e) {
+            QueryStatistics.recordFailure(start, query, params);
+            throw e;
         }
-        return queryObject.getResultList();
+    }
+    
+    /**
+     * Reads selected columns straight into transport objects, select clause is
+     * rewritten into constructor expression of <code>projectionClass</code>,
+     * which needs public constructor matching selected columns. Returned
+     * objects are not managed, so persistence context stays empty.
+     * 
+     * <pre>
+     * List&lt;PersonView&gt; persons = findManyProjected(entityManager, PersonView.class,
+     *         &quot;SELECT p.name, p.city FROM PersonEntity p&quot;, withoutParams());
+     * </pre>
+     */
+    public static <Projection> List<Projection> findManyProjected(EntityManager entityManager, Class<Projection> projectionClass, String query, QueryParamBuilder params) {
+        long start = QueryStatistics.start();
+        try {
+            String constructorQuery = Projections.toConstructorExpression(query, projectionClass);
+            TypedQuery<Projection> queryObject = QueryDefinitionCache.getShared().createQuery(entityManager, constructorQuery, projectionClass);
+            bind(queryObject, params);
+            List<Projection> result = queryObject.getResultList();
+            QueryStatistics.record(start, query, params, result.size());
+            return result;
+        } catch (RuntimeException e) {
+            QueryStatistics.recordFailure(start, query, params);
+            throw e;
+        }
+    }
+    
+    /**
+     * Reads single page of results together with total count of results.
+     * Count query is derived from <code>query</code> and its result is cached
+     * shortly by {@link CountCache}, count is not executed at all when page is
+     * not full. Queries with <code>GROUP BY</code> or <code>DISTINCT</code>
+     * path can't be paged, see {@link CountQueries}.
+     * 
+     * @param pageNumber zero based number of page
+     * @throws IllegalArgumentException
+     *             when count query can't be derived or first result of page
+     *             exceeds <code>int</code> range
+     */
+    public static <EntityType> Page<EntityType> findPage(EntityManager entityManager, Class<EntityType> entityClass, String query, QueryParamBuilder params, int pageNumber, int pageSize) {
+        if (pageNumber < 0 || pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid page " + pageNumber + " of size " + pageSize);
+        }
+        long firstResult = (long) pageNumber * pageSize;
+        if (firstResult > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Page " + pageNumber + " of size " + pageSize + " is beyond maximum first result");
+        }
+        long start = QueryStatistics.start();
+        try {
+            TypedQuery<EntityType> queryObject = QueryDefinitionCache.getShared().createQuery(entityManager, query, entityClass);
+            bind(queryObject, params);
+            queryObject.setFirstResult((int) firstResult);
+            queryObject.setMaxResults(pageSize);
+            List<EntityType> content = queryObject.getResultList();
+            QueryStatistics.record(start, query, params, content.size());
+            long totalCount;
+            if (content.size() < pageSize && (!content.isEmpty() || pageNumber == 0)) {
+                totalCount = firstResult + content.size();
+            } else {
+                totalCount = CountCache.getShared().count(entityManager, CountQueries.toCountQuery(query), params);
+            }
+            return new Page<EntityType>(content, pageNumber, pageSize, totalCount);
+        } catch (RuntimeException e) {
+            QueryStatistics.recordFailure(start, query, params);
+            throw e;
+        }
+    }
+    
+    /**
+     * Loads entities by identifiers in chunks of padded <code>IN</code>
+     * queries, entities already cached by provider are not read again.
+     * Entities are returned in order of given identifiers, identifiers without
+     * entity are skipped and duplicate identifiers return the same entity
+     * again. Integral identifiers are converted to entity identifier type.
+     * 
+     * @throws IllegalArgumentException
+     *             when identifier does not match entity identifier type or
+     *             entity has composite identifier
+     */
+    public static <EntityType> List<EntityType> findManyByIds(EntityManager entityManager, Class<EntityType> entityClass, Collection<?> ids) {
+        long start = QueryStatistics.start();
+        try {
+            List<EntityType> result = ByIdsQueries.findManyByIds(entityManager, entityClass, ids);
+            QueryStatistics.record(start, "findManyByIds " + entityClass.getName(), null, result.size());
+            return result;
+        } catch (RuntimeException e) {
+            QueryStatistics.recordFailure(start, "findManyByIds " + entityClass.getName(), null);
+            throw e;
+        }
+    }
+    
+    /**
+     * Cached variant of {@link #findMany(EntityManager, Class, String, QueryParamBuilder)}
+     * for rarely changing reference data, returned entities are detached and
+     * must not be modified.
+     * 
+     * @see QueryResultCache
+     */
+    public static <EntityType> List<EntityType> findManyCached(EntityManager entityManager, Class<EntityType> entityClass, String query, QueryParamBuilder params) {
+        return QueryResultCache.getShared().findMany(entityManager, entityClass, query, params);
     }
     
     @SuppressWarnings("unchecked")
     public static <Type> Type findOneDynamicTyped(EntityManager entityManager, String query, QueryParamBuilder params) throws NotFoundException {
-        Query queryObject = entityManager.createQuery(query);
-        if (params != null) {
-            for (String name : params.map.keySet()) {
-                Object value = params.map.get(name);
-                queryObject.setParameter(name, value);
+        long start = QueryStatistics.start();
+        try {
+            Query queryObject = QueryDefinitionCache.getShared().createQuery(entityManager, query);
+            bind(queryObject, params);
+            try {
+                Type result = (Type) queryObject.getSingleResult();
+                QueryStatistics.record(start, query, params, 1);
+                return result;
+            } catch (NoResultException e) {
+                QueryStatistics.record(start, query, params, 0);
+                throw new NotFoundException();
             }
+        } catch (RuntimeException e) {
+            QueryStatistics.recordFailure(start, query, params);
+            throw e;
         }
+    }
+    
+    /**
+     * Lookup without exceptions, returns first result or <code>null</code>
+     * when nothing was found.
+     * 
+     * @see #findOneOrNull(EntityManager, Class, String, QueryParamBuilder)
+     */
+    @SuppressWarnings("unchecked")
+    public static <Type> Type findOneOrNullDynamicTyped(EntityManager entityManager, String query, QueryParamBuilder params) {
+        long start = QueryStatistics.start();
         try {
-            return (Type) queryObject.getSingleResult();
-        } catch (NoResultException e) {
-            throw new NotFoundException();
+            Query queryObject = QueryDefinitionCache.getShared().createQuery(entityManager, query);
+            bind(queryObject, params);
+            queryObject.setMaxResults(1);
+            List<?> result = queryObject.getResultList();
+            QueryStatistics.record(start, query, params, result.size());
+            return result.isEmpty() ? null : (Type) result.get(0);
+        } catch (RuntimeException e) {
+            QueryStatistics.recordFailure(start, query, params);
+            throw e;
         }
     }
     
     @SuppressWarnings("unchecked")
     public static <Type> List<Type> findManyDynamicTyped(EntityManager entityManager, String query, QueryParamBuilder params) {
-        Query queryObject = entityManager.createQuery(query);
+        long start = QueryStatistics.start();
+        try {
+            Query queryObject = QueryDefinitionCache.getShared().createQuery(entityManager, query);
+            bind(queryObject, params);
+            List<Type> result = queryObject.getResultList();
+            QueryStatistics.record(start, query, params, result.size());
+            return result;
+        } catch (RuntimeException e) {
+            QueryStatistics.recordFailure(start, query, params);
+            throw e;
+        }
+    }
+    
+    /**
+     * Native SQL variant of {@link #findManyDynamicTyped(EntityManager, String, QueryParamBuilder)}
+     * for hot read queries, rows are read directly from JDBC connection of
+     * entity manager and mapped by <code>rowMapper</code>. Needs active
+     * transaction, pending changes of persistence context are not flushed.
+     * 
+     * @see NativeQueries
+     */
+    public static <Type> List<Type> findManyNative(EntityManager entityManager, RowMapper<Type> rowMapper, String query, QueryParamBuilder params) {
+        long start = QueryStatistics.start();
+        try {
+            List<Type> result = NativeQueries.execute(entityManager, rowMapper, query, params, 0);
+            QueryStatistics.record(start, query, params, result.size());
+            return result;
+        } catch (RuntimeException e) {
+            QueryStatistics.recordFailure(start, query, params);
+            throw e;
+        }
+    }
+    
+    /**
+     * Native SQL variant of {@link #findOneOrNullDynamicTyped(EntityManager, String, QueryParamBuilder)}.
+     * 
+     * @see #findManyNative(EntityManager, RowMapper, String, QueryParamBuilder)
+     */
+    public static <Type> Type findOneOrNullNative(EntityManager entityManager, RowMapper<Type> rowMapper, String query, QueryParamBuilder params) {
+        long start = QueryStatistics.start();
+        try {
+            List<Type> result = NativeQueries.execute(entityManager, rowMapper, query, params, 1);
+            QueryStatistics.record(start, query, params, result.size());
+            return result.isEmpty() ? null : result.get(0);
+        } catch (RuntimeException e) {
+            QueryStatistics.recordFailure(start, query, params);
+            throw e;
+        }
+    }
+    
+    /**
+     * Reads numeric columns selected by native SQL into primitive arrays,
+     * values are not boxed and rows are not materialized.
+     * 
+     * @see ColumnarResult
+     */
+    public static ColumnarResult findColumnar(EntityManager entityManager, String query, QueryParamBuilder params, ColumnType... columnTypes) {
+        return findColumnar(entityManager, query, params, new ColumnarResult(columnTypes, false));
+    }
+    
+    /**
+     * Variant of {@link #findColumnar(EntityManager, String, QueryParamBuilder, ColumnType...)}
+     * keeping columns in direct buffers outside of Java heap.
+     */
+    public static ColumnarResult findColumnarOffHeap(EntityManager entityManager, String query, QueryParamBuilder params, ColumnType... columnTypes) {
+        return findColumnar(entityManager, query, params, new ColumnarResult(columnTypes, true));
+    }
+    
+    /**
+     * Streaming variant of {@link #findMany(EntityManager, Class, String, QueryParamBuilder)},
+     * results are read through server side cursor fetching <code>fetchSize</code> rows at once.
+     * Returned iterator must be closed, call is recorded in {@link QueryStatistics}
+     * when it is closed.
+     */
+    public static <EntityType> ResultIterator<EntityType> iterateMany(EntityManager entityManager, Class<EntityType> entityClass, String query, QueryParamBuilder params, int fetchSize) {
+        long start = QueryStatistics.start();
+        try {
+            TypedQuery<EntityType> queryObject = QueryDefinitionCache.getShared().createQuery(entityManager, query, entityClass);
+            bind(queryObject, params);
+            return iterate(entityManager, queryObject, fetchSize, start, query, params);
+        } catch (RuntimeException e) {
+            QueryStatistics.recordFailure(start, query, params);
+            throw e;
+        }
+    }
+    
+    /**
+     * Streaming variant of {@link #findManyDynamicTyped(EntityManager, String, QueryParamBuilder)}.
+     * 
+     * @see #iterateMany(EntityManager, Class, String, QueryParamBuilder, int)
+     */
+    public static <Type> ResultIterator<Type> iterateManyDynamicTyped(EntityManager entityManager, String query, QueryParamBuilder params, int fetchSize) {
+        long start = QueryStatistics.start();
+        try {
+            Query queryObject = QueryDefinitionCache.getShared().createQuery(entityManager, query);
+            bind(queryObject, params);
+            return iterate(entityManager, queryObject, fetchSize, start, query, params);
+        } catch (RuntimeException e) {
+            QueryStatistics.recordFailure(start, query, params);
+            throw e;
+        }
+    }
+    
+    /**
+     * Keyset pagination, each page is read by query restricted with last key
+     * of previous page. Key has to be unique.
+     * 
+     * @see KeysetPager
+     */
+    public static <EntityType, KeyType> KeysetPager<EntityType, KeyType> pageByKey(EntityManager entityManager, Class<EntityType> entityClass, String query, QueryParamBuilder params,
+            String keyParam, KeyType initialKey, int pageSize, KeyExtractor<EntityType, KeyType> keyExtractor) {
+        return new KeysetPager<EntityType, KeyType>(entityManager, entityClass, query, params, keyParam, initialKey, null, null, pageSize, keyExtractor);
+    }
+    
+    /**
+     * Keyset pagination by non unique key, each page is read by query
+     * restricted with last key and last entity id of previous page.
+     * 
+     * @see KeysetPager
+     */
+    public static <EntityType, KeyType> KeysetPager<EntityType, KeyType> pageByKey(EntityManager entityManager, Class<EntityType> entityClass, String query, QueryParamBuilder params,
+            String keyParam, KeyType initialKey, String idParam, Object initialId, int pageSize, KeyExtractor<EntityType, KeyType> keyExtractor) {
+        return new KeysetPager<EntityType, KeyType>(entityManager, entityClass, query, params, keyParam, initialKey, idParam, initialId, pageSize, keyExtractor);
+    }
+    
+    /**
+     * Persists entities in chunks of <code>batchSize</code>, flushing and clearing
+     * persistence context after each chunk.
+     * 
+     * @see BulkWriter
+     */
+    public static BulkWriteResult persistAll(EntityManager entityManager, Iterable<?> entities, int batchSize) {
+        return new BulkWriter(entityManager, batchSize).persistAll(entities);
+    }
+    
+    /**
+     * Merges entities in chunks of <code>batchSize</code>, flushing and clearing
+     * persistence context after each chunk.
+     * 
+     * @see BulkWriter
+     */
+    public static BulkWriteResult mergeAll(EntityManager entityManager, Iterable<?> entities, int batchSize) {
+        return new BulkWriter(entityManager, batchSize).mergeAll(entities);
+    }
+    
+    private static ColumnarResult findColumnar(EntityManager entityManager, String query, QueryParamBuilder params, final ColumnarResult result) {
+        long start = QueryStatistics.start();
+        try {
+            NativeQueries.execute(entityManager, query, params, 0, ColumnarResult.FETCH_SIZE, new NativeQueries.ResultSetReader() {
+                @Override
+                public void read(ResultSet resultSet) throws SQLException {
+                    result.readAll(resultSet);
+                }
+            });
+            QueryStatistics.record(start, query, params, result.size());
+            return result;
+        } catch (RuntimeException e) {
+            QueryStatistics.recordFailure(start, query, params);
+            throw e;
+        }
+    }
+    
+    static void bind(Query queryObject, QueryParamBuilder params) {
         if (params != null) {
-            for (String name : params.map.keySet()) {
-                Object value = params.map.get(name);
-                queryObject.setParameter(name, value);
+            params.bind(queryObject);
+        }
+    }
+    
+    /**
+     * Whether given class is entity (or its subclass) of persistence unit.
+     */
+    static boolean isEntity(EntityManager entityManager, Class<?> type) {
+        for (javax.persistence.metamodel.EntityType<?> entityType : entityManager.getMetamodel().getEntities()) {
+            if (entityType.getJavaType().isAssignableFrom(type)) {
+                return true;
             }
         }
-        return queryObject.getResultList();
+        return false;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <Type> ResultIterator<Type> iterate(EntityManager entityManager, Query queryObject, int fetchSize,
+            long start, String query, QueryParamBuilder params) {
+        if (!ProviderHints.isSupportedBy(entityManager)) {
+            log.log(Level.WARNING, "Provider {0} does not support cursors, whole result is loaded into memory",
+                    entityManager.getDelegate().getClass().getName());
+            return new ResultIterator<Type>(entityManager, queryObject.getResultList().iterator(), start, query, params);
+        }
+        queryObject.setHint(ProviderHints.SCROLLABLE_CURSOR, Boolean.TRUE);
+        queryObject.setHint(ProviderHints.RESULT_SET_TYPE, ProviderHints.RESULT_SET_TYPE_FORWARD_ONLY);
+        queryObject.setHint(ProviderHints.JDBC_FETCH_SIZE, fetchSize);
+        return new ResultIterator<Type>(entityManager, (Iterator<Type>) queryObject.getSingleResult(), start, query, params);
     }
     
     private EntityManagerHelper() {
@@ -0,0 +1,59 @@
+package persistence;
+
+import java.util.Arrays;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+/**
+ * Associations loaded together with entities returned by find helpers.
+ * <p>
+ * Plan is given by relationship paths (like <code>p.addresses</code>), each
+ * path is loaded by single <code>IN</code> query for all returned entities,
+ * so number of queries does not depend on number of entities. Batch loading
+ * is EclipseLink feature, with other providers plan is rejected by
+ * {@link UnsupportedOperationException} rather than silently ignored.
+ * 
+ * <pre>
+ * List&lt;PersonEntity&gt; persons = findMany(entityManager, PersonEntity.class,
+ *         &quot;SELECT p FROM PersonEntity p&quot;, withoutParams(), FetchPlan.withPaths(&quot;p.addresses&quot;, &quot;p.phones&quot;));
+ * </pre>
+ */
+public class FetchPlan {
+    
+    public static FetchPlan withPaths(String... paths) {
+        return new FetchPlan(paths.clone());
+    }
+    
+    private final String[] paths;
+    
+    private FetchPlan(String[] paths) {
+        this.paths = paths;
+    }
+    
+    static void apply(EntityManager entityManager, Query queryObject, FetchPlan plan) {
+        if (plan != null) {
+            plan.apply(entityManager, queryObject);
+        }
+    }
+    
+    private void apply(EntityManager entityManager, Query queryObject) {
+        if (paths.length == 0) {
+            return;
+        }
+        if (!ProviderHints.isSupportedBy(entityManager)) {
+            throw new UnsupportedOperationException("Fetch plan needs EclipseLink batch fetching, provider "
+                    + entityManager.getDelegate().getClass().getName() + " can't apply " + this);
+        }
+        ProviderHints.batchFetch(queryObject, paths);
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("FetchPlan [paths=");
+        builder.append(Arrays.toString(paths));
+        builder.append("]");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,177 @@
+package persistence;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+/**
+ * Walks through query results page by page using last seen key instead of
+ * OFFSET, so each page costs single index range scan regardless of its
+ * position.
+ * <p>
+ * Query has to restrict and order results by the key, with key parameter
+ * holding last key of previous page:
+ * 
+ * <pre>
+ * KeysetPager&lt;PersonEntity, Long&gt; pages = EntityManagerHelper.pageByKey(entityManager, PersonEntity.class,
+ *         &quot;SELECT p FROM PersonEntity p WHERE p.id &gt; :lastId ORDER BY p.id&quot;, withoutParams(),
+ *         &quot;lastId&quot;, 0L, 1000, new KeyExtractor&lt;PersonEntity, Long&gt;() {
+ *             public Long keyOf(PersonEntity person) {
+ *                 return person.getId();
+ *             }
+ *         });
+ * while (pages.hasNext()) {
+ *     process(pages.next());
+ * }
+ * </pre>
+ * 
+ * Key has to be unique, otherwise entities sharing last key of page are
+ * skipped. Non unique key needs entity id as tiebreaker, last id of previous
+ * page is bound to id parameter:
+ * 
+ * <pre>
+ * SELECT p FROM PersonEntity p WHERE p.name &gt; :lastName OR (p.name = :lastName AND p.id &gt; :lastId) ORDER BY p.name, p.id
+ * </pre>
+ * 
+ * @see EntityManagerHelper#pageByKey(EntityManager, Class, String, QueryParamBuilder, String, Object,
+ *      int, KeyExtractor)
+ * @see EntityManagerHelper#pageByKey(EntityManager, Class, String, QueryParamBuilder, String, Object,
+ *      String, Object, int, KeyExtractor)
+ */
+public class KeysetPager<EntityType, KeyType> implements Iterator<List<EntityType>> {
+    
+    public interface KeyExtractor<EntityType, KeyType> {
+        
+        KeyType keyOf(EntityType entity);
+    }
+    
+    private final EntityManager entityManager;
+    private final Class<EntityType> entityClass;
+    private final String query;
+    private final QueryParamBuilder params;
+    private final String keyParam;
+    private final String idParam;
+    private final int pageSize;
+    private final KeyExtractor<EntityType, KeyType> keyExtractor;
+    
+    private KeyType lastKey;
+    private Object lastId;
+    private List<EntityType> page;
+    private List<EntityType> previousPage = Collections.emptyList();
+    private boolean finished;
+    private boolean detaching;
+    
+    KeysetPager(EntityManager entityManager, Class<EntityType> entityClass, String query, QueryParamBuilder params,
+            String keyParam, KeyType initialKey, String idParam, Object initialId, int pageSize,
+            KeyExtractor<EntityType, KeyType> keyExtractor) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+        }
+        this.entityManager = entityManager;
+        this.entityClass = entityClass;
+        this.query = query;
+        this.params = params;
+        this.keyParam = keyParam;
+        this.lastKey = initialKey;
+        this.idParam = idParam;
+        this.lastId = initialId;
+        this.pageSize = pageSize;
+        this.keyExtractor = keyExtractor;
+    }
+    
+    /**
+     * Detaches entities of previous page from persistence context when next
+     * page is loaded, so persistence context holds at most one page.
+     */
+    public KeysetPager<EntityType, KeyType> detaching() {
+        this.detaching = true;
+        return this;
+    }
+    
+    public KeyType getLastKey() {
+        return lastKey;
+    }
+    
+    /**
+     * Id of last entity, <code>null</code> without id tiebreaker.
+     */
+    public Object getLastId() {
+        return lastId;
+    }
+    
+    /**
+     * Last page is detached when there is no next page.
+     */
+    @Override
+    public boolean hasNext() {
+        if (page == null && !finished) {
+            page = load();
+        }
+        if (page == null || page.isEmpty()) {
+            detachPreviousPage();
+            return false;
+        }
+        return true;
+    }
+    
+    @Override
+    public List<EntityType> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        List<EntityType> current = page;
+        page = null;
+        EntityType last = current.get(current.size() - 1);
+        lastKey = keyExtractor.keyOf(last);
+        if (idParam != null) {
+            lastId = entityManager.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(last);
+        }
+        if (current.size() < pageSize) {
+            finished = true;
+        }
+        previousPage = current;
+        return current;
+    }
+    
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+    
+    private List<EntityType> load() {
+        detachPreviousPage();
+        long start = QueryStatistics.start();
+        List<EntityType> result;
+        try {
+            TypedQuery<EntityType> queryObject = QueryDefinitionCache.getShared().createQuery(entityManager, query, entityClass);
+            EntityManagerHelper.bind(queryObject, params);
+            queryObject.setParameter(keyParam, lastKey);
+            if (idParam != null) {
+                queryObject.setParameter(idParam, lastId);
+            }
+            queryObject.setMaxResults(pageSize);
+            result = queryObject.getResultList();
+            QueryStatistics.record(start, query, params, result.size());
+        } catch (RuntimeException e) {
+            QueryStatistics.recordFailure(start, query, params);
+            throw e;
+        }
+        if (result.isEmpty()) {
+            finished = true;
+        }
+        return result;
+    }
+    
+    private void detachPreviousPage() {
+        if (detaching) {
+            for (EntityType entity : previousPage) {
+                entityManager.detach(entity);
+            }
+            previousPage = Collections.emptyList();
+        }
+    }
+}
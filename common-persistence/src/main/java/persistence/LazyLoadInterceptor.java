@@ -0,0 +1,37 @@
+package persistence;
+
+import java.lang.reflect.Method;
+
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.InvocationContext;
+
+/**
+ * Base of interceptors monitoring outermost intercepted invocation with
+ * {@link LazyLoadMonitor}. Monitoring ends however invocation completes, failed
+ * invocations are discarded without checks.
+ * 
+ * @see RepositoryLazyLoadInterceptor
+ * @see DataAccessObjectLazyLoadInterceptor
+ */
+public abstract class LazyLoadInterceptor {
+    
+    @AroundInvoke
+    public Object monitor(InvocationContext context) throws Exception {
+        Method method = context.getMethod();
+        if (!LazyLoadMonitor.begin(method.getDeclaringClass().getName() + "#" + method.getName())) {
+            return context.proceed();
+        }
+        boolean completed = false;
+        try {
+            Object result = context.proceed();
+            completed = true;
+            return result;
+        } finally {
+            if (completed) {
+                LazyLoadMonitor.end();
+            } else {
+                LazyLoadMonitor.discard();
+            }
+        }
+    }
+}
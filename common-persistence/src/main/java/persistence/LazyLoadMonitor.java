@@ -0,0 +1,202 @@
+package persistence;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Detects N+1 lazy-load storms in {@link Repository} and
+ * {@link DataAccessObject} methods.
+ * <p>
+ * During monitored method invocation SQL statements are counted by
+ * {@link StatementCounter}, lazy relationship loads separately, and rows read
+ * by {@link EntityManagerHelper} queries are summed. Invocation is suspected
+ * when number of lazy loads reaches {@link #getMinimumLazyLoads()} and grows
+ * with number of read rows (at least one lazy load per two rows). Rows of
+ * queries created directly by entity manager are not known, so invocation
+ * without any {@link EntityManagerHelper} query is not suspected. Suspected
+ * method is logged once, in strict mode {@link NPlusOneQueryException} is
+ * thrown instead, which fails tests.
+ * <p>
+ * Strict mode is switched on by {@link #setStrict(boolean)} or system property
+ * <strong>persistence.lazyload.strict=true</strong>, for invocations of single
+ * thread (like single test) by {@link #setStrictInCurrentThread(Boolean)}.
+ * 
+ * @see RepositoryLazyLoadInterceptor
+ * @see DataAccessObjectLazyLoadInterceptor
+ */
+public class LazyLoadMonitor {
+    
+    public static final int DEFAULT_MINIMUM_LAZY_LOADS = 10;
+    
+    private static final Logger log = Logger.getLogger(LazyLoadMonitor.class.getName());
+    private static final ThreadLocal<Invocation> current = new ThreadLocal<Invocation>();
+    private static final ThreadLocal<Boolean> strictInThread = new ThreadLocal<Boolean>();
+    private static final AtomicInteger monitored = new AtomicInteger();
+    private static final ConcurrentMap<String, AtomicLong> suspected = new ConcurrentHashMap<String, AtomicLong>();
+    private static volatile boolean strict = Boolean.getBoolean("persistence.lazyload.strict");
+    private static volatile int minimumLazyLoads = DEFAULT_MINIMUM_LAZY_LOADS;
+    
+    public static void setStrict(boolean strict) {
+        LazyLoadMonitor.strict = strict;
+    }
+    
+    public static boolean isStrict() {
+        return strict;
+    }
+    
+    /**
+     * Overrides strict mode for invocations of current thread,
+     * <code>null</code> restores global mode.
+     */
+    public static void setStrictInCurrentThread(Boolean strict) {
+        if (strict == null) {
+            strictInThread.remove();
+        } else {
+            strictInThread.set(strict);
+        }
+    }
+    
+    public static void setMinimumLazyLoads(int minimumLazyLoads) {
+        LazyLoadMonitor.minimumLazyLoads = minimumLazyLoads;
+    }
+    
+    public static int getMinimumLazyLoads() {
+        return minimumLazyLoads;
+    }
+    
+    /**
+     * Number of suspected invocations of given method, method is named
+     * <code>class#method</code>.
+     */
+    public static long getSuspectedInvocations(String method) {
+        AtomicLong count = suspected.get(method);
+        return count == null ? 0 : count.get();
+    }
+    
+    /**
+     * Starts monitoring of method invocation, nested invocations are counted
+     * into outermost one. Returns <code>false</code> for nested invocation,
+     * which must not call {@link #end()}.
+     */
+    public static boolean begin(String method) {
+        if (current.get() != null) {
+            return false;
+        }
+        current.set(new Invocation(method));
+        monitored.incrementAndGet();
+        return true;
+    }
+    
+    /**
+     * Ends monitoring of current invocation and checks its counters.
+     * 
+     * @throws NPlusOneQueryException in strict mode when invocation is suspected
+     */
+    public static void end() {
+        Invocation invocation = current.get();
+        current.remove();
+        monitored.decrementAndGet();
+        if (invocation != null && invocation.isSuspected(minimumLazyLoads)) {
+            reportSuspected(invocation);
+        }
+    }
+    
+    /**
+     * Ends monitoring of current invocation without checks, used when
+     * invocation failed.
+     */
+    public static void discard() {
+        current.remove();
+        monitored.decrementAndGet();
+    }
+    
+    /**
+     * Whether invocation of any thread is monitored, single volatile read.
+     */
+    static boolean isActive() {
+        return monitored.get() > 0;
+    }
+    
+    /**
+     * Whether invocation of current thread is monitored.
+     */
+    static boolean isMonitoring() {
+        return isActive() && current.get() != null;
+    }
+    
+    static void rowsRead(int rows) {
+        Invocation invocation = current.get();
+        if (invocation != null) {
+            invocation.queries++;
+            invocation.rows += rows;
+        }
+    }
+    
+    static void statementExecuted(boolean lazyLoad) {
+        Invocation invocation = current.get();
+        if (invocation != null) {
+            invocation.statements++;
+            if (lazyLoad) {
+                invocation.lazyLoads++;
+            }
+        }
+    }
+    
+    private static void reportSuspected(Invocation invocation) {
+        AtomicLong count = suspected.get(invocation.method);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = suspected.putIfAbsent(invocation.method, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        boolean first = count.incrementAndGet() == 1;
+        Boolean strictOfThread = strictInThread.get();
+        if (strictOfThread != null ? strictOfThread.booleanValue() : strict) {
+            throw new NPlusOneQueryException(invocation.toString());
+        }
+        if (first) {
+            log.warning("Suspected N+1 lazy loading: " + invocation);
+        }
+    }
+    
+    private static class Invocation {
+        
+        private final String method;
+        private int statements;
+        private int lazyLoads;
+        private int queries;
+        private int rows;
+        
+        Invocation(String method) {
+            this.method = method;
+        }
+        
+        boolean isSuspected(int minimumLazyLoads) {
+            return lazyLoads >= minimumLazyLoads && queries > 0 && lazyLoads * 2 >= rows;
+        }
+        
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(method);
+            builder.append(" [statements=");
+            builder.append(statements);
+            builder.append(", lazyLoads=");
+            builder.append(lazyLoads);
+            builder.append(", queries=");
+            builder.append(queries);
+            builder.append(", rows=");
+            builder.append(rows);
+            builder.append("]");
+            return builder.toString();
+        }
+    }
+    
+    private LazyLoadMonitor() {
+    }
+}
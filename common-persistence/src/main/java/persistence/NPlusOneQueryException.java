@@ -0,0 +1,16 @@
+package persistence;
+
+import javax.persistence.PersistenceException;
+
+/**
+ * Thrown by {@link LazyLoadMonitor} in strict mode when method loads lazy
+ * relationships one by one for read entities.
+ */
+public class NPlusOneQueryException extends PersistenceException {
+    
+    private static final long serialVersionUID = -4419571365923287360L;
+    
+    public NPlusOneQueryException(String message) {
+        super(message);
+    }
+}
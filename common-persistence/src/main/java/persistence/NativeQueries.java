@@ -0,0 +1,151 @@
+package persistence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+
+/**
+ * Executes native SQL on JDBC connection of {@link EntityManager}, rows are
+ * mapped by {@link RowMapper} without entity materialization.
+ * <p>
+ * SQL may use named (<code>:name</code>) or positional (<code>?1</code>,
+ * <code>?</code>) parameters like JPA queries, they are translated to JDBC
+ * placeholders once per SQL text and kept for {@link #MAXIMUM_CACHED_STATEMENTS}
+ * recently used SQL texts. Translated SQL of the same text is equal, so
+ * prepared statements are reused by statement cache of connection pool.
+ * 
+ * @see EntityManagerHelper#findManyNative(EntityManager, RowMapper, String, QueryParamBuilder)
+ */
+final class NativeQueries {
+    
+    static final int MAXIMUM_CACHED_STATEMENTS = 1024;
+    
+    private static final BoundedCache<String, Statement> statements = new BoundedCache<String, Statement>(MAXIMUM_CACHED_STATEMENTS);
+    
+    static <Type> List<Type> execute(EntityManager entityManager, final RowMapper<Type> rowMapper, String query, QueryParamBuilder params, int maxRows) {
+        final List<Type> result = new ArrayList<Type>();
+        execute(entityManager, query, params, maxRows, maxRows > 0 ? maxRows : EntityManagerHelper.READ_ONLY_FETCH_SIZE, new ResultSetReader() {
+            @Override
+            public void read(ResultSet resultSet) throws SQLException {
+                while (resultSet.next()) {
+                    result.add(rowMapper.mapRow(resultSet));
+                }
+            }
+        });
+        return result;
+    }
+    
+    /**
+     * Executes query and passes whole result set to reader.
+     */
+    static void execute(EntityManager entityManager, String query, QueryParamBuilder params, int maxRows, int fetchSize, ResultSetReader reader) {
+        Statement statement = statementOf(query);
+        Connection connection = entityManager.unwrap(Connection.class);
+        if (connection == null) {
+            throw new IllegalStateException("Native queries need JDBC connection, which is available only in transaction");
+        }
+        try {
+            PreparedStatement preparedStatement = connection.prepareStatement(statement.sql);
+            try {
+                preparedStatement.setFetchSize(fetchSize);
+                if (maxRows > 0) {
+                    preparedStatement.setMaxRows(maxRows);
+                }
+                if (params != null) {
+                    params.bind(preparedStatement, statement.placeholders);
+                } else if (statement.placeholders.length > 0) {
+                    throw new IllegalArgumentException("No value for parameters of " + query);
+                }
+                ResultSet resultSet = preparedStatement.executeQuery();
+                try {
+                    reader.read(resultSet);
+                } finally {
+                    resultSet.close();
+                }
+            } finally {
+                preparedStatement.close();
+            }
+        } catch (SQLException e) {
+            throw new PersistenceException("Native query failed: " + query, e);
+        }
+    }
+    
+    static Statement statementOf(String query) {
+        Statement statement = statements.get(query);
+        if (statement == null) {
+            statement = parse(query);
+            statements.put(query, statement);
+        }
+        return statement;
+    }
+    
+    /**
+     * Replaces parameters by JDBC placeholders, skipping string literals,
+     * quoted identifiers and <code>::</code> casts.
+     */
+    static Statement parse(String query) {
+        StringBuilder sql = new StringBuilder(query.length());
+        List<Object> placeholders = new ArrayList<Object>();
+        int anonymous = 0;
+        int length = query.length();
+        int i = 0;
+        while (i < length) {
+            char c = query.charAt(i);
+            if (c == '\'' || c == '"') {
+                int end = query.indexOf(c, i + 1);
+                end = end < 0 ? length : end + 1;
+                sql.append(query, i, end);
+                i = end;
+            } else if (c == ':' && i + 1 < length && query.charAt(i + 1) == ':') {
+                sql.append("::");
+                i += 2;
+            } else if (c == ':' && i + 1 < length && Character.isJavaIdentifierStart(query.charAt(i + 1))) {
+                int end = i + 1;
+                while (end < length && Character.isJavaIdentifierPart(query.charAt(end))) {
+                    end++;
+                }
+                placeholders.add(query.substring(i + 1, end));
+                sql.append('?');
+                i = end;
+            } else if (c == '?') {
+                int end = i + 1;
+                while (end < length && Character.isDigit(query.charAt(end))) {
+                    end++;
+                }
+                placeholders.add(end > i + 1 ? Integer.valueOf(query.substring(i + 1, end)) : Integer.valueOf(++anonymous));
+                sql.append('?');
+                i = end;
+            } else {
+                sql.append(c);
+                i++;
+            }
+        }
+        return new Statement(sql.toString(), placeholders.toArray());
+    }
+    
+    interface ResultSetReader {
+        
+        void read(ResultSet resultSet) throws SQLException;
+    }
+    
+    static class Statement {
+        
+        private final String sql;
+        /** {@link String} name or {@link Integer} position for each JDBC placeholder */
+        private final Object[] placeholders;
+        
+        Statement(String sql, Object[] placeholders) {
+            this.sql = sql;
+            this.placeholders = placeholders;
+        }
+    }
+    
+    private NativeQueries() {
+    }
+}
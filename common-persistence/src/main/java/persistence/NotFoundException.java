@@ -4,10 +4,35 @@ import java.io.Serializable;
 
 /**
  * Checked variant of {@link javax.persistence.NoResultException}.
+ * <p>
+ * In stackless mode exception does not fill its stack trace, which makes
+ * it cheap for lookup heavy code where misses are common. Stackless mode is
+ * switched on with {@link #setStackless(boolean)} or by system property
+ * <strong>persistence.NotFoundException.stackless=true</strong>. Code which
+ * expects misses should rather use
+ * {@link EntityManagerHelper#findOneOrNull(javax.persistence.EntityManager, Class, String, QueryParamBuilder)}.
  * 
  * @author Michal Michaluk <michaluk.michal@gmail.com>
  */
 public class NotFoundException extends Exception implements Serializable {
     
     private static final long serialVersionUID = 2836210453423996541L;
+    
+    private static volatile boolean stackless = Boolean.getBoolean("persistence.NotFoundException.stackless");
+    
+    public static void setStackless(boolean stackless) {
+        NotFoundException.stackless = stackless;
+    }
+    
+    public static boolean isStackless() {
+        return stackless;
+    }
+    
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        if (stackless) {
+            return this;
+        }
+        return super.fillInStackTrace();
+    }
 }
@@ -0,0 +1,69 @@
+package persistence;
+
+import java.util.List;
+
+/**
+ * Single page of query results with total number of results.
+ * 
+ * @see EntityManagerHelper#findPage(javax.persistence.EntityManager, Class, String, QueryParamBuilder, int, int)
+ */
+public class Page<Type> {
+    
+    private final List<Type> content;
+    private final int pageNumber;
+    private final int pageSize;
+    private final long totalCount;
+    
+    Page(List<Type> content, int pageNumber, int pageSize, long totalCount) {
+        this.content = content;
+        this.pageNumber = pageNumber;
+        this.pageSize = pageSize;
+        this.totalCount = totalCount;
+    }
+    
+    public List<Type> getContent() {
+        return content;
+    }
+    
+    /**
+     * Zero based number of page.
+     */
+    public int getPageNumber() {
+        return pageNumber;
+    }
+    
+    public int getPageSize() {
+        return pageSize;
+    }
+    
+    public long getTotalCount() {
+        return totalCount;
+    }
+    
+    public int getTotalPages() {
+        return (int) ((totalCount + pageSize - 1) / pageSize);
+    }
+    
+    public boolean hasNext() {
+        return (long) (pageNumber + 1) * pageSize < totalCount;
+    }
+    
+    public boolean hasPrevious() {
+        return pageNumber > 0;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Page [pageNumber=");
+        builder.append(pageNumber);
+        builder.append(", pageSize=");
+        builder.append(pageSize);
+        builder.append(", totalCount=");
+        builder.append(totalCount);
+        builder.append(", content=");
+        builder.append(content);
+        builder.append("]");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,103 @@
+package persistence;
+
+/**
+ * Rewrites select clause of JPQL into constructor expression of transport
+ * object, so provider builds unmanaged objects straight from result set:
+ * 
+ * <pre>
+ * SELECT p.name, p.city FROM PersonEntity p
+ * </pre>
+ * 
+ * becomes
+ * 
+ * <pre>
+ * SELECT NEW addressbook.PersonView(p.name, p.city) FROM PersonEntity p
+ * </pre>
+ * 
+ * Rewritten queries are cached, so each query is rewritten once per
+ * transport object class, least recently used ones are evicted.
+ */
+final class Projections {
+    
+    private static final int MAXIMUM_SIZE = 1024;
+    private static final BoundedCache<String, String> rewritten = new BoundedCache<String, String>(MAXIMUM_SIZE);
+    
+    static String toConstructorExpression(String query, Class<?> projectionClass) {
+        String key = projectionClass.getName() + '\n' + query;
+        String result = rewritten.get(key);
+        if (result == null) {
+            result = rewrite(query, projectionClass);
+            rewritten.put(key, result);
+        }
+        return result;
+    }
+    
+    private static String rewrite(String query, Class<?> projectionClass) {
+        int select = indexOfKeyword(query, "select", 0);
+        int from = indexOfKeyword(query, "from", select + 1);
+        if (select < 0 || from < 0) {
+            throw new IllegalArgumentException("Projection query needs SELECT and FROM clause: " + query);
+        }
+        String items = query.substring(select + "select".length(), from).trim();
+        String distinct = "";
+        if (startsWithKeyword(items, "distinct")) {
+            distinct = "DISTINCT ";
+            items = items.substring("distinct".length()).trim();
+        }
+        if (startsWithKeyword(items, "new")) {
+            return query;
+        }
+        StringBuilder builder = new StringBuilder(query.length() + 64);
+        builder.append(query, 0, select);
+        builder.append("SELECT ");
+        builder.append(distinct);
+        builder.append("NEW ");
+        builder.append(projectionClass.getName());
+        builder.append('(');
+        builder.append(items);
+        builder.append(") ");
+        builder.append(query, from, query.length());
+        return builder.toString();
+    }
+    
+    /**
+     * Index of keyword outside of parentheses and string literals.
+     */
+    static int indexOfKeyword(String query, String keyword, int fromIndex) {
+        int depth = 0;
+        boolean literal = false;
+        for (int i = Math.max(fromIndex, 0); i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c == '\'') {
+                literal = !literal;
+            } else if (literal) {
+                continue;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (depth == 0 && isKeywordAt(query, keyword, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private static boolean startsWithKeyword(String text, String keyword) {
+        return isKeywordAt(text, keyword, 0);
+    }
+    
+    private static boolean isKeywordAt(String text, String keyword, int index) {
+        if (!text.regionMatches(true, index, keyword, 0, keyword.length())) {
+            return false;
+        }
+        if (index > 0 && (Character.isJavaIdentifierPart(text.charAt(index - 1)) || text.charAt(index - 1) == '.')) {
+            return false;
+        }
+        int end = index + keyword.length();
+        return end == text.length() || !Character.isJavaIdentifierPart(text.charAt(end));
+    }
+    
+    private Projections() {
+    }
+}
@@ -0,0 +1,53 @@
+package persistence;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+/**
+ * Query hints of EclipseLink provider used by helpers of this module. Hints are
+ * passed as plain strings, which other providers just ignore.
+ */
+final class ProviderHints {
+    
+    static final String SCROLLABLE_CURSOR = "eclipselink.cursor.scrollable";
+    static final String RESULT_SET_TYPE = "eclipselink.cursor.scrollable.result-set-type";
+    static final String RESULT_SET_TYPE_FORWARD_ONLY = "ForwardOnly";
+    static final String JDBC_FETCH_SIZE = "eclipselink.jdbc.fetch-size";
+    static final String CACHE_USAGE = "eclipselink.cache-usage";
+    static final String CACHE_USAGE_CHECK_CACHE_ONLY = "CheckCacheOnly";
+    static final String READ_ONLY = "eclipselink.read-only";
+    static final String BATCH = "eclipselink.batch";
+    static final String BATCH_TYPE = "eclipselink.batch.type";
+    static final String BATCH_TYPE_IN = "IN";
+    
+    static boolean isSupportedBy(EntityManager entityManager) {
+        return entityManager.getDelegate().getClass().getName().startsWith("org.eclipse.persistence.");
+    }
+    
+    /**
+     * Returned entities are not registered for change tracking, rows are
+     * fetched <code>fetchSize</code> at once and given relationships are
+     * loaded in batches for all returned entities.
+     */
+    static void readOnly(Query queryObject, int fetchSize, String... batchFetchPaths) {
+        queryObject.setHint(READ_ONLY, Boolean.TRUE);
+        queryObject.setHint(JDBC_FETCH_SIZE, fetchSize);
+        batchFetch(queryObject, batchFetchPaths);
+    }
+    
+    /**
+     * Relationship paths (like <code>p.addresses</code>) are loaded by one
+     * <code>IN</code> query per path for all returned entities.
+     */
+    static void batchFetch(Query queryObject, String... paths) {
+        if (paths.length > 0) {
+            queryObject.setHint(BATCH_TYPE, BATCH_TYPE_IN);
+        }
+        for (String path : paths) {
+            queryObject.setHint(BATCH, path);
+        }
+    }
+    
+    private ProviderHints() {
+    }
+}
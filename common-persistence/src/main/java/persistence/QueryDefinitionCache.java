@@ -0,0 +1,264 @@
+package persistence;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+
+import org.eclipse.persistence.jpa.JpaHelper;
+import org.eclipse.persistence.queries.DatabaseQuery;
+
+/**
+ * Cache of compiled query definitions used by {@link EntityManagerHelper}.
+ * <p>
+ * On first use JPQL text (together with result class) is registered as named
+ * query in EclipseLink session of {@link EntityManagerFactory}, next usages
+ * create query from named definition, so provider skips parsing of JPQL. With
+ * other providers queries are created from JPQL text as before and only
+ * misses are counted.
+ * <p>
+ * Number of cached definitions of each factory is bounded by
+ * {@link #getMaximumSize()}, least recently used definition is evicted and its
+ * named query removed from session, so dynamically concatenated JPQL can not
+ * exhaust memory. Factories are referenced weakly and are not held after
+ * undeployment.
+ */
+public class QueryDefinitionCache {
+    
+    public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+    
+    private static final String NAME_PREFIX = QueryDefinitionCache.class.getName() + "#";
+    private static final QueryDefinitionCache shared = new QueryDefinitionCache(DEFAULT_MAXIMUM_SIZE);
+    
+    public static QueryDefinitionCache getShared() {
+        return shared;
+    }
+    
+    private final int maximumSize;
+    private final Map<EntityManagerFactory, Definitions> byFactory = new WeakHashMap<EntityManagerFactory, Definitions>();
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    
+    public QueryDefinitionCache(int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+    
+    public <Type> TypedQuery<Type> createQuery(EntityManager entityManager, String query, Class<Type> resultClass) {
+        Definitions definitions = definitionsOf(entityManager.getEntityManagerFactory());
+        Definition definition = new Definition(query, resultClass);
+        String name = definitions == null ? null : definitions.get(definition);
+        if (name != null) {
+            try {
+                TypedQuery<Type> queryObject = entityManager.createNamedQuery(name, resultClass);
+                hits.incrementAndGet();
+                return queryObject;
+            } catch (IllegalArgumentException e) {
+                // evicted concurrently
+            }
+        }
+        misses.incrementAndGet();
+        TypedQuery<Type> queryObject = entityManager.createQuery(query, resultClass);
+        register(definitions, definition, queryObject);
+        return queryObject;
+    }
+    
+    public Query createQuery(EntityManager entityManager, String query) {
+        Definitions definitions = definitionsOf(entityManager.getEntityManagerFactory());
+        Definition definition = new Definition(query, null);
+        String name = definitions == null ? null : definitions.get(definition);
+        if (name != null) {
+            try {
+                Query queryObject = entityManager.createNamedQuery(name);
+                hits.incrementAndGet();
+                return queryObject;
+            } catch (IllegalArgumentException e) {
+                // evicted concurrently
+            }
+        }
+        misses.incrementAndGet();
+        Query queryObject = entityManager.createQuery(query);
+        register(definitions, definition, queryObject);
+        return queryObject;
+    }
+    
+    public long getHits() {
+        return hits.get();
+    }
+    
+    public long getMisses() {
+        return misses.get();
+    }
+    
+    public int getSize() {
+        int size = 0;
+        synchronized (byFactory) {
+            for (Definitions definitions : byFactory.values()) {
+                size += definitions.size();
+            }
+        }
+        return size;
+    }
+    
+    /**
+     * Maximum number of definitions of single factory.
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+    
+    /**
+     * Forgets all definitions and resets counters. Named queries already
+     * registered stay in factories but are not used anymore.
+     */
+    public void clear() {
+        synchronized (byFactory) {
+            byFactory.clear();
+        }
+        hits.set(0);
+        misses.set(0);
+    }
+    
+    /**
+     * Definitions of factory, <code>null</code> when provider does not
+     * support registration.
+     */
+    private Definitions definitionsOf(EntityManagerFactory factory) {
+        if (!factory.getClass().getName().startsWith("org.eclipse.persistence.")) {
+            return null;
+        }
+        synchronized (byFactory) {
+            Definitions definitions = byFactory.get(factory);
+            if (definitions == null) {
+                definitions = new Definitions(factory, maximumSize);
+                byFactory.put(factory, definitions);
+            }
+            return definitions;
+        }
+    }
+    
+    /**
+     * Concurrent misses of the same definition register it once.
+     */
+    private void register(Definitions definitions, Definition definition, Query queryObject) {
+        if (definitions == null) {
+            return;
+        }
+        synchronized (definitions) {
+            if (definitions.get(definition) != null) {
+                return;
+            }
+            String name = NAME_PREFIX + sequence.incrementAndGet();
+            if (definitions.addQuery(name, queryObject)) {
+                definitions.put(definition, name);
+            }
+        }
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("QueryDefinitionCache [size=");
+        builder.append(getSize());
+        builder.append(", hits=");
+        builder.append(hits.get());
+        builder.append(", misses=");
+        builder.append(misses.get());
+        builder.append("]");
+        return builder.toString();
+    }
+    
+    /**
+     * Names of queries registered in session of single factory. Factory is
+     * referenced weakly, so it does not stay reachable from its value in
+     * {@link WeakHashMap}.
+     */
+    private static class Definitions extends BoundedCache<Definition, String> {
+        
+        private final WeakReference<EntityManagerFactory> factory;
+        
+        Definitions(EntityManagerFactory factory, int maximumSize) {
+            super(maximumSize);
+            this.factory = new WeakReference<EntityManagerFactory>(factory);
+        }
+        
+        boolean addQuery(String name, Query queryObject) {
+            EntityManagerFactory entityManagerFactory = factory.get();
+            return entityManagerFactory != null && EclipseLinkSession.addQuery(entityManagerFactory, name, queryObject);
+        }
+        
+        @Override
+        void evicted(Definition definition, String name) {
+            EntityManagerFactory entityManagerFactory = factory.get();
+            if (entityManagerFactory != null) {
+                EclipseLinkSession.removeQuery(entityManagerFactory, name);
+            }
+        }
+    }
+    
+    /**
+     * Separate class, so EclipseLink classes are loaded only for EclipseLink
+     * factories.
+     */
+    private static class EclipseLinkSession {
+        
+        static boolean addQuery(EntityManagerFactory factory, String name, Query queryObject) {
+            try {
+                DatabaseQuery namedQuery = (DatabaseQuery) queryObject.unwrap(DatabaseQuery.class).clone();
+                namedQuery.setName(name);
+                JpaHelper.getServerSession(factory).addQuery(name, namedQuery);
+                return true;
+            } catch (PersistenceException e) {
+                return false;
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+        
+        static void removeQuery(EntityManagerFactory factory, String name) {
+            JpaHelper.getServerSession(factory).removeQuery(name);
+        }
+    }
+    
+    /**
+     * JPQL with name of result class, classes of application are not
+     * referenced.
+     */
+    private static class Definition {
+        
+        private final String query;
+        private final String resultClass;
+        private final int hash;
+        
+        Definition(String query, Class<?> resultClass) {
+            this.query = query;
+            this.resultClass = resultClass == null ? null : resultClass.getName();
+            this.hash = 31 * query.hashCode() + (resultClass == null ? 0 : this.resultClass.hashCode());
+        }
+        
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Definition)) {
+                return false;
+            }
+            Definition other = (Definition) obj;
+            return query.equals(other.query)
+                    && (resultClass == null ? other.resultClass == null : resultClass.equals(other.resultClass));
+        }
+    }
+}
@@ -1,15 +1,34 @@
 package persistence;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.persistence.Query;
+
 /**
- * Builder helper of JPA Query named parameters.
+ * Builder helper of JPA Query named and positional parameters.
+ * <p>
+ * Parameters are kept in plain arrays, binding them to query allocates
+ * nothing. Constant parameter sets may be built once and {@link #prepared()
+ * prepared} as immutable instance shared between threads:
+ * 
+ * <pre>
+ * static final QueryParamBuilder ACTIVE = withParam(&quot;status&quot;, Status.ACTIVE).prepared();
+ * </pre>
+ * 
+ * Builder is mutable, so it does not define equality, caches compare
+ * parameters by {@link #toMap()}.
  * 
  * @author Michal Michaluk <michaluk.michal@gmail.com>
  */
 public class QueryParamBuilder {
     
+    private static final Object[] EMPTY = new Object[0];
+    
     public static QueryParamBuilder withParams(int capacity) {
         return new QueryParamBuilder(capacity);
     }
@@ -18,18 +37,146 @@ public class QueryParamBuilder {
         return new QueryParamBuilder(1).param(param, value);
     }
     
+    /**
+     * Positional parameters <code>?1, ?2, ...</code> in order of given values.
+     */
+    public static QueryParamBuilder withPositionalParams(Object... values) {
+        QueryParamBuilder builder = new QueryParamBuilder(values.length);
+        for (int i = 0; i < values.length; i++) {
+            builder.position(i + 1, values[i]);
+        }
+        return builder;
+    }
+    
     public static QueryParamBuilder withoutParams() {
         return new QueryParamBuilder(0);
     }
     
-    Map<String, Object> map;
+    /** {@link String} name of named parameter or {@link Integer} position of positional one */
+    private Object[] keys;
+    private Object[] values;
+    private int size;
+    private boolean prepared;
     
     private QueryParamBuilder(int capacity) {
-        this.map = new HashMap<String, Object>(capacity);
+        this.keys = capacity == 0 ? EMPTY : new Object[capacity];
+        this.values = capacity == 0 ? EMPTY : new Object[capacity];
+    }
+    
+    private QueryParamBuilder(QueryParamBuilder builder) {
+        this.keys = Arrays.copyOf(builder.keys, builder.size);
+        this.values = Arrays.copyOf(builder.values, builder.size);
+        this.size = builder.size;
+        this.prepared = true;
     }
     
     public QueryParamBuilder param(String param, Object value) {
-        map.put(param, value);
+        put(param, value);
         return this;
     }
+    
+    public QueryParamBuilder position(int position, Object value) {
+        put(Integer.valueOf(position), value);
+        return this;
+    }
+    
+    /**
+     * Returns immutable copy of parameters, immutable instance is returned as is.
+     */
+    public QueryParamBuilder prepared() {
+        return prepared ? this : new QueryParamBuilder(this);
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    void bind(Query queryObject) {
+        for (int i = 0; i < size; i++) {
+            Object key = keys[i];
+            if (key instanceof String) {
+                queryObject.setParameter((String) key, values[i]);
+            } else {
+                queryObject.setParameter(((Integer) key).intValue(), values[i]);
+            }
+        }
+    }
+    
+    /**
+     * Binds values to JDBC placeholders, each placeholder is given by
+     * parameter name or position.
+     */
+    void bind(PreparedStatement statement, Object[] placeholders) throws SQLException {
+        for (int i = 0; i < placeholders.length; i++) {
+            int index = indexOf(placeholders[i]);
+            if (index < 0) {
+                throw new IllegalArgumentException("No value for parameter " + placeholders[i]);
+            }
+            statement.setObject(i + 1, values[index]);
+        }
+    }
+    
+    private void put(Object key, Object value) {
+        if (prepared) {
+            throw new UnsupportedOperationException("Prepared parameters are immutable");
+        }
+        int index = indexOf(key);
+        if (index >= 0) {
+            values[index] = value;
+            return;
+        }
+        if (size == keys.length) {
+            int capacity = Math.max(4, size * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        keys[size] = key;
+        values[size] = value;
+        size++;
+    }
+    
+    private int indexOf(Object key) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Immutable copy of parameters by {@link String} name or {@link Integer}
+     * position, used as part of cache keys.
+     */
+    Map<Object, Object> toMap() {
+        Map<Object, Object> map = new HashMap<Object, Object>(size * 2);
+        for (int i = 0; i < size; i++) {
+            map.put(keys[i], values[i]);
+        }
+        return Collections.unmodifiableMap(map);
+    }
+    
+    /**
+     * Parameters of cache key, empty map for <code>null</code>.
+     */
+    static Map<Object, Object> toMap(QueryParamBuilder params) {
+        return params == null ? Collections.<Object, Object> emptyMap() : params.toMap();
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("QueryParamBuilder [");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(keys[i] instanceof String ? ":" : "?");
+            builder.append(keys[i]);
+            builder.append("=");
+            builder.append(values[i]);
+        }
+        builder.append("]");
+        return builder.toString();
+    }
 }
@@ -0,0 +1,319 @@
+package persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.PluralAttribute;
+
+/**
+ * Opt-in cache of query results for reference data, used by
+ * {@link EntityManagerHelper#findManyCached(EntityManager, Class, String, QueryParamBuilder)}.
+ * <p>
+ * Results are cached by JPQL, result class and query parameters. Cache is
+ * bounded by number of entries of each factory (least recently used are
+ * evicted) and time to live of entry. Factories are referenced weakly, so
+ * their results are not held after undeployment.
+ * <p>
+ * On miss query runs in short-lived entity manager of caller's factory, so
+ * entities managed by caller are left as they are and its pending changes are
+ * not cached. Cached entities are detached and shared between callers, so they
+ * must be treated as read-only.
+ * <p>
+ * Entry is invalidated when transaction writing any entity of type used in
+ * its query commits, {@link QueryResultCacheInvalidator} has to be registered
+ * as default entity listener for that. Types used in query are entities named
+ * in it and targets of relationships navigated by its paths (like
+ * <code>JOIN p.addresses a</code>). Bulk JPQL updates are not visible to
+ * entity listeners, after them call {@link #invalidate(Class)}.
+ */
+public class QueryResultCache {
+    
+    public static final int DEFAULT_MAXIMUM_SIZE = 1000;
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_$][A-Za-z0-9_$]*");
+    private static final Pattern PATH_SEGMENT = Pattern.compile("\\.\\s*([A-Za-z_$][A-Za-z0-9_$]*)");
+    private static final QueryResultCache shared = new QueryResultCache(DEFAULT_MAXIMUM_SIZE, DEFAULT_TIME_TO_LIVE_MILLIS);
+    
+    public static QueryResultCache getShared() {
+        return shared;
+    }
+    
+    private final Map<EntityManagerFactory, BoundedCache<Key, Entry>> byFactory = new WeakHashMap<EntityManagerFactory, BoundedCache<Key, Entry>>();
+    private volatile int maximumSize;
+    private volatile long timeToLiveMillis;
+    private final ConcurrentMap<String, AtomicLong> generations = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    
+    /**
+     * @param maximumSize
+     *            maximum number of entries of single factory
+     */
+    public QueryResultCache(int maximumSize, long timeToLiveMillis) {
+        this.maximumSize = maximumSize;
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+    
+    /**
+     * Maximum number of entries of single factory.
+     */
+    public void setMaximumSize(int maximumSize) {
+        synchronized (byFactory) {
+            this.maximumSize = maximumSize;
+            for (BoundedCache<Key, Entry> entries : byFactory.values()) {
+                entries.setMaximumSize(maximumSize);
+            }
+        }
+    }
+    
+    /**
+     * Applies to entries cached from now on.
+     */
+    public void setTimeToLive(long timeToLive, TimeUnit unit) {
+        synchronized (byFactory) {
+            this.timeToLiveMillis = unit.toMillis(timeToLive);
+            for (BoundedCache<Key, Entry> entries : byFactory.values()) {
+                entries.setTimeToLive(timeToLive, unit);
+            }
+        }
+    }
+    
+    public long getHits() {
+        return hits.get();
+    }
+    
+    public long getMisses() {
+        return misses.get();
+    }
+    
+    public int getSize() {
+        int size = 0;
+        synchronized (byFactory) {
+            for (BoundedCache<Key, Entry> entries : byFactory.values()) {
+                size += entries.size();
+            }
+        }
+        return size;
+    }
+    
+    /**
+     * Invalidates entries of queries using given entity type or any of its
+     * super types.
+     */
+    public void invalidate(Class<?> entityClass) {
+        for (Class<?> type = entityClass; type != null && type != Object.class; type = type.getSuperclass()) {
+            generationOf(type.getName()).incrementAndGet();
+        }
+    }
+    
+    public void invalidateAll() {
+        synchronized (byFactory) {
+            byFactory.clear();
+        }
+    }
+    
+    <Type> List<Type> findMany(EntityManager entityManager, Class<Type> resultClass, String query, QueryParamBuilder params) {
+        long start = QueryStatistics.start();
+        EntityManagerFactory factory = entityManager.getEntityManagerFactory();
+        BoundedCache<Key, Entry> entries = entriesOf(factory);
+        Key key = new Key(query, resultClass, params);
+        Entry entry = entries.get(key);
+        if (entry != null && entry.isValid()) {
+            hits.incrementAndGet();
+            List<Type> result = entry.result();
+            QueryStatistics.recordCacheHit(start, query, params, result.size());
+            return result;
+        }
+        misses.incrementAndGet();
+        String[] types = typesUsedIn(entityManager, query);
+        long[] snapshot = generationsOf(types);
+        List<Type> result;
+        EntityManager loader = factory.createEntityManager();
+        try {
+            result = new ArrayList<Type>(EntityManagerHelper.findMany(loader, resultClass, query, params));
+        } finally {
+            loader.close();
+        }
+        entry = new Entry(Collections.unmodifiableList(result), types, snapshot);
+        entries.put(key, entry);
+        return entry.result();
+    }
+    
+    private BoundedCache<Key, Entry> entriesOf(EntityManagerFactory factory) {
+        synchronized (byFactory) {
+            BoundedCache<Key, Entry> entries = byFactory.get(factory);
+            if (entries == null) {
+                entries = new BoundedCache<Key, Entry>(maximumSize, timeToLiveMillis);
+                byFactory.put(factory, entries);
+            }
+            return entries;
+        }
+    }
+    
+    /**
+     * Entities named in query and, transitively, targets of their
+     * relationships whose names are path segments of query.
+     */
+    private static String[] typesUsedIn(EntityManager entityManager, String query) {
+        Map<String, EntityType<?>> byName = new HashMap<String, EntityType<?>>();
+        Map<Class<?>, EntityType<?>> byClass = new HashMap<Class<?>, EntityType<?>>();
+        for (EntityType<?> entityType : entityManager.getMetamodel().getEntities()) {
+            byName.put(entityType.getName(), entityType);
+            byClass.put(entityType.getJavaType(), entityType);
+        }
+        List<EntityType<?>> used = new ArrayList<EntityType<?>>();
+        Matcher matcher = IDENTIFIER.matcher(query);
+        while (matcher.find()) {
+            EntityType<?> entityType = byName.get(matcher.group());
+            if (entityType != null && !used.contains(entityType)) {
+                used.add(entityType);
+            }
+        }
+        Set<String> pathSegments = new HashSet<String>();
+        matcher = PATH_SEGMENT.matcher(query);
+        while (matcher.find()) {
+            pathSegments.add(matcher.group(1));
+        }
+        for (int i = 0; i < used.size(); i++) {
+            for (Attribute<?, ?> attribute : used.get(i).getAttributes()) {
+                if (attribute.isAssociation() && pathSegments.contains(attribute.getName())) {
+                    EntityType<?> target = byClass.get(targetOf(attribute));
+                    if (target != null && !used.contains(target)) {
+                        used.add(target);
+                    }
+                }
+            }
+        }
+        Set<String> types = new LinkedHashSet<String>();
+        for (EntityType<?> entityType : used) {
+            types.add(entityType.getJavaType().getName());
+        }
+        return types.toArray(new String[types.size()]);
+    }
+    
+    private static Class<?> targetOf(Attribute<?, ?> attribute) {
+        if (attribute instanceof PluralAttribute) {
+            return ((PluralAttribute<?, ?, ?>) attribute).getElementType().getJavaType();
+        }
+        return attribute.getJavaType();
+    }
+    
+    private long[] generationsOf(String[] types) {
+        long[] snapshot = new long[types.length];
+        for (int i = 0; i < types.length; i++) {
+            snapshot[i] = generationOf(types[i]).get();
+        }
+        return snapshot;
+    }
+    
+    private AtomicLong generationOf(String type) {
+        AtomicLong generation = generations.get(type);
+        if (generation == null) {
+            AtomicLong created = new AtomicLong();
+            generation = generations.putIfAbsent(type, created);
+            if (generation == null) {
+                generation = created;
+            }
+        }
+        return generation;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("QueryResultCache [size=");
+        builder.append(getSize());
+        builder.append(", hits=");
+        builder.append(hits.get());
+        builder.append(", misses=");
+        builder.append(misses.get());
+        builder.append("]");
+        return builder.toString();
+    }
+    
+    private class Entry {
+        
+        private final List<?> result;
+        private final String[] types;
+        private final long[] generations;
+        
+        Entry(List<?> result, String[] types, long[] generations) {
+            this.result = result;
+            this.types = types;
+            this.generations = generations;
+        }
+        
+        boolean isValid() {
+            for (int i = 0; i < types.length; i++) {
+                if (generationOf(types[i]).get() != generations[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        @SuppressWarnings("unchecked")
+        <Type> List<Type> result() {
+            return (List<Type>) result;
+        }
+    }
+    
+    /**
+     * Query of single factory, result class is held by name, so key does not
+     * reference classes of application.
+     */
+    private static class Key {
+        
+        private final String query;
+        private final String resultClass;
+        private final Map<Object, Object> params;
+        private final int hash;
+        
+        Key(String query, Class<?> resultClass, QueryParamBuilder params) {
+            this.query = query;
+            this.resultClass = resultClass.getName();
+            this.params = QueryParamBuilder.toMap(params);
+            int result = query.hashCode();
+            result = 31 * result + this.resultClass.hashCode();
+            result = 31 * result + this.params.hashCode();
+            this.hash = result;
+        }
+        
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return resultClass.equals(other.resultClass)
+                    && query.equals(other.query)
+                    && params.equals(other.params);
+        }
+    }
+}
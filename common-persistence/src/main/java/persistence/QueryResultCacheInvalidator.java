@@ -0,0 +1,139 @@
+package persistence;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.eclipse.persistence.sessions.SessionEvent;
+import org.eclipse.persistence.sessions.SessionEventAdapter;
+
+/**
+ * Entity listener invalidating {@link QueryResultCache} entries of written
+ * entity type. Register it as default entity listener in
+ * <strong>META-INF/orm.xml</strong>:
+ * 
+ * <pre>
+ * &lt;persistence-unit-metadata&gt;
+ *     &lt;persistence-unit-defaults&gt;
+ *         &lt;entity-listeners&gt;
+ *             &lt;entity-listener class=&quot;persistence.QueryResultCacheInvalidator&quot; /&gt;
+ *         &lt;/entity-listeners&gt;
+ *     &lt;/persistence-unit-defaults&gt;
+ * &lt;/persistence-unit-metadata&gt;
+ * </pre>
+ * 
+ * Written types are collected at flush and invalidated after commit, so
+ * results read by concurrent transactions before commit are not cached as
+ * current. In JTA transaction types are invalidated by {@link Synchronization}
+ * of container {@link TransactionSynchronizationRegistry}. For resource-local
+ * transactions listener has to be registered also as EclipseLink session
+ * listener of the unit, which collects types written between begin and end of
+ * its database transaction; writes outside of such transaction, like those of
+ * units without session listener, are invalidated at flush:
+ * 
+ * <pre>
+ * &lt;property name=&quot;eclipselink.session-event-listener&quot; value=&quot;persistence.QueryResultCacheInvalidator&quot;/&gt;
+ * </pre>
+ */
+public class QueryResultCacheInvalidator extends SessionEventAdapter {
+    
+    static final String REGISTRY_NAME = "java:comp/TransactionSynchronizationRegistry";
+    
+    /** types written by resource-local transaction of session with this listener */
+    private static final ThreadLocal<Written> resourceLocal = new ThreadLocal<Written>();
+    private static volatile TransactionSynchronizationRegistry transactionRegistry;
+    
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void entityWritten(Object entity) {
+        TransactionSynchronizationRegistry registry = registry();
+        if (registry != null && registry.getTransactionKey() != null) {
+            Written written = (Written) registry.getResource(Written.class);
+            if (written == null) {
+                written = new Written();
+                registry.putResource(Written.class, written);
+                registry.registerInterposedSynchronization(written);
+            }
+            written.add(entity.getClass());
+        } else if (resourceLocal.get() != null) {
+            resourceLocal.get().add(entity.getClass());
+        } else {
+            QueryResultCache.getShared().invalidate(entity.getClass());
+        }
+    }
+    
+    @Override
+    public void postBeginTransaction(SessionEvent event) {
+        resourceLocal.set(new Written());
+    }
+    
+    @Override
+    public void postCommitTransaction(SessionEvent event) {
+        Written written = resourceLocal.get();
+        if (written != null) {
+            resourceLocal.remove();
+            written.invalidate();
+        }
+    }
+    
+    @Override
+    public void postRollbackTransaction(SessionEvent event) {
+        resourceLocal.remove();
+    }
+    
+    /**
+     * Only successful lookup is remembered, failed one is repeated, as
+     * registry may be bound later than first write.
+     */
+    private static TransactionSynchronizationRegistry registry() {
+        TransactionSynchronizationRegistry registry = transactionRegistry;
+        if (registry == null) {
+            try {
+                registry = (TransactionSynchronizationRegistry) new InitialContext().lookup(REGISTRY_NAME);
+                transactionRegistry = registry;
+            } catch (NamingException e) {
+                return null;
+            }
+        }
+        return registry;
+    }
+    
+    /**
+     * Types written by single transaction.
+     */
+    private static class Written implements Synchronization {
+        
+        private final Set<Class<?>> types = new LinkedHashSet<Class<?>>();
+        
+        synchronized void add(Class<?> type) {
+            types.add(type);
+        }
+        
+        synchronized void invalidate() {
+            for (Class<?> type : types) {
+                QueryResultCache.getShared().invalidate(type);
+            }
+            types.clear();
+        }
+        
+        @Override
+        public void beforeCompletion() {
+        }
+        
+        @Override
+        public void afterCompletion(int status) {
+            if (status == Status.STATUS_COMMITTED) {
+                invalidate();
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package persistence;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free counters of single normalized query: calls, rows, failures,
+ * cache hits and latency histogram with power of two microseconds buckets.
+ * 
+ * @see QueryStatistics
+ */
+class QueryStatistic {
+    
+    static final int BUCKETS = 32;
+    static final int EXECUTED = 0;
+    static final int FAILED = 1;
+    static final int CACHE_HIT = 2;
+    
+    private final String query;
+    private final long created = System.nanoTime();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+    
+    QueryStatistic(String query) {
+        this.query = query;
+    }
+    
+    void record(long nanos, long rowCount, int outcome) {
+        calls.incrementAndGet();
+        if (outcome == FAILED) {
+            failures.incrementAndGet();
+        } else if (outcome == CACHE_HIT) {
+            cacheHits.incrementAndGet();
+        }
+        rows.addAndGet(rowCount);
+        totalNanos.addAndGet(nanos);
+        histogram.incrementAndGet(bucketOf(nanos));
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+    
+    static int bucketOf(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+    
+    QueryStatisticsSnapshot snapshot() {
+        long callCount = calls.get();
+        long[] buckets = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = histogram.get(i);
+        }
+        double seconds = (System.nanoTime() - created) / (double) TimeUnit.SECONDS.toNanos(1);
+        return new QueryStatisticsSnapshot(query, callCount, rows.get(), failures.get(), cacheHits.get(),
+                callCount == 0 ? 0 : toMillis(totalNanos.get()) / callCount,
+                toMillis(maxNanos.get()),
+                percentileMillis(buckets, callCount, 0.50),
+                percentileMillis(buckets, callCount, 0.95),
+                percentileMillis(buckets, callCount, 0.99),
+                seconds <= 0 ? 0 : callCount / seconds);
+    }
+    
+    /**
+     * Upper bound of bucket holding given percentile.
+     */
+    private static double percentileMillis(long[] buckets, long count, double percentile) {
+        long threshold = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= threshold && seen > 0) {
+                return (1L << i) / 1000.0;
+            }
+        }
+        return 0;
+    }
+    
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,234 @@
+package persistence;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Per query statistics of {@link EntityManagerHelper} calls: latency
+ * histograms, row counts, failures, cache hits and call rates grouped by
+ * normalized JPQL (literals replaced by <code>?</code>, whitespaces collapsed),
+ * and log of slow queries with bound parameters. At most
+ * {@link #MAXIMUM_QUERIES} normalized queries are tracked.
+ * <p>
+ * Statistics are disabled by default, when disabled each helper call costs
+ * single volatile read. Statistics are switched on by
+ * {@link #setEnabled(boolean)}, JMX or system property
+ * <strong>persistence.statistics.enabled=true</strong>, slow query threshold by
+ * system property <strong>persistence.statistics.slowQueryThresholdMillis</strong>.
+ * <p>
+ * Shared statistics are registered in platform MBean server when this class is
+ * loaded, under {@link #getObjectName()}
+ * (<strong>persistence:type=QueryStatistics,context=&lt;class loader&gt;</strong>),
+ * so they can be switched on by JMX while disabled. Application unregisters
+ * them by {@link #unregisterMBean()} when it is undeployed.
+ */
+public class QueryStatistics implements QueryStatisticsMXBean {
+    
+    public static final String OBJECT_NAME = "persistence:type=QueryStatistics";
+    public static final int MAXIMUM_QUERIES = 1000;
+    
+    /**
+     * Bound of queries remembered with their normalized form, queries
+     * differing only in literals beyond it are normalized on each call.
+     */
+    static final int MAXIMUM_RAW_QUERIES = 10 * MAXIMUM_QUERIES;
+    
+    private static final Logger log = Logger.getLogger(QueryStatistics.class.getName());
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w?:.])\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern WHITESPACES = Pattern.compile("\\s+");
+    private static final QueryStatistics shared = new QueryStatistics(
+            Boolean.getBoolean("persistence.statistics.enabled"),
+            Long.getLong("persistence.statistics.slowQueryThresholdMillis", -1));
+            
+    static {
+        shared.registerMBean();
+    }
+    
+    public static QueryStatistics getShared() {
+        return shared;
+    }
+    
+    /**
+     * Start time of measured call, or 0 when neither statistics nor
+     * {@link LazyLoadMonitor} are active.
+     */
+    static long start() {
+        return shared.enabled || LazyLoadMonitor.isActive() ? System.nanoTime() : 0;
+    }
+    
+    static void record(long start, String query, QueryParamBuilder params, int rows) {
+        if (start != 0) {
+            if (shared.enabled) {
+                shared.recordCall(System.nanoTime() - start, query, params, rows, QueryStatistic.EXECUTED);
+            }
+            LazyLoadMonitor.rowsRead(rows);
+        }
+    }
+    
+    /**
+     * Call ended by exception.
+     */
+    static void recordFailure(long start, String query, QueryParamBuilder params) {
+        if (start != 0 && shared.enabled) {
+            shared.recordCall(System.nanoTime() - start, query, params, 0, QueryStatistic.FAILED);
+        }
+    }
+    
+    /**
+     * Result served by {@link QueryResultCache} without database access.
+     */
+    static void recordCacheHit(long start, String query, QueryParamBuilder params, int rows) {
+        if (start != 0 && shared.enabled) {
+            shared.recordCall(System.nanoTime() - start, query, params, rows, QueryStatistic.CACHE_HIT);
+        }
+    }
+    
+    /**
+     * Bulk write of entities by {@link BulkWriter}, written entities are
+     * counted as rows but not as rows read by {@link LazyLoadMonitor}.
+     */
+    static void recordWrite(long start, String operation, long entities) {
+        if (start != 0 && shared.enabled) {
+            shared.recordCall(System.nanoTime() - start, operation, null, entities, QueryStatistic.EXECUTED);
+        }
+    }
+    
+    private volatile boolean enabled;
+    private volatile long slowQueryThresholdNanos;
+    private final ConcurrentMap<String, QueryStatistic> byQuery = new ConcurrentHashMap<String, QueryStatistic>();
+    private final ConcurrentMap<String, QueryStatistic> byNormalizedQuery = new ConcurrentHashMap<String, QueryStatistic>();
+    private boolean registered;
+    
+    QueryStatistics(boolean enabled, long slowQueryThresholdMillis) {
+        setSlowQueryThresholdMillis(slowQueryThresholdMillis);
+        setEnabled(enabled);
+    }
+    
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+    
+    @Override
+    public long getSlowQueryThresholdMillis() {
+        return slowQueryThresholdNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(slowQueryThresholdNanos);
+    }
+    
+    /**
+     * Calls lasting longer are logged with bound parameters, negative
+     * threshold switches log off.
+     */
+    @Override
+    public void setSlowQueryThresholdMillis(long slowQueryThresholdMillis) {
+        this.slowQueryThresholdNanos = slowQueryThresholdMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(slowQueryThresholdMillis);
+    }
+    
+    @Override
+    public List<QueryStatisticsSnapshot> getSnapshots() {
+        List<QueryStatisticsSnapshot> snapshots = new ArrayList<QueryStatisticsSnapshot>(byNormalizedQuery.size());
+        for (QueryStatistic statistic : byNormalizedQuery.values()) {
+            snapshots.add(statistic.snapshot());
+        }
+        return snapshots;
+    }
+    
+    @Override
+    public void reset() {
+        byQuery.clear();
+        byNormalizedQuery.clear();
+    }
+    
+    /**
+     * Name of bean, {@link #OBJECT_NAME} qualified by class loader of this
+     * class, so applications bundling own copy of this library have own beans.
+     */
+    public static String getObjectName() {
+        return OBJECT_NAME + ",context=" + Integer.toHexString(System.identityHashCode(QueryStatistics.class.getClassLoader()));
+    }
+    
+    public synchronized void registerMBean() {
+        if (registered) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(getObjectName()));
+            registered = true;
+        } catch (JMException e) {
+            log.log(Level.WARNING, "Can't register query statistics in MBean server", e);
+        }
+    }
+    
+    /**
+     * Unregisters bean, application calls it when it is undeployed (for
+     * example in <code>ServletContextListener.contextDestroyed</code>), so
+     * MBean server does not hold its class loader.
+     */
+    public synchronized void unregisterMBean() {
+        if (!registered) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(getObjectName()));
+        } catch (JMException e) {
+            log.log(Level.WARNING, "Can't unregister query statistics from MBean server", e);
+        }
+        registered = false;
+    }
+    
+    void recordCall(long nanos, String query, QueryParamBuilder params, long rows, int outcome) {
+        QueryStatistic statistic = statisticOf(query);
+        if (statistic != null) {
+            statistic.record(nanos, rows, outcome);
+        }
+        long threshold = slowQueryThresholdNanos;
+        if (threshold >= 0 && nanos > threshold && log.isLoggable(Level.WARNING)) {
+            log.warning("Slow query (" + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms, " + rows + " rows): "
+                    + query + " with " + params);
+        }
+    }
+    
+    private QueryStatistic statisticOf(String query) {
+        QueryStatistic statistic = byQuery.get(query);
+        if (statistic != null) {
+            return statistic;
+        }
+        String normalized = normalize(query);
+        statistic = byNormalizedQuery.get(normalized);
+        if (statistic == null) {
+            if (byNormalizedQuery.size() >= MAXIMUM_QUERIES) {
+                return null;
+            }
+            QueryStatistic created = new QueryStatistic(normalized);
+            statistic = byNormalizedQuery.putIfAbsent(normalized, created);
+            if (statistic == null) {
+                statistic = created;
+            }
+        }
+        if (byQuery.size() < MAXIMUM_RAW_QUERIES) {
+            byQuery.putIfAbsent(query, statistic);
+        }
+        return statistic;
+    }
+    
+    static String normalize(String query) {
+        String normalized = STRING_LITERAL.matcher(query).replaceAll("?");
+        normalized = NUMBER_LITERAL.matcher(normalized).replaceAll("?");
+        return WHITESPACES.matcher(normalized).replaceAll(" ").trim();
+    }
+}
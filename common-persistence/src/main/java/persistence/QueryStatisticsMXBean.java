@@ -0,0 +1,23 @@
+package persistence;
+
+import java.util.List;
+
+/**
+ * JMX view of {@link QueryStatistics}, registered as
+ * <strong>persistence:type=QueryStatistics</strong> qualified by class loader,
+ * see {@link QueryStatistics#getObjectName()}.
+ */
+public interface QueryStatisticsMXBean {
+    
+    boolean isEnabled();
+    
+    void setEnabled(boolean enabled);
+    
+    long getSlowQueryThresholdMillis();
+    
+    void setSlowQueryThresholdMillis(long slowQueryThresholdMillis);
+    
+    List<QueryStatisticsSnapshot> getSnapshots();
+    
+    void reset();
+}
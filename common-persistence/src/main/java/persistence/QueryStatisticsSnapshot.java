@@ -0,0 +1,113 @@
+package persistence;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Point in time view of statistics of single normalized query.
+ * 
+ * @see QueryStatistics#getSnapshots()
+ */
+public class QueryStatisticsSnapshot {
+    
+    private final String query;
+    private final long calls;
+    private final long rows;
+    private final long failures;
+    private final long cacheHits;
+    private final double meanMillis;
+    private final double maxMillis;
+    private final double medianMillis;
+    private final double percentile95Millis;
+    private final double percentile99Millis;
+    private final double callsPerSecond;
+    
+    @ConstructorProperties({ "query", "calls", "rows", "failures", "cacheHits", "meanMillis", "maxMillis", "medianMillis", "percentile95Millis", "percentile99Millis", "callsPerSecond" })
+    public QueryStatisticsSnapshot(String query, long calls, long rows, long failures, long cacheHits,
+            double meanMillis, double maxMillis, double medianMillis, double percentile95Millis,
+            double percentile99Millis, double callsPerSecond) {
+        this.query = query;
+        this.calls = calls;
+        this.rows = rows;
+        this.failures = failures;
+        this.cacheHits = cacheHits;
+        this.meanMillis = meanMillis;
+        this.maxMillis = maxMillis;
+        this.medianMillis = medianMillis;
+        this.percentile95Millis = percentile95Millis;
+        this.percentile99Millis = percentile99Millis;
+        this.callsPerSecond = callsPerSecond;
+    }
+    
+    public String getQuery() {
+        return query;
+    }
+    
+    public long getCalls() {
+        return calls;
+    }
+    
+    public long getRows() {
+        return rows;
+    }
+    
+    /**
+     * Calls ended by exception, included in {@link #getCalls()}.
+     */
+    public long getFailures() {
+        return failures;
+    }
+    
+    /**
+     * Calls served by {@link QueryResultCache}, included in {@link #getCalls()}.
+     */
+    public long getCacheHits() {
+        return cacheHits;
+    }
+    
+    public double getMeanMillis() {
+        return meanMillis;
+    }
+    
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+    
+    public double getMedianMillis() {
+        return medianMillis;
+    }
+    
+    public double getPercentile95Millis() {
+        return percentile95Millis;
+    }
+    
+    public double getPercentile99Millis() {
+        return percentile99Millis;
+    }
+    
+    public double getCallsPerSecond() {
+        return callsPerSecond;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("QueryStatisticsSnapshot [query=");
+        builder.append(query);
+        builder.append(", calls=");
+        builder.append(calls);
+        builder.append(", rows=");
+        builder.append(rows);
+        builder.append(", failures=");
+        builder.append(failures);
+        builder.append(", cacheHits=");
+        builder.append(cacheHits);
+        builder.append(", meanMillis=");
+        builder.append(meanMillis);
+        builder.append(", percentile95Millis=");
+        builder.append(percentile95Millis);
+        builder.append(", maxMillis=");
+        builder.append(maxMillis);
+        builder.append("]");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,246 @@
+package persistence;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * Routes reads to entity manager of read-only replica persistence unit and
+ * writes to entity manager of primary one.
+ * <p>
+ * Reads are sticky within transaction: after {@link #forWrite()} all reads of
+ * the same transaction go to primary, so they see own writes which are not
+ * yet replicated. Outside of transaction reads always go to replica. In JTA
+ * transaction the state is shared by all routers of the transaction, so write
+ * through one router sends later reads of other routers to primary too, and
+ * routers of the same replica unit share its entity manager.
+ * <p>
+ * In container transaction is recognized by
+ * {@link TransactionSynchronizationRegistry}. Replica unit has to be
+ * <code>RESOURCE_LOCAL</code> with <code>non-jta-data-source</code>, so its
+ * entity manager is never enlisted in JTA transaction next to primary one.
+ * Replica entity manager is opened for each transaction and closed after its
+ * completion, outside of transaction find methods open it for single query.
+ * 
+ * <pre>
+ * &#064;PersistenceContext(unitName = &quot;primary&quot;)
+ * EntityManager primary;
+ * &#064;PersistenceUnit(unitName = &quot;replica&quot;)
+ * EntityManagerFactory replica;
+ * &#064;Resource
+ * TransactionSynchronizationRegistry registry;
+ * 
+ * ReadReplicaRouter router = new ReadReplicaRouter(primary, replica, registry);
+ * List&lt;OrderEntity&gt; orders = router.findMany(OrderEntity.class, &quot;SELECT o FROM OrderEntity o&quot;, withoutParams());
+ * </pre>
+ * 
+ * With resource-local entity managers (for example two HSQLDB instances in
+ * tests) transactions of primary are demarcated by {@link #begin()},
+ * {@link #commit()} and {@link #rollback()} of router, which is then used by
+ * single thread only, like its entity managers.
+ */
+public class ReadReplicaRouter {
+    
+    private final EntityManager primary;
+    private final EntityManager replica;
+    private final EntityManagerFactory replicaFactory;
+    private final TransactionSynchronizationRegistry registry;
+    private boolean written;
+    
+    /**
+     * Router of resource-local entity managers.
+     */
+    public ReadReplicaRouter(EntityManager primary, EntityManager replica) {
+        this(primary, replica, null, null);
+    }
+    
+    /**
+     * Router of container managed primary entity manager and replica unit
+     * outside of JTA transactions.
+     */
+    public ReadReplicaRouter(EntityManager primary, EntityManagerFactory replicaFactory, TransactionSynchronizationRegistry registry) {
+        this(primary, null, replicaFactory, registry);
+        if (replicaFactory == null || registry == null) {
+            throw new IllegalArgumentException("Replica factory and transaction registry are required in container");
+        }
+    }
+    
+    private ReadReplicaRouter(EntityManager primary, EntityManager replica, EntityManagerFactory replicaFactory, TransactionSynchronizationRegistry registry) {
+        this.primary = primary;
+        this.replica = replica;
+        this.replicaFactory = replicaFactory;
+        this.registry = registry;
+    }
+    
+    /**
+     * Begins resource-local transaction of primary entity manager.
+     */
+    public void begin() {
+        primary.getTransaction().begin();
+        written = false;
+    }
+    
+    /**
+     * Commits resource-local transaction of primary entity manager, later
+     * reads go to replica again.
+     */
+    public void commit() {
+        try {
+            primary.getTransaction().commit();
+        } finally {
+            written = false;
+        }
+    }
+    
+    /**
+     * Rolls back resource-local transaction of primary entity manager, later
+     * reads go to replica again.
+     */
+    public void rollback() {
+        try {
+            primary.getTransaction().rollback();
+        } finally {
+            written = false;
+        }
+    }
+    
+    /**
+     * Entity manager for reads, primary one when current transaction already
+     * wrote. In container it is available only in transaction.
+     */
+    public EntityManager forRead() {
+        if (registry == null) {
+            if (written && !primary.getTransaction().isActive()) {
+                written = false;
+            }
+            return written ? primary : replica;
+        }
+        ReplicaTransaction transaction = currentTransaction();
+        if (transaction == null) {
+            throw new IllegalStateException("Replica entity manager is available only in transaction, outside of it use find methods");
+        }
+        return transaction.written ? primary : transaction.replica(replicaFactory);
+    }
+    
+    /**
+     * Entity manager for writes, marks current transaction so its later reads
+     * go to primary.
+     */
+    public EntityManager forWrite() {
+        if (registry == null) {
+            written = true;
+        } else {
+            ReplicaTransaction transaction = currentTransaction();
+            if (transaction != null) {
+                transaction.written = true;
+            }
+        }
+        return primary;
+    }
+    
+    public <EntityType> EntityType findOne(Class<EntityType> entityClass, String query, QueryParamBuilder params) throws NotFoundException {
+        EntityManager opened = openOutsideOfTransaction();
+        try {
+            return EntityManagerHelper.findOne(opened != null ? opened : forRead(), entityClass, query, params);
+        } finally {
+            close(opened);
+        }
+    }
+    
+    public <EntityType> List<EntityType> findMany(Class<EntityType> entityClass, String query, QueryParamBuilder params) {
+        EntityManager opened = openOutsideOfTransaction();
+        try {
+            return EntityManagerHelper.findMany(opened != null ? opened : forRead(), entityClass, query, params);
+        } finally {
+            close(opened);
+        }
+    }
+    
+    public <EntityType> EntityType findOneOrNull(Class<EntityType> entityClass, String query, QueryParamBuilder params) {
+        EntityManager opened = openOutsideOfTransaction();
+        try {
+            return EntityManagerHelper.findOneOrNull(opened != null ? opened : forRead(), entityClass, query, params);
+        } finally {
+            close(opened);
+        }
+    }
+    
+    public <Type> List<Type> findManyDynamicTyped(String query, QueryParamBuilder params) {
+        EntityManager opened = openOutsideOfTransaction();
+        try {
+            return EntityManagerHelper.findManyDynamicTyped(opened != null ? opened : forRead(), query, params);
+        } finally {
+            close(opened);
+        }
+    }
+    
+    /**
+     * Replica entity manager for single query in container outside of
+     * transaction, otherwise <code>null</code>.
+     */
+    private EntityManager openOutsideOfTransaction() {
+        if (registry != null && registry.getTransactionKey() == null) {
+            return replicaFactory.createEntityManager();
+        }
+        return null;
+    }
+    
+    private static void close(EntityManager opened) {
+        if (opened != null) {
+            opened.close();
+        }
+    }
+    
+    /**
+     * Routing state is registered under class of its holder, so it is shared
+     * by all routers loaded by the same class loader.
+     */
+    private ReplicaTransaction currentTransaction() {
+        if (registry.getTransactionKey() == null) {
+            return null;
+        }
+        ReplicaTransaction transaction = (ReplicaTransaction) registry.getResource(ReplicaTransaction.class);
+        if (transaction == null) {
+            transaction = new ReplicaTransaction();
+            registry.putResource(ReplicaTransaction.class, transaction);
+            registry.registerInterposedSynchronization(transaction);
+        }
+        return transaction;
+    }
+    
+    /**
+     * Routing state of single JTA transaction, cleared after its completion.
+     */
+    private static class ReplicaTransaction implements Synchronization {
+        
+        private boolean written;
+        private final Map<EntityManagerFactory, EntityManager> replicas = new HashMap<EntityManagerFactory, EntityManager>();
+        
+        EntityManager replica(EntityManagerFactory replicaFactory) {
+            EntityManager replica = replicas.get(replicaFactory);
+            if (replica == null) {
+                replica = replicaFactory.createEntityManager();
+                replicas.put(replicaFactory, replica);
+            }
+            return replica;
+        }
+        
+        @Override
+        public void beforeCompletion() {
+        }
+        
+        @Override
+        public void afterCompletion(int status) {
+            written = false;
+            for (EntityManager replica : replicas.values()) {
+                replica.close();
+            }
+            replicas.clear();
+        }
+    }
+}
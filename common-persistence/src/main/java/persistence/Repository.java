@@ -8,6 +8,7 @@ import java.lang.annotation.Target;
 
 import javax.ejb.LocalBean;
 import javax.ejb.Stateless;
+import javax.interceptor.InterceptorBinding;
 
 /**
  * Repository stereotype.
@@ -15,6 +16,9 @@ import javax.ejb.Stateless;
  * Repository provide read-write access to instances of particular entity.
  * Related topic: <strong>Command Query Responsibility Separation (CQRS)</strong>
  * 
+ * Methods are monitored for N+1 lazy loading by
+ * {@link RepositoryLazyLoadInterceptor} when enabled.
+ * 
  * @see Stateless
  * @see LocalBean
  * @see DataAccessObject
@@ -23,6 +27,7 @@ import javax.ejb.Stateless;
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.TYPE)
 @Documented
+@InterceptorBinding
 public @interface Repository {
     
 }
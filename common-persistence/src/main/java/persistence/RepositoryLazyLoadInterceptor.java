@@ -0,0 +1,20 @@
+package persistence;
+
+import javax.interceptor.Interceptor;
+
+/**
+ * Monitors {@link Repository} methods with {@link LazyLoadMonitor}.
+ * <p>
+ * Interceptor is enabled in <code>beans.xml</code> of application:
+ * 
+ * <pre>
+ * &lt;interceptors&gt;
+ *     &lt;class&gt;persistence.RepositoryLazyLoadInterceptor&lt;/class&gt;
+ * &lt;/interceptors&gt;
+ * </pre>
+ */
+@Interceptor
+@Repository
+public class RepositoryLazyLoadInterceptor extends LazyLoadInterceptor {
+    
+}
@@ -0,0 +1,361 @@
+package persistence;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates implementations of {@link Repository} interfaces at compile time.
+ * <p>
+ * Each interface method is {@link DerivedQuery derived query}, returned entity
+ * type decides executed {@link EntityManagerHelper} method:
+ * <ul>
+ * <li><code>List&lt;Entity&gt;</code> - findMany,</li>
+ * <li><code>Entity</code> declaring {@link NotFoundException} - findOne,</li>
+ * <li><code>Entity</code> - findOneOrNull.</li>
+ * </ul>
+ * Property names of method name, parameter count and parameter types are
+ * checked against persistent fields of entity, violations are reported as
+ * compilation errors. Derived JPQL itself is not validated at compile time,
+ * provider parses it when bean is constructed. Generated
+ * <code>&lt;Interface&gt;Impl</code> is {@link javax.ejb.Stateless} bean
+ * holding JPQL as constants, queries are registered in
+ * {@link QueryDefinitionCache} when bean is constructed.
+ * 
+ * <pre>
+ * &#064;Repository
+ * public interface OrderRepository {
+ *     List&lt;Order&gt; findByCustomerAndStatusOrderByCreatedDesc(Customer customer, OrderStatus status);
+ *     Order findByNumber(String number) throws NotFoundException;
+ * }
+ * </pre>
+ * 
+ * Processor is registered in <code>META-INF/services</code>, so it runs
+ * whenever this module is on compilation class path.
+ */
+@SupportedAnnotationTypes("persistence.Repository")
+public class RepositoryProcessor extends AbstractProcessor {
+    
+    static final String IMPLEMENTATION_SUFFIX = "Impl";
+    
+    private static final String ENTITY = "javax.persistence.Entity";
+    private static final String MAPPED_SUPERCLASS = "javax.persistence.MappedSuperclass";
+    private static final String TRANSIENT = "javax.persistence.Transient";
+    
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+    
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(Repository.class)) {
+            if (element.getKind() == ElementKind.INTERFACE) {
+                generate((TypeElement) element);
+            }
+        }
+        return false;
+    }
+    
+    private void generate(TypeElement repository) {
+        if (!repository.getTypeParameters().isEmpty()) {
+            error(repository, "generic repository interfaces are not supported");
+            return;
+        }
+        List<Method> methods = new ArrayList<Method>();
+        Set<String> constants = new HashSet<String>();
+        boolean valid = true;
+        for (ExecutableElement method : methodsOf(repository)) {
+            Method derived = derive(method, constants);
+            if (derived == null) {
+                valid = false;
+            } else {
+                methods.add(derived);
+            }
+        }
+        if (valid) {
+            write(repository, methods);
+        }
+    }
+    
+    private Method derive(ExecutableElement method, Set<String> constants) {
+        Types types = processingEnv.getTypeUtils();
+        TypeMirror returnType = method.getReturnType();
+        String helperMethod;
+        TypeMirror entityType;
+        if (isList(returnType)) {
+            helperMethod = "findMany";
+            List<? extends TypeMirror> arguments = ((DeclaredType) returnType).getTypeArguments();
+            entityType = arguments.isEmpty() ? null : arguments.get(0);
+        } else if (declaresNotFound(method)) {
+            helperMethod = "findOne";
+            entityType = returnType;
+        } else {
+            helperMethod = "findOneOrNull";
+            entityType = returnType;
+        }
+        TypeElement entity = entityType == null || entityType.getKind() != TypeKind.DECLARED ? null : (TypeElement) types.asElement(entityType);
+        if (entity == null || annotation(entity, ENTITY) == null) {
+            error(method, "should return entity or List of entities");
+            return null;
+        }
+        Map<String, TypeMirror> properties = propertiesOf(entity);
+        DerivedQuery query;
+        try {
+            query = DerivedQuery.parse(method.getSimpleName().toString(), properties.keySet());
+        } catch (IllegalArgumentException e) {
+            error(method, e.getMessage());
+            return null;
+        }
+        List<? extends VariableElement> parameters = method.getParameters();
+        if (parameters.size() != query.getParameterCount()) {
+            error(method, "expects " + query.getParameterCount() + " parameters, has " + parameters.size());
+            return null;
+        }
+        int index = 0;
+        for (DerivedQuery.Condition condition : query.getConditions()) {
+            if (condition.getOperator().hasParameter()) {
+                VariableElement parameter = parameters.get(index++);
+                String mismatch = mismatch(condition, properties.get(condition.getProperty()), parameter.asType());
+                if (mismatch != null) {
+                    error(parameter, mismatch);
+                    return null;
+                }
+            }
+        }
+        return new Method(method, helperMethod, entity, query.toJpql(entityName(entity)), constantName(method, constants));
+    }
+    
+    private String mismatch(DerivedQuery.Condition condition, TypeMirror propertyType, TypeMirror parameterType) {
+        Types types = processingEnv.getTypeUtils();
+        if (condition.getOperator().isCollection()) {
+            TypeMirror collection = types.erasure(processingEnv.getElementUtils().getTypeElement("java.util.Collection").asType());
+            return types.isAssignable(types.erasure(parameterType), collection) ? null
+                    : "should be Collection of " + condition.getProperty() + " values";
+        }
+        if (condition.getOperator().isText()) {
+            TypeMirror string = processingEnv.getElementUtils().getTypeElement("java.lang.String").asType();
+            return types.isSameType(parameterType, string) ? null : "should be String pattern";
+        }
+        TypeMirror expected = types.erasure(boxed(propertyType));
+        return types.isAssignable(types.erasure(boxed(parameterType)), expected) ? null
+                : "should be " + propertyType + " like property " + condition.getProperty();
+    }
+    
+    private void write(TypeElement repository, List<Method> methods) {
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(repository);
+        String packageName = packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+        String simpleName = repository.getQualifiedName().toString().substring(packageName.isEmpty() ? 0 : packageName.length() + 1)
+                .replace('.', '_') + IMPLEMENTATION_SUFFIX;
+        String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+        try {
+            PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(qualifiedName, repository).openWriter());
+            try {
+                if (!packageName.isEmpty()) {
+                    out.println("package " + packageName + ";");
+                    out.println();
+                }
+                out.println("@javax.annotation.Generated(\"" + RepositoryProcessor.class.getName() + "\")");
+                out.println("@javax.ejb.Stateless");
+                out.println("@persistence.Repository");
+                out.println("public class " + simpleName + " implements " + repository.getQualifiedName() + " {");
+                out.println();
+                for (Method method : methods) {
+                    out.println("    static final String " + method.constant + " = \"" + method.jpql + "\";");
+                }
+                out.println();
+                out.println("    @javax.persistence.PersistenceContext");
+                out.println("    private javax.persistence.EntityManager entityManager;");
+                out.println();
+                out.println("    @javax.annotation.PostConstruct");
+                out.println("    void prepareQueries() {");
+                for (Method method : methods) {
+                    out.println("        persistence.QueryDefinitionCache.getShared().createQuery(entityManager, " + method.constant + ", "
+                            + method.entity.getQualifiedName() + ".class);");
+                }
+                out.println("    }");
+                for (Method method : methods) {
+                    writeMethod(out, method);
+                }
+                out.println("}");
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            error(repository, "can't generate " + qualifiedName + ": " + e.getMessage());
+        }
+    }
+    
+    private void writeMethod(PrintWriter out, Method method) {
+        ExecutableElement element = method.element;
+        StringBuilder parameters = new StringBuilder();
+        StringBuilder arguments = new StringBuilder();
+        for (VariableElement parameter : element.getParameters()) {
+            if (parameters.length() > 0) {
+                parameters.append(", ");
+                arguments.append(", ");
+            }
+            parameters.append("final ").append(parameter.asType()).append(" ").append(parameter.getSimpleName());
+            arguments.append(parameter.getSimpleName());
+        }
+        StringBuilder throwsClause = new StringBuilder();
+        for (TypeMirror thrown : element.getThrownTypes()) {
+            throwsClause.append(throwsClause.length() == 0 ? " throws " : ", ").append(thrown);
+        }
+        out.println();
+        out.println("    @Override");
+        out.println("    public " + element.getReturnType() + " " + element.getSimpleName() + "(" + parameters + ")" + throwsClause + " {");
+        out.println("        return persistence.EntityManagerHelper." + method.helperMethod + "(entityManager, "
+                + method.entity.getQualifiedName() + ".class, " + method.constant + ", "
+                + (arguments.length() == 0 ? "persistence.QueryParamBuilder.withoutParams()"
+                        : "persistence.QueryParamBuilder.withPositionalParams(" + arguments + ")") + ");");
+        out.println("    }");
+    }
+    
+    private List<ExecutableElement> methodsOf(TypeElement repository) {
+        List<ExecutableElement> methods = new ArrayList<ExecutableElement>();
+        for (ExecutableElement method : ElementFilter.methodsIn(repository.getEnclosedElements())) {
+            if (method.getModifiers().contains(Modifier.ABSTRACT)) {
+                methods.add(method);
+            }
+        }
+        for (TypeMirror superinterface : repository.getInterfaces()) {
+            methods.addAll(methodsOf((TypeElement) processingEnv.getTypeUtils().asElement(superinterface)));
+        }
+        return methods;
+    }
+    
+    /**
+     * Persistent fields and getter properties of entity and its mapped
+     * superclasses.
+     */
+    private Map<String, TypeMirror> propertiesOf(TypeElement entity) {
+        Map<String, TypeMirror> properties = new LinkedHashMap<String, TypeMirror>();
+        TypeElement type = entity;
+        while (type != null && (annotation(type, ENTITY) != null || annotation(type, MAPPED_SUPERCLASS) != null)) {
+            for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+                if (!field.getModifiers().contains(Modifier.STATIC) && !field.getModifiers().contains(Modifier.TRANSIENT)
+                        && annotation(field, TRANSIENT) == null && !properties.containsKey(field.getSimpleName().toString())) {
+                    properties.put(field.getSimpleName().toString(), field.asType());
+                }
+            }
+            for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+                String name = method.getSimpleName().toString();
+                if (!method.getParameters().isEmpty() || method.getModifiers().contains(Modifier.STATIC) || annotation(method, TRANSIENT) != null) {
+                    continue;
+                }
+                String property = null;
+                if (name.startsWith("get") && name.length() > 3) {
+                    property = DerivedQuery.propertyName(name.substring(3));
+                } else if (name.startsWith("is") && name.length() > 2 && method.getReturnType().getKind() == TypeKind.BOOLEAN) {
+                    property = DerivedQuery.propertyName(name.substring(2));
+                }
+                if (property != null && !properties.containsKey(property)) {
+                    properties.put(property, method.getReturnType());
+                }
+            }
+            TypeMirror superclass = type.getSuperclass();
+            type = superclass.getKind() == TypeKind.DECLARED ? (TypeElement) processingEnv.getTypeUtils().asElement(superclass) : null;
+        }
+        return properties;
+    }
+    
+    private String entityName(TypeElement entity) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : annotation(entity, ENTITY).getElementValues().entrySet()) {
+            if (value.getKey().getSimpleName().contentEquals("name") && !value.getValue().getValue().toString().isEmpty()) {
+                return value.getValue().getValue().toString();
+            }
+        }
+        return entity.getSimpleName().toString();
+    }
+    
+    private static String constantName(ExecutableElement method, Set<String> constants) {
+        StringBuilder name = new StringBuilder();
+        for (char c : method.getSimpleName().toString().toCharArray()) {
+            if (Character.isUpperCase(c)) {
+                name.append('_');
+            }
+            name.append(Character.toUpperCase(c));
+        }
+        String constant = name.toString();
+        for (int i = 2; !constants.add(constant); i++) {
+            constant = name.toString() + "_" + i;
+        }
+        return constant;
+    }
+    
+    private boolean isList(TypeMirror type) {
+        Types types = processingEnv.getTypeUtils();
+        TypeMirror list = types.erasure(processingEnv.getElementUtils().getTypeElement("java.util.List").asType());
+        return type.getKind() == TypeKind.DECLARED && types.isSameType(types.erasure(type), list);
+    }
+    
+    private boolean declaresNotFound(ExecutableElement method) {
+        for (TypeMirror thrown : method.getThrownTypes()) {
+            if (thrown.toString().equals(NotFoundException.class.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private TypeMirror boxed(TypeMirror type) {
+        return type.getKind().isPrimitive() ? processingEnv.getTypeUtils().boxedClass((PrimitiveType) type).asType() : type;
+    }
+    
+    private static AnnotationMirror annotation(Element element, String annotationName) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotationName)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+    
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+    
+    private static class Method {
+        
+        private final ExecutableElement element;
+        private final String helperMethod;
+        private final TypeElement entity;
+        private final String jpql;
+        private final String constant;
+        
+        Method(ExecutableElement element, String helperMethod, TypeElement entity, String jpql, String constant) {
+            this.element = element;
+            this.helperMethod = helperMethod;
+            this.entity = entity;
+            this.jpql = jpql;
+            this.constant = constant;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package persistence;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.persistence.EntityManager;
+
+import org.eclipse.persistence.queries.ScrollableCursor;
+
+/**
+ * Iterator over query results backed by server side cursor.
+ * <p>
+ * Rows are fetched from database in portions of JDBC fetch size while
+ * iterating, so whole result is never materialized in memory. Iterator must be
+ * closed to release cursor and its connection:
+ * 
+ * <pre>
+ * ResultIterator&lt;PersonEntity&gt; persons = EntityManagerHelper.iterateMany(entityManager,
+ *         PersonEntity.class, &quot;SELECT p FROM PersonEntity p&quot;, withoutParams(), 500).detaching();
+ * try {
+ *     while (persons.hasNext()) {
+ *         report.add(persons.next());
+ *     }
+ * } finally {
+ *     persons.close();
+ * }
+ * </pre>
+ * 
+ * When provider does not support cursors whole result list is loaded and
+ * iterated, which is logged as warning.
+ * 
+ * @see EntityManagerHelper#iterateMany(EntityManager, Class, String, QueryParamBuilder, int)
+ */
+public class ResultIterator<Type> implements Iterator<Type>, Closeable {
+    
+    private final EntityManager entityManager;
+    private final Iterator<Type> cursor;
+    private final long start;
+    private final String query;
+    private final QueryParamBuilder params;
+    private int rows;
+    private boolean detaching;
+    private Type previous;
+    private Class<?> checkedClass;
+    private boolean checkedEntity;
+    private boolean closed;
+    
+    ResultIterator(EntityManager entityManager, Iterator<Type> cursor, long start, String query, QueryParamBuilder params) {
+        this.entityManager = entityManager;
+        this.cursor = cursor;
+        this.start = start;
+        this.query = query;
+        this.params = params;
+    }
+    
+    /**
+     * Detaches each returned entity from persistence context when next one is
+     * requested, so persistence context does not grow while iterating.
+     * Only entities are detached, scalar rows are left as they are and entities
+     * of <code>Object[]</code> rows are detached one by one.
+     */
+    public ResultIterator<Type> detaching() {
+        this.detaching = true;
+        return this;
+    }
+    
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        boolean hasNext;
+        try {
+            hasNext = cursor.hasNext();
+        } catch (RuntimeException e) {
+            fail();
+            throw e;
+        }
+        if (!hasNext) {
+            close();
+        }
+        return hasNext;
+    }
+    
+    @Override
+    public Type next() {
+        if (closed) {
+            throw new NoSuchElementException();
+        }
+        detachPrevious();
+        try {
+            previous = cursor.next();
+        } catch (RuntimeException e) {
+            fail();
+            throw e;
+        }
+        rows++;
+        return previous;
+    }
+    
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+    
+    /**
+     * Releases cursor and records call with rows read so far in
+     * {@link QueryStatistics}, may be called many times.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        QueryStatistics.record(start, query, params, rows);
+        detachPrevious();
+        if (cursor instanceof ScrollableCursor) {
+            ((ScrollableCursor) cursor).close();
+        }
+    }
+    
+    /**
+     * Records failed call and releases cursor, failure of release is
+     * suppressed by original failure.
+     */
+    private void fail() {
+        closed = true;
+        QueryStatistics.recordFailure(start, query, params);
+        previous = null;
+        if (cursor instanceof ScrollableCursor) {
+            try {
+                ((ScrollableCursor) cursor).close();
+            } catch (RuntimeException e) {
+                // original failure is thrown
+            }
+        }
+    }
+    
+    private void detachPrevious() {
+        if (detaching && previous != null) {
+            if (previous instanceof Object[]) {
+                for (Object column : (Object[]) previous) {
+                    detach(column);
+                }
+            } else {
+                detach(previous);
+            }
+        }
+        previous = null;
+    }
+    
+    private void detach(Object row) {
+        if (row == null) {
+            return;
+        }
+        if (row.getClass() != checkedClass) {
+            checkedClass = row.getClass();
+            checkedEntity = EntityManagerHelper.isEntity(entityManager, checkedClass);
+        }
+        if (checkedEntity) {
+            entityManager.detach(row);
+        }
+    }
+}
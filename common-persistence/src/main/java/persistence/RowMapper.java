@@ -0,0 +1,17 @@
+package persistence;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps current row of native query result.
+ * 
+ * @see EntityManagerHelper#findManyNative(javax.persistence.EntityManager, RowMapper, String, QueryParamBuilder)
+ */
+public interface RowMapper<Type> {
+    
+    /**
+     * Reads current row, must not move cursor.
+     */
+    Type mapRow(ResultSet resultSet) throws SQLException;
+}
@@ -0,0 +1,27 @@
+package persistence;
+
+import org.eclipse.persistence.queries.DatabaseQuery;
+import org.eclipse.persistence.sessions.SessionEvent;
+import org.eclipse.persistence.sessions.SessionEventAdapter;
+
+/**
+ * EclipseLink session listener counting SQL statements for
+ * {@link LazyLoadMonitor}. Statement executed for query with source mapping
+ * is load of lazy relationship.
+ * <p>
+ * Listener is registered in <code>persistence.xml</code>:
+ * 
+ * <pre>
+ * &lt;property name=&quot;eclipselink.session-event-listener&quot; value=&quot;persistence.StatementCounter&quot;/&gt;
+ * </pre>
+ */
+public class StatementCounter extends SessionEventAdapter {
+    
+    @Override
+    public void postExecuteCall(SessionEvent event) {
+        if (LazyLoadMonitor.isActive()) {
+            DatabaseQuery query = event.getQuery();
+            LazyLoadMonitor.statementExecuted(query != null && query.getSourceMapping() != null);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package persistence;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+
+import org.junit.Test;
+
+import persistence.ColumnarResult.ColumnType;
+
+public class ColumnarResultTest {
+    
+    private static final ColumnType[] TYPES = { ColumnType.LONG, ColumnType.INT, ColumnType.DOUBLE };
+    private static final int ROWS = 3 * ColumnarResult.INITIAL_CAPACITY + 1;
+    
+    @Test
+    public void shouldGrowHeapColumns() throws Exception {
+        ColumnarResult result = new ColumnarResult(TYPES, false);
+        result.readAll(resultSet(ROWS));
+        assertThat(result.size()).isEqualTo(ROWS);
+        assertThat(result.getLongs(0)).hasSize(ROWS);
+        assertThat(result.getLong(0, ROWS - 1)).isEqualTo(10L * (ROWS - 1));
+        assertThat(result.getInt(1, ROWS - 1)).isEqualTo(ROWS - 1);
+        assertThat(result.getDouble(2, ROWS - 1)).isEqualTo((ROWS - 1) / 2.0);
+    }
+    
+    @Test
+    public void shouldGrowOffHeapColumns() throws Exception {
+        ColumnarResult result = new ColumnarResult(TYPES, true);
+        result.readAll(resultSet(ROWS));
+        assertThat(result.size()).isEqualTo(ROWS);
+        assertThat(result.getLongBuffer(0).remaining()).isEqualTo(ROWS);
+        assertThat(result.getLong(0, 0)).isEqualTo(0L);
+        assertThat(result.getLong(0, ROWS - 1)).isEqualTo(10L * (ROWS - 1));
+        assertThat(result.getIntBuffer(1).get(ROWS - 1)).isEqualTo(ROWS - 1);
+        assertThat(result.getDouble(2, ROWS - 1)).isEqualTo((ROWS - 1) / 2.0);
+    }
+    
+    @Test
+    public void shouldDoubleCapacityUpToMaximum() {
+        assertThat(ColumnarResult.grownCapacity(1024, ColumnarResult.MAXIMUM_CAPACITY)).isEqualTo(2048);
+        assertThat(ColumnarResult.grownCapacity(0, ColumnarResult.MAXIMUM_CAPACITY)).isEqualTo(1);
+        assertThat(ColumnarResult.grownCapacity(1 << 30, ColumnarResult.MAXIMUM_CAPACITY)).isEqualTo(ColumnarResult.MAXIMUM_CAPACITY);
+        assertThat(ColumnarResult.grownCapacity(ColumnarResult.MAXIMUM_CAPACITY - 1, ColumnarResult.MAXIMUM_CAPACITY)).isEqualTo(
+                ColumnarResult.MAXIMUM_CAPACITY);
+    }
+    
+    @Test
+    public void shouldRejectGrowthBeyondMaximum() {
+        try {
+            ColumnarResult.grownCapacity(ColumnarResult.MAXIMUM_CAPACITY, ColumnarResult.MAXIMUM_CAPACITY);
+            fail("maximum capacity exceeded");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).contains(String.valueOf(ColumnarResult.MAXIMUM_CAPACITY));
+        }
+    }
+    
+    @Test
+    public void shouldLimitOffHeapCapacityByWidestColumn() {
+        assertThat(ColumnarResult.maximumCapacity(TYPES, false)).isEqualTo(ColumnarResult.MAXIMUM_CAPACITY);
+        assertThat(ColumnarResult.maximumCapacity(TYPES, true)).isEqualTo(Integer.MAX_VALUE / 8);
+        assertThat(ColumnarResult.maximumCapacity(new ColumnType[] { ColumnType.INT }, true)).isEqualTo(Integer.MAX_VALUE / 4);
+    }
+    
+    /**
+     * Result set of given rows with values <code>10 * row</code>,
+     * <code>row</code> and <code>row / 2.0</code>.
+     */
+    private static ResultSet resultSet(final int rows) {
+        final ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(ColumnarResultTest.class.getClassLoader(),
+                new Class<?>[] { ResultSetMetaData.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getColumnCount")) {
+                            return TYPES.length;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        return (ResultSet) Proxy.newProxyInstance(ColumnarResultTest.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                new InvocationHandler() {
+                    
+                    private int row = -1;
+                    
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if (name.equals("getMetaData")) {
+                            return metaData;
+                        } else if (name.equals("next")) {
+                            return ++row < rows;
+                        } else if (name.equals("getLong")) {
+                            return 10L * row;
+                        } else if (name.equals("getInt")) {
+                            return row;
+                        } else if (name.equals("getDouble")) {
+                            return row / 2.0;
+                        }
+                        throw new UnsupportedOperationException(name);
+                    }
+                });
+    }
+}
@@ -0,0 +1,93 @@
+package persistence;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class DerivedQueryTest {
+    
+    private static final Set<String> PROPERTIES = new HashSet<String>(Arrays.asList("number", "status", "amount", "customer", "URL"));
+    
+    @Test
+    public void shouldDeriveEqualityConditions() {
+        DerivedQuery query = DerivedQuery.parse("findByStatusAndAmount", PROPERTIES);
+        assertThat(query.toJpql("Invoice")).isEqualTo("SELECT e FROM Invoice e WHERE e.status = ?1 AND e.amount = ?2");
+        assertThat(query.getParameterCount()).isEqualTo(2);
+    }
+    
+    @Test
+    public void shouldDeriveOperators() {
+        DerivedQuery query = DerivedQuery.parse("findByAmountGreaterThanEqualOrNumberNotLikeOrStatusNotIn", PROPERTIES);
+        assertThat(query.toJpql("Invoice")).isEqualTo(
+                "SELECT e FROM Invoice e WHERE e.amount >= ?1 OR e.number NOT LIKE ?2 OR e.status NOT IN ?3");
+        assertThat(query.getConditions().get(2).getOperator()).isEqualTo(DerivedQuery.Operator.NOT_IN);
+    }
+    
+    @Test
+    public void shouldNotCountParametersOfNullChecks() {
+        DerivedQuery query = DerivedQuery.parse("findByCustomerIsNullAndStatusNot", PROPERTIES);
+        assertThat(query.toJpql("Invoice")).isEqualTo("SELECT e FROM Invoice e WHERE e.customer IS NULL AND e.status <> ?1");
+        assertThat(query.getParameterCount()).isEqualTo(1);
+    }
+    
+    @Test
+    public void shouldDeriveOrdering() {
+        DerivedQuery query = DerivedQuery.parse("findByStatusOrderByAmountDescNumberAsc", PROPERTIES);
+        assertThat(query.toJpql("Invoice")).isEqualTo(
+                "SELECT e FROM Invoice e WHERE e.status = ?1 ORDER BY e.amount DESC, e.number");
+    }
+    
+    @Test
+    public void shouldDeriveFindAll() {
+        assertThat(DerivedQuery.parse("findAll", PROPERTIES).toJpql("Invoice")).isEqualTo("SELECT e FROM Invoice e");
+        assertThat(DerivedQuery.parse("findAllOrderByNumber", PROPERTIES).toJpql("Invoice")).isEqualTo(
+                "SELECT e FROM Invoice e ORDER BY e.number");
+    }
+    
+    @Test
+    public void shouldStripOperatorSuffixFromPropertyName() {
+        Set<String> properties = new HashSet<String>(Arrays.asList("plugIn", "plug"));
+        assertThat(DerivedQuery.parse("findByPlugIn", properties).toJpql("Socket")).isEqualTo(
+                "SELECT e FROM Socket e WHERE e.plug IN ?1");
+        assertThat(DerivedQuery.parse("findByPlugInIn", properties).toJpql("Socket")).isEqualTo(
+                "SELECT e FROM Socket e WHERE e.plugIn IN ?1");
+    }
+    
+    @Test
+    public void shouldKeepAcronymProperties() {
+        assertThat(DerivedQuery.propertyName("URL")).isEqualTo("URL");
+        assertThat(DerivedQuery.propertyName("Number")).isEqualTo("number");
+        assertThat(DerivedQuery.parse("findByURL", PROPERTIES).toJpql("Link")).isEqualTo("SELECT e FROM Link e WHERE e.URL = ?1");
+    }
+    
+    @Test
+    public void shouldRejectUnknownProperty() {
+        assertRejected("findByColor", "method findByColor refers to unknown property color");
+    }
+    
+    @Test
+    public void shouldRejectUnknownOrderingProperty() {
+        assertRejected("findByStatusOrderByColorDesc", "method findByStatusOrderByColorDesc orders by unknown property color");
+    }
+    
+    @Test
+    public void shouldRejectOtherMethodNames() {
+        assertRejected("loadByStatus", "method name loadByStatus should start with findBy or findAll");
+        assertRejected("findBy", "method name findBy should start with findBy or findAll");
+        assertRejected("findAllByStatus", "method name findAllByStatus should be findAll or findAllOrderBy...");
+    }
+    
+    private static void assertRejected(String methodName, String message) {
+        try {
+            DerivedQuery.parse(methodName, PROPERTIES);
+            fail("exception expected for " + methodName);
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).isEqualTo(message);
+        }
+    }
+}
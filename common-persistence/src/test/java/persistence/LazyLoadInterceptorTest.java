@@ -0,0 +1,190 @@
+package persistence;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import javax.interceptor.InvocationContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LazyLoadInterceptorTest {
+    
+    private final LazyLoadInterceptor interceptor = new RepositoryLazyLoadInterceptor();
+    
+    @Before
+    public void setUp() {
+        LazyLoadMonitor.setStrictInCurrentThread(true);
+    }
+    
+    @After
+    public void tearDown() {
+        LazyLoadMonitor.setStrictInCurrentThread(null);
+    }
+    
+    @Test
+    public void shouldEndMonitoringAfterInvocation() throws Exception {
+        Object result = interceptor.monitor(invocation(new Callable<Object>() {
+            @Override
+            public Object call() {
+                assertThat(LazyLoadMonitor.isMonitoring()).isTrue();
+                return "result";
+            }
+        }));
+        assertThat(result).isEqualTo("result");
+        assertThat(LazyLoadMonitor.isMonitoring()).isFalse();
+    }
+    
+    @Test
+    public void shouldEndMonitoringWhenInvocationThrowsError() throws Exception {
+        try {
+            interceptor.monitor(invocation(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    throw new AssertionError("failed");
+                }
+            }));
+            fail("error expected");
+        } catch (AssertionError e) {
+            assertThat(e.getMessage()).isEqualTo("failed");
+        }
+        assertThat(LazyLoadMonitor.isMonitoring()).isFalse();
+        assertThat(LazyLoadMonitor.begin("next")).isTrue();
+        LazyLoadMonitor.discard();
+    }
+    
+    @Test
+    public void shouldEndMonitoringWhenInvocationThrowsException() throws Exception {
+        try {
+            interceptor.monitor(invocation(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    lazyLoads(LazyLoadMonitor.DEFAULT_MINIMUM_LAZY_LOADS);
+                    throw new Exception("failed");
+                }
+            }));
+            fail("exception expected");
+        } catch (Exception e) {
+            assertThat(e.getMessage()).isEqualTo("failed");
+        }
+        assertThat(LazyLoadMonitor.isMonitoring()).isFalse();
+    }
+    
+    @Test
+    public void shouldCountNestedInvocationsIntoOutermost() throws Exception {
+        final LazyLoadInterceptor nested = new DataAccessObjectLazyLoadInterceptor();
+        try {
+            interceptor.monitor(invocation(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    LazyLoadMonitor.rowsRead(1);
+                    for (int i = 0; i < LazyLoadMonitor.DEFAULT_MINIMUM_LAZY_LOADS; i++) {
+                        nested.monitor(invocation(new Callable<Object>() {
+                            @Override
+                            public Object call() {
+                                lazyLoads(1);
+                                return null;
+                            }
+                        }));
+                    }
+                    return null;
+                }
+            }));
+            fail("N+1 expected");
+        } catch (NPlusOneQueryException e) {
+            assertThat(e.getMessage()).contains("lazyLoads=" + LazyLoadMonitor.DEFAULT_MINIMUM_LAZY_LOADS);
+        }
+        assertThat(LazyLoadMonitor.isMonitoring()).isFalse();
+    }
+    
+    @Test
+    public void shouldNotSuspectLazyLoadsBelowMinimum() throws Exception {
+        interceptor.monitor(invocation(new Callable<Object>() {
+            @Override
+            public Object call() {
+                lazyLoads(LazyLoadMonitor.DEFAULT_MINIMUM_LAZY_LOADS - 1);
+                return null;
+            }
+        }));
+        assertThat(LazyLoadMonitor.isMonitoring()).isFalse();
+    }
+    
+    @Test
+    public void shouldNotSuspectLazyLoadsWithoutKnownRows() throws Exception {
+        interceptor.monitor(invocation(new Callable<Object>() {
+            @Override
+            public Object call() {
+                lazyLoads(LazyLoadMonitor.DEFAULT_MINIMUM_LAZY_LOADS);
+                return null;
+            }
+        }));
+        assertThat(LazyLoadMonitor.isMonitoring()).isFalse();
+    }
+    
+    @Test
+    public void shouldNotSuspectLazyLoadsNotGrowingWithRows() throws Exception {
+        interceptor.monitor(invocation(new Callable<Object>() {
+            @Override
+            public Object call() {
+                LazyLoadMonitor.rowsRead(10 * LazyLoadMonitor.DEFAULT_MINIMUM_LAZY_LOADS);
+                lazyLoads(LazyLoadMonitor.DEFAULT_MINIMUM_LAZY_LOADS);
+                return null;
+            }
+        }));
+        assertThat(LazyLoadMonitor.isMonitoring()).isFalse();
+    }
+    
+    private static void lazyLoads(int count) {
+        for (int i = 0; i < count; i++) {
+            LazyLoadMonitor.statementExecuted(true);
+        }
+    }
+    
+    private static InvocationContext invocation(final Callable<Object> body) throws NoSuchMethodException {
+        final Method method = Callable.class.getMethod("call");
+        return new InvocationContext() {
+            
+            private final Map<String, Object> contextData = new HashMap<String, Object>();
+            
+            @Override
+            public Object getTarget() {
+                return body;
+            }
+            
+            @Override
+            public Method getMethod() {
+                return method;
+            }
+            
+            @Override
+            public Object[] getParameters() {
+                return new Object[0];
+            }
+            
+            @Override
+            public void setParameters(Object[] parameters) {
+            }
+            
+            @Override
+            public Map<String, Object> getContextData() {
+                return contextData;
+            }
+            
+            @Override
+            public Object getTimer() {
+                return null;
+            }
+            
+            @Override
+            public Object proceed() throws Exception {
+                return body.call();
+            }
+        };
+    }
+}
@@ -0,0 +1,189 @@
+package persistence;
+
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.FlushModeType;
+import javax.persistence.LockModeType;
+import javax.persistence.Parameter;
+import javax.persistence.Query;
+import javax.persistence.TemporalType;
+
+/**
+ * Query counting bound parameters without keeping them, so binding to it
+ * allocates nothing.
+ */
+class NoOpQuery implements Query {
+    
+    int namedParameters;
+    int positionalParameters;
+    Object lastValue;
+    
+    @Override
+    public Query setParameter(String name, Object value) {
+        namedParameters++;
+        lastValue = value;
+        return this;
+    }
+    
+    @Override
+    public Query setParameter(int position, Object value) {
+        positionalParameters++;
+        lastValue = value;
+        return this;
+    }
+    
+    @Override
+    public List<?> getResultList() {
+        return Collections.emptyList();
+    }
+    
+    @Override
+    public Object getSingleResult() {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public int executeUpdate() {
+        return 0;
+    }
+    
+    @Override
+    public Query setMaxResults(int maxResult) {
+        return this;
+    }
+    
+    @Override
+    public int getMaxResults() {
+        return Integer.MAX_VALUE;
+    }
+    
+    @Override
+    public Query setFirstResult(int startPosition) {
+        return this;
+    }
+    
+    @Override
+    public int getFirstResult() {
+        return 0;
+    }
+    
+    @Override
+    public Query setHint(String hintName, Object value) {
+        return this;
+    }
+    
+    @Override
+    public Map<String, Object> getHints() {
+        return Collections.emptyMap();
+    }
+    
+    @Override
+    public <T> Query setParameter(Parameter<T> param, T value) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public Query setParameter(Parameter<Calendar> param, Calendar value, TemporalType temporalType) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public Query setParameter(Parameter<Date> param, Date value, TemporalType temporalType) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public Query setParameter(String name, Calendar value, TemporalType temporalType) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public Query setParameter(String name, Date value, TemporalType temporalType) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public Query setParameter(int position, Calendar value, TemporalType temporalType) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public Query setParameter(int position, Date value, TemporalType temporalType) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public Set<Parameter<?>> getParameters() {
+        return Collections.emptySet();
+    }
+    
+    @Override
+    public Parameter<?> getParameter(String name) {
+        throw new IllegalArgumentException(name);
+    }
+    
+    @Override
+    public <T> Parameter<T> getParameter(String name, Class<T> type) {
+        throw new IllegalArgumentException(name);
+    }
+    
+    @Override
+    public Parameter<?> getParameter(int position) {
+        throw new IllegalArgumentException(String.valueOf(position));
+    }
+    
+    @Override
+    public <T> Parameter<T> getParameter(int position, Class<T> type) {
+        throw new IllegalArgumentException(String.valueOf(position));
+    }
+    
+    @Override
+    public boolean isBound(Parameter<?> param) {
+        return false;
+    }
+    
+    @Override
+    public <T> T getParameterValue(Parameter<T> param) {
+        throw new IllegalStateException();
+    }
+    
+    @Override
+    public Object getParameterValue(String name) {
+        throw new IllegalStateException();
+    }
+    
+    @Override
+    public Object getParameterValue(int position) {
+        throw new IllegalStateException();
+    }
+    
+    @Override
+    public Query setFlushMode(FlushModeType flushMode) {
+        return this;
+    }
+    
+    @Override
+    public FlushModeType getFlushMode() {
+        return FlushModeType.AUTO;
+    }
+    
+    @Override
+    public Query setLockMode(LockModeType lockMode) {
+        return this;
+    }
+    
+    @Override
+    public LockModeType getLockMode() {
+        return LockModeType.NONE;
+    }
+    
+    @Override
+    public <T> T unwrap(Class<T> cls) {
+        throw new UnsupportedOperationException();
+    }
+}
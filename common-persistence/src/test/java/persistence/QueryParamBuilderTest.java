@@ -0,0 +1,98 @@
+package persistence;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static persistence.QueryParamBuilder.withParam;
+import static persistence.QueryParamBuilder.withParams;
+import static persistence.QueryParamBuilder.withPositionalParams;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+public class QueryParamBuilderTest {
+    
+    private static final int WARM_UP_BINDS = 20000;
+    private static final int MEASURED_BINDS = 100000;
+    
+    @Test
+    public void shouldBindNamedParams() {
+        NoOpQuery query = new NoOpQuery();
+        withParam("name", "Smith").param("city", "Wroclaw").bind(query);
+        assertThat(query.namedParameters).isEqualTo(2);
+        assertThat(query.positionalParameters).isEqualTo(0);
+        assertThat(query.lastValue).isEqualTo("Wroclaw");
+    }
+    
+    @Test
+    public void shouldBindPositionalParams() {
+        NoOpQuery query = new NoOpQuery();
+        withPositionalParams("Smith", "Wroclaw", 42).bind(query);
+        assertThat(query.positionalParameters).isEqualTo(3);
+        assertThat(query.lastValue).isEqualTo(42);
+    }
+    
+    @Test
+    public void shouldReplaceValueOfRepeatedParam() {
+        QueryParamBuilder params = withParam("name", "Smith").param("name", "Kowalski");
+        assertThat(params.size()).isEqualTo(1);
+        assertThat(params.toMap().get("name")).isEqualTo("Kowalski");
+    }
+    
+    @Test
+    public void shouldGrowBeyondInitialCapacity() {
+        QueryParamBuilder params = withParams(1);
+        for (int i = 0; i < 10; i++) {
+            params.param("p" + i, i);
+        }
+        assertThat(params.size()).isEqualTo(10);
+    }
+    
+    @Test(expected = UnsupportedOperationException.class)
+    public void shouldRejectChangeOfPreparedParams() {
+        withParam("name", "Smith").prepared().param("city", "Wroclaw");
+    }
+    
+    @Test
+    public void shouldNotChangePreparedCopyWhenBuilderChanges() {
+        QueryParamBuilder params = withParam("name", "Smith");
+        QueryParamBuilder prepared = params.prepared();
+        params.param("name", "Kowalski");
+        assertThat(prepared.toMap().get("name")).isEqualTo("Smith");
+        assertThat(prepared.prepared()).isSameAs(prepared);
+    }
+    
+    @Test
+    public void shouldCompareParamsRegardlessOfOrder() {
+        QueryParamBuilder first = withParam("name", "Smith").param("city", "Wroclaw");
+        QueryParamBuilder second = withParam("city", "Wroclaw").param("name", "Smith");
+        assertThat(first.toMap()).isEqualTo(second.toMap());
+        assertThat(QueryParamBuilder.toMap(null)).isEqualTo(QueryParamBuilder.withoutParams().toMap());
+    }
+    
+    /**
+     * Measures heap allocated by binding prepared params, on JVMs reporting
+     * allocated bytes per thread.
+     */
+    @Test
+    public void shouldBindWithoutAllocation() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+        QueryParamBuilder params = withParam("name", "Smith").param("city", "Wroclaw").position(3, Integer.valueOf(42)).prepared();
+        NoOpQuery query = new NoOpQuery();
+        for (int i = 0; i < WARM_UP_BINDS; i++) {
+            params.bind(query);
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_BINDS; i++) {
+            params.bind(query);
+        }
+        long allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+        assertThat(allocated).isLessThan(MEASURED_BINDS);
+        assertThat(query.namedParameters).isEqualTo(2 * (WARM_UP_BINDS + MEASURED_BINDS));
+    }
+}
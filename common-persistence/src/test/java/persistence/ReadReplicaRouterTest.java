@@ -0,0 +1,213 @@
+package persistence;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static persistence.QueryParamBuilder.withParam;
+import static persistence.QueryParamBuilder.withoutParams;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import testing.persistence.TestingPersistenceUnit;
+
+public class ReadReplicaRouterTest {
+    
+    private static final String BY_ID = "SELECT i FROM ReplicatedItemEntity i WHERE i.id = :id";
+    private static final String ALL = "SELECT i FROM ReplicatedItemEntity i ORDER BY i.id";
+    
+    @Rule
+    public TestingPersistenceUnit primaryUnit = new TestingPersistenceUnit("primary-test-db");
+    @Rule
+    public TestingPersistenceUnit replicaUnit = new TestingPersistenceUnit("replica-test-db");
+    
+    private EntityManager primary;
+    private EntityManager replica;
+    private ReadReplicaRouter router;
+    
+    @Before
+    public void setUp() {
+        primaryUnit.persist(new ReplicatedItemEntity(1L, "written to primary"));
+        replicaUnit.persist(new ReplicatedItemEntity(1L, "replicated"));
+        primary = primaryUnit.getEntityManager().getEntityManagerFactory().createEntityManager();
+        replica = replicaUnit.getEntityManager().getEntityManagerFactory().createEntityManager();
+        router = new ReadReplicaRouter(primary, replica);
+    }
+    
+    @After
+    public void tearDown() {
+        if (primary.getTransaction().isActive()) {
+            primary.getTransaction().rollback();
+        }
+        primary.close();
+        replica.close();
+    }
+    
+    @Test
+    public void shouldReadFromReplicaOutsideOfTransaction() throws Exception {
+        ReplicatedItemEntity item = router.findOne(ReplicatedItemEntity.class, BY_ID, withParam("id", 1L));
+        assertThat(item.getName()).isEqualTo("replicated");
+    }
+    
+    @Test
+    public void shouldReadFromReplicaUntilTransactionWrites() throws Exception {
+        router.begin();
+        assertThat(router.forRead()).isSameAs(replica);
+        assertThat(router.findOne(ReplicatedItemEntity.class, BY_ID, withParam("id", 1L)).getName()).isEqualTo("replicated");
+        router.commit();
+    }
+    
+    @Test
+    public void shouldReadOwnWritesFromPrimaryAfterWrite() {
+        router.begin();
+        router.forWrite().persist(new ReplicatedItemEntity(2L, "not yet replicated"));
+        ReplicatedItemEntity item = router.findOneOrNull(ReplicatedItemEntity.class, BY_ID, withParam("id", 2L));
+        assertThat(item).isNotNull();
+        assertThat(item.getName()).isEqualTo("not yet replicated");
+        router.commit();
+    }
+    
+    @Test
+    public void shouldReadFromReplicaAgainAfterCommit() {
+        router.begin();
+        router.forWrite().persist(new ReplicatedItemEntity(2L, "not yet replicated"));
+        router.commit();
+        router.begin();
+        List<ReplicatedItemEntity> items = router.findMany(ReplicatedItemEntity.class, ALL, withoutParams());
+        router.commit();
+        assertThat(items).hasSize(1);
+        assertThat(items.get(0).getName()).isEqualTo("replicated");
+    }
+    
+    @Test
+    public void shouldReadFromReplicaAgainAfterRollback() {
+        router.begin();
+        router.forWrite().persist(new ReplicatedItemEntity(2L, "rolled back"));
+        router.rollback();
+        router.begin();
+        assertThat(router.forRead()).isSameAs(replica);
+        router.commit();
+    }
+    
+    @Test
+    public void shouldReadFromReplicaWhenPrimaryTransactionEndedOutsideOfRouter() {
+        router.begin();
+        router.forWrite().persist(new ReplicatedItemEntity(2L, "not yet replicated"));
+        primary.getTransaction().commit();
+        assertThat(router.forRead()).isSameAs(replica);
+    }
+    
+    @Test
+    public void shouldOpenReplicaPerJtaTransactionAndCloseItAfterCompletion() throws Exception {
+        FakeTransactionRegistry registry = new FakeTransactionRegistry();
+        ReadReplicaRouter containerRouter = new ReadReplicaRouter(primary, replica.getEntityManagerFactory(), registry);
+        registry.begin();
+        EntityManager transactionReplica = containerRouter.forRead();
+        assertThat(transactionReplica).isNotSameAs(primary).isNotSameAs(replica);
+        assertThat(containerRouter.forRead()).isSameAs(transactionReplica);
+        assertThat(containerRouter.findOne(ReplicatedItemEntity.class, BY_ID, withParam("id", 1L)).getName()).isEqualTo("replicated");
+        assertThat(containerRouter.forWrite()).isSameAs(primary);
+        assertThat(containerRouter.forRead()).isSameAs(primary);
+        registry.complete(Status.STATUS_COMMITTED);
+        assertThat(transactionReplica.isOpen()).isFalse();
+        registry.begin();
+        assertThat(containerRouter.forRead()).isNotSameAs(primary).isNotSameAs(transactionReplica);
+        registry.complete(Status.STATUS_ROLLEDBACK);
+    }
+    
+    @Test
+    public void shouldShareWritesOfJtaTransactionBetweenRouters() throws Exception {
+        FakeTransactionRegistry registry = new FakeTransactionRegistry();
+        ReadReplicaRouter writingRouter = new ReadReplicaRouter(primary, replica.getEntityManagerFactory(), registry);
+        ReadReplicaRouter readingRouter = new ReadReplicaRouter(primary, replica.getEntityManagerFactory(), registry);
+        registry.begin();
+        EntityManager transactionReplica = readingRouter.forRead();
+        assertThat(writingRouter.forRead()).isSameAs(transactionReplica);
+        writingRouter.forWrite();
+        assertThat(readingRouter.forRead()).isSameAs(primary);
+        registry.complete(Status.STATUS_COMMITTED);
+        assertThat(transactionReplica.isOpen()).isFalse();
+        registry.begin();
+        assertThat(readingRouter.forRead()).isNotSameAs(primary);
+        registry.complete(Status.STATUS_ROLLEDBACK);
+    }
+    
+    @Test
+    public void shouldReadFromReplicaOutsideOfJtaTransaction() throws Exception {
+        ReadReplicaRouter containerRouter = new ReadReplicaRouter(primary, replica.getEntityManagerFactory(), new FakeTransactionRegistry());
+        ReplicatedItemEntity item = containerRouter.findOne(ReplicatedItemEntity.class, BY_ID, withParam("id", 1L));
+        assertThat(item.getName()).isEqualTo("replicated");
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotProvideReplicaEntityManagerOutsideOfJtaTransaction() {
+        new ReadReplicaRouter(primary, replica.getEntityManagerFactory(), new FakeTransactionRegistry()).forRead();
+    }
+    
+    /**
+     * Registry of single transaction at a time, completed by test.
+     */
+    private static class FakeTransactionRegistry implements TransactionSynchronizationRegistry {
+        
+        private Object transactionKey;
+        private final Map<Object, Object> resources = new HashMap<Object, Object>();
+        private final List<Synchronization> synchronizations = new ArrayList<Synchronization>();
+        
+        void begin() {
+            transactionKey = new Object();
+        }
+        
+        void complete(int status) {
+            for (Synchronization synchronization : synchronizations) {
+                synchronization.afterCompletion(status);
+            }
+            synchronizations.clear();
+            resources.clear();
+            transactionKey = null;
+        }
+        
+        @Override
+        public Object getTransactionKey() {
+            return transactionKey;
+        }
+        
+        @Override
+        public void putResource(Object key, Object value) {
+            resources.put(key, value);
+        }
+        
+        @Override
+        public Object getResource(Object key) {
+            return resources.get(key);
+        }
+        
+        @Override
+        public void registerInterposedSynchronization(Synchronization sync) {
+            synchronizations.add(sync);
+        }
+        
+        @Override
+        public int getTransactionStatus() {
+            return transactionKey == null ? Status.STATUS_NO_TRANSACTION : Status.STATUS_ACTIVE;
+        }
+        
+        @Override
+        public void setRollbackOnly() {
+        }
+        
+        @Override
+        public boolean getRollbackOnly() {
+            return false;
+        }
+    }
+}
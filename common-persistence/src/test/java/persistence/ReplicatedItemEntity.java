@@ -0,0 +1,30 @@
+package persistence;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+@Entity
+@Table(name = "REPLICATED_ITEM")
+public class ReplicatedItemEntity {
+    
+    @Id
+    private Long id;
+    private String name;
+    
+    protected ReplicatedItemEntity() {
+    }
+    
+    public ReplicatedItemEntity(Long id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+    
+    public Long getId() {
+        return id;
+    }
+    
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,181 @@
+package persistence;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Scanner;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compiles sample repositories with {@link RepositoryProcessor}, generated
+ * sources are compiled in the same run.
+ */
+public class RepositoryProcessorTest {
+    
+    private static final String INVOICE = "package sample;\n"
+            + "@javax.persistence.Entity\n"
+            + "public class Invoice {\n"
+            + "    @javax.persistence.Id private Long id;\n"
+            + "    private String number;\n"
+            + "    private String status;\n"
+            + "    private int amount;\n"
+            + "    @javax.persistence.Transient private String note;\n"
+            + "}\n";
+            
+    private final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+    private File output;
+    
+    @Before
+    public void setUp() throws IOException {
+        output = File.createTempFile("processor", "");
+        output.delete();
+        output.mkdir();
+    }
+    
+    @After
+    public void tearDown() {
+        delete(output);
+    }
+    
+    @Test
+    public void shouldGenerateImplementation() throws IOException {
+        boolean compiled = compile(repository(
+                "java.util.List<Invoice> findByStatusAndAmountGreaterThanOrderByNumberDesc(String status, int amount);",
+                "Invoice findByNumber(String number) throws persistence.NotFoundException;",
+                "Invoice findByNumberLike(String pattern);",
+                "java.util.List<Invoice> findByStatusIn(java.util.Collection<String> statuses);",
+                "java.util.List<Invoice> findAll();"));
+        assertThat(errors()).isEmpty();
+        assertThat(compiled).isTrue();
+        String generated = read(new File(output, "sample/InvoiceRepositoryImpl.java"));
+        assertThat(generated).contains("implements sample.InvoiceRepository");
+        assertThat(generated).contains("\"SELECT e FROM Invoice e WHERE e.status = ?1 AND e.amount > ?2 ORDER BY e.number DESC\"");
+        assertThat(generated).contains("EntityManagerHelper.findMany(entityManager, sample.Invoice.class, FIND_BY_STATUS_AND_AMOUNT_GREATER_THAN_ORDER_BY_NUMBER_DESC");
+        assertThat(generated).contains("EntityManagerHelper.findOne(entityManager, sample.Invoice.class, FIND_BY_NUMBER");
+        assertThat(generated).contains("EntityManagerHelper.findOneOrNull(entityManager, sample.Invoice.class, FIND_BY_NUMBER_LIKE");
+        assertThat(generated).contains("\"SELECT e FROM Invoice e\"");
+        assertThat(new File(output, "sample/InvoiceRepositoryImpl.class").isFile()).isTrue();
+    }
+    
+    @Test
+    public void shouldReportUnknownProperty() {
+        assertThat(compile(repository("Invoice findByColor(String color);"))).isFalse();
+        assertThat(errors()).contains("method findByColor refers to unknown property color");
+    }
+    
+    @Test
+    public void shouldReportTransientProperty() {
+        assertThat(compile(repository("Invoice findByNote(String note);"))).isFalse();
+        assertThat(errors()).contains("method findByNote refers to unknown property note");
+    }
+    
+    @Test
+    public void shouldReportParameterCount() {
+        assertThat(compile(repository("Invoice findByNumberAndStatus(String number);"))).isFalse();
+        assertThat(errors()).contains("expects 2 parameters, has 1");
+    }
+    
+    @Test
+    public void shouldReportParameterType() {
+        assertThat(compile(repository("Invoice findByAmount(String amount);"))).isFalse();
+        assertThat(errors()).contains("should be int like property amount");
+    }
+    
+    @Test
+    public void shouldReportCollectionParameterOfIn() {
+        assertThat(compile(repository("Invoice findByStatusIn(String status);"))).isFalse();
+        assertThat(errors()).contains("should be Collection of status values");
+    }
+    
+    @Test
+    public void shouldReportReturnTypeOtherThanEntity() {
+        assertThat(compile(repository("String findByNumber(String number);"))).isFalse();
+        assertThat(errors()).contains("should return entity or List of entities");
+    }
+    
+    private boolean compile(JavaFileObject repository) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(compiler);
+        List<String> options = Arrays.asList("-classpath", classPath(), "-d", output.getPath(), "-s", output.getPath());
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics, options, null,
+                Arrays.asList(source("sample.Invoice", INVOICE), repository));
+        task.setProcessors(Arrays.asList(new RepositoryProcessor()));
+        return task.call();
+    }
+    
+    private List<String> errors() {
+        List<String> errors = new ArrayList<String>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors.add(diagnostic.getMessage(Locale.ENGLISH));
+            }
+        }
+        return errors;
+    }
+    
+    private static JavaFileObject repository(String... methods) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("package sample;\n");
+        builder.append("@persistence.Repository\n");
+        builder.append("public interface InvoiceRepository {\n");
+        for (String method : methods) {
+            builder.append("    ").append(method).append("\n");
+        }
+        builder.append("}\n");
+        return source("sample.InvoiceRepository", builder.toString());
+    }
+    
+    private static JavaFileObject source(String name, final String code) {
+        return new SimpleJavaFileObject(URI.create("string:///" + name.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+            
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return code;
+            }
+        };
+    }
+    
+    /**
+     * Surefire may run tests from manifest only jar, its property holds real
+     * class path.
+     */
+    private static String classPath() {
+        return System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+    }
+    
+    private static String read(File file) throws IOException {
+        Scanner scanner = new Scanner(file, "UTF-8");
+        try {
+            return scanner.useDelimiter("\\A").next();
+        } finally {
+            scanner.close();
+        }
+    }
+    
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -8,13 +8,29 @@ import java.lang.annotation.Target;
 
 /**
  * Business rule stereotype.
+ * <p>
+ * Rule implementing {@link server.rules.Rule} is evaluated by
+ * {@link server.rules.RuleEngine} after rules it depends on, rules without
+ * mutual dependencies are evaluated in parallel.
  * 
  * @see BusinessRuleSet
  * @author Michal Michaluk <michaluk.michal@gmail.com>
  */
-@Retention(RetentionPolicy.SOURCE)
+@Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.TYPE)
 @Documented
 public @interface BusinessRule {
     
+    /**
+     * Rules of the same rule set evaluated before this one, this rule is
+     * skipped when any of them is violated hard.
+     */
+    Class<?>[] dependsOn() default {};
+    
+    /**
+     * Properties of aggregate read by this rule, with incremental
+     * {@link server.rules.RuleResultCache} rule is evaluated again only when
+     * any of them changed.
+     */
+    String[] inputs() default {};
 }
@@ -8,14 +8,34 @@ import java.lang.annotation.Target;
 
 /**
  * Business rule aggregator stereotype.
+ * <p>
+ * Rule set lists rules validating its aggregate, which are evaluated together
+ * by {@link server.rules.RuleEngine}. Membership is declared by the set, not
+ * by {@link BusinessRule} classes: rules are not discovered on class path, so
+ * rule annotated with {@link BusinessRule} but missing in {@link #rules()} is
+ * not evaluated.
+ * 
+ * <pre>
+ * &#064;BusinessRuleSet(aggregates = Order.class, rules = { CreditLimitRule.class, StockRule.class })
+ * public class OrderRules {
+ * }
+ * </pre>
  * 
  * @see BusinessRule
  * @author Michal Michaluk <michaluk.michal@gmail.com>
  */
-@Retention(RetentionPolicy.SOURCE)
+@Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.TYPE)
 @Documented
 public @interface BusinessRuleSet {
     
     Class<?> aggregates();
+    
+    /**
+     * Rules of this set, implementations of {@link server.rules.Rule} with
+     * public no-argument constructor. Each rule is instantiated once per rule
+     * set by its constructor, not by CDI, so rules can't use injection and
+     * are shared by all evaluations.
+     */
+    Class<?>[] rules() default {};
 }
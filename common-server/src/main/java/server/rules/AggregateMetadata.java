@@ -0,0 +1,308 @@
+package server.rules;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.Embeddable;
+import javax.persistence.EmbeddedId;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Persistence;
+import javax.persistence.PersistenceUtil;
+import javax.persistence.Transient;
+import javax.persistence.Version;
+
+/**
+ * Identifier, version and rule input properties of aggregate class, resolved
+ * by reflection once per class.
+ * <p>
+ * Properties are read by getter when present, so lazy proxies of persistence
+ * provider are initialized, otherwise directly from field. State of aggregate
+ * is read from persistent fields without initializing lazy attributes.
+ * <p>
+ * Snapshots of state are compared by <code>equals</code>. They hold state of
+ * referenced entities and embeddables and of elements of collections, maps
+ * and arrays, so change made inside any loaded member of aggregate changes
+ * the snapshot.
+ */
+final class AggregateMetadata {
+    
+    /**
+     * State value of attribute not yet loaded by persistence provider.
+     */
+    static final Object UNLOADED = new Object();
+    
+    private static final ConcurrentMap<Class<?>, AggregateMetadata> metadata = new ConcurrentHashMap<Class<?>, AggregateMetadata>();
+    
+    static AggregateMetadata of(Class<?> aggregateClass) {
+        AggregateMetadata result = metadata.get(aggregateClass);
+        if (result == null) {
+            result = new AggregateMetadata(aggregateClass);
+            metadata.putIfAbsent(aggregateClass, result);
+        }
+        return result;
+    }
+    
+    /**
+     * Reads value of single property.
+     */
+    static class Property {
+        
+        private final String name;
+        private final AccessibleObject accessor;
+        
+        private Property(String name, AccessibleObject accessor) {
+            this.name = name;
+            this.accessor = accessor;
+            if (!Modifier.isPublic(((Member) accessor).getModifiers())
+                    || !Modifier.isPublic(((Member) accessor).getDeclaringClass().getModifiers())) {
+                accessor.setAccessible(true);
+            }
+        }
+        
+        Object get(Object aggregate) {
+            try {
+                if (accessor instanceof Method) {
+                    return ((Method) accessor).invoke(aggregate);
+                }
+                return ((Field) accessor).get(aggregate);
+            } catch (IllegalAccessException e) {
+                throw new RuleEvaluationException("Can't read " + name + " of " + aggregate.getClass().getName(), e);
+            } catch (InvocationTargetException e) {
+                throw new RuleEvaluationException("Can't read " + name + " of " + aggregate.getClass().getName(), e.getCause());
+            }
+        }
+    }
+    
+    private final Class<?> aggregateClass;
+    private final Property id;
+    private final Property version;
+    private final Property[] state;
+    
+    private AggregateMetadata(Class<?> aggregateClass) {
+        this.aggregateClass = aggregateClass;
+        String idName = annotatedProperty(aggregateClass, Id.class);
+        this.id = property(idName == null ? annotatedProperty(aggregateClass, EmbeddedId.class) : idName);
+        this.version = property(annotatedProperty(aggregateClass, Version.class));
+        this.state = stateProperties(aggregateClass);
+    }
+    
+    /**
+     * <code>null</code> for aggregate without {@link Id} or not yet persisted.
+     */
+    Object getId(Object aggregate) {
+        return id == null ? null : id.get(aggregate);
+    }
+    
+    /**
+     * <code>null</code> for aggregate without {@link Version}.
+     */
+    Object getVersion(Object aggregate) {
+        return version == null ? null : version.get(aggregate);
+    }
+    
+    /**
+     * Values of persistent fields, {@link #UNLOADED} for lazy attributes not
+     * yet loaded, so they are not loaded by reading the state.
+     */
+    Object[] getState(Object aggregate) {
+        PersistenceUtil persistenceUtil = Persistence.getPersistenceUtil();
+        Object[] values = new Object[state.length];
+        for (int i = 0; i < state.length; i++) {
+            values[i] = persistenceUtil.isLoaded(aggregate, state[i].name) ? state[i].get(aggregate) : UNLOADED;
+        }
+        return values;
+    }
+    
+    /**
+     * Deep snapshot of persistent state of aggregate, even when its class is
+     * not annotated as entity.
+     */
+    static Object stateSnapshot(Object aggregate) {
+        Map<Object, Integer> visited = new IdentityHashMap<Object, Integer>();
+        visited.put(aggregate, 0);
+        return of(aggregate.getClass()).snapshotState(aggregate, visited);
+    }
+    
+    /**
+     * Deep snapshot of property value.
+     */
+    static Object snapshot(Object value) {
+        return snapshot(value, new IdentityHashMap<Object, Integer>());
+    }
+    
+    private static Object snapshot(Object value, Map<Object, Integer> visited) {
+        if (value == null || value == UNLOADED) {
+            return value;
+        }
+        if (value instanceof Collection) {
+            List<Object> elements = new ArrayList<Object>(((Collection<?>) value).size());
+            for (Object element : (Collection<?>) value) {
+                elements.add(snapshot(element, visited));
+            }
+            return elements;
+        }
+        if (value instanceof Map) {
+            Map<Object, Object> entries = new HashMap<Object, Object>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                entries.put(entry.getKey(), snapshot(entry.getValue(), visited));
+            }
+            return entries;
+        }
+        if (value.getClass().isArray()) {
+            List<Object> elements = new ArrayList<Object>(Array.getLength(value));
+            for (int i = 0; i < Array.getLength(value); i++) {
+                elements.add(snapshot(Array.get(value, i), visited));
+            }
+            return elements;
+        }
+        if (value instanceof Date) {
+            return ((Date) value).clone();
+        }
+        if (!isPersistent(value.getClass())) {
+            return value;
+        }
+        Integer position = visited.get(value);
+        if (position != null) {
+            return new Visited(position);
+        }
+        visited.put(value, visited.size());
+        if (!Persistence.getPersistenceUtil().isLoaded(value)) {
+            return UNLOADED;
+        }
+        return of(value.getClass()).snapshotState(value, visited);
+    }
+    
+    private List<Object> snapshotState(Object value, Map<Object, Integer> visited) {
+        Object[] values = getState(value);
+        List<Object> snapshot = new ArrayList<Object>(values.length + 1);
+        snapshot.add(aggregateClass);
+        for (Object stateValue : values) {
+            snapshot.add(snapshot(stateValue, visited));
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Entity or embeddable, superclasses are checked for classes of lazy
+     * proxies.
+     */
+    private static boolean isPersistent(Class<?> valueClass) {
+        if (valueClass.isAnnotationPresent(Embeddable.class)) {
+            return true;
+        }
+        for (Class<?> type = valueClass; type != null && type != Object.class; type = type.getSuperclass()) {
+            if (type.isAnnotationPresent(Entity.class)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    Property[] properties(String[] names) {
+        Property[] properties = new Property[names.length];
+        for (int i = 0; i < names.length; i++) {
+            properties[i] = property(names[i]);
+            if (properties[i] == null) {
+                throw new RuleEvaluationException(names[i] + " is not property of " + aggregateClass.getName());
+            }
+        }
+        return properties;
+    }
+    
+    private Property property(String name) {
+        if (name == null) {
+            return null;
+        }
+        String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        for (Class<?> type = aggregateClass; type != null && type != Object.class; type = type.getSuperclass()) {
+            for (Method method : type.getDeclaredMethods()) {
+                if (method.getParameterTypes().length == 0 && !Modifier.isStatic(method.getModifiers())
+                        && (method.getName().equals("get" + suffix) || method.getName().equals("is" + suffix))) {
+                    return new Property(name, method);
+                }
+            }
+        }
+        for (Class<?> type = aggregateClass; type != null && type != Object.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (field.getName().equals(name) && !Modifier.isStatic(field.getModifiers())) {
+                    return new Property(name, field);
+                }
+            }
+        }
+        return null;
+    }
+    
+    private static Property[] stateProperties(Class<?> aggregateClass) {
+        List<Property> properties = new ArrayList<Property>();
+        for (Class<?> type = aggregateClass; type != null && type != Object.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                // fields woven by EclipseLink hold its bookkeeping, not state
+                if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()
+                        && !field.isAnnotationPresent(Transient.class) && !field.getName().startsWith("_persistence_")) {
+                    properties.add(new Property(field.getName(), field));
+                }
+            }
+        }
+        return properties.toArray(new Property[properties.size()]);
+    }
+    
+    /**
+     * Entity already snapshot within the same snapshot, by order of its first
+     * visit, so back references do not recurse.
+     */
+    private static final class Visited {
+        
+        private final int position;
+        
+        Visited(int position) {
+            this.position = position;
+        }
+        
+        @Override
+        public int hashCode() {
+            return position;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Visited && ((Visited) obj).position == position;
+        }
+    }
+    
+    /**
+     * Name of field or getter property annotated with given annotation.
+     */
+    private static String annotatedProperty(Class<?> aggregateClass, Class<? extends Annotation> annotation) {
+        for (Class<?> type = aggregateClass; type != null && type != Object.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (field.isAnnotationPresent(annotation)) {
+                    return field.getName();
+                }
+            }
+            for (Method method : type.getDeclaredMethods()) {
+                if (method.isAnnotationPresent(annotation)) {
+                    String name = method.getName().replaceFirst("^(get|is)", "");
+                    return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,212 @@
+package server.rules;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import server.BusinessRuleSet;
+
+/**
+ * Evaluates {@link BusinessRuleSet} over stream of aggregates, like nightly
+ * validation of whole table, and collects only {@link RuleBatchSummary}.
+ * <p>
+ * Aggregates are read from iterator in chunks, chunks are evaluated in
+ * parallel on given executor. Iterator is not read further while given number
+ * of chunks is evaluated, so memory holds at most
+ * <code>chunkSize * maxChunksInFlight</code> aggregates however long the
+ * stream is. Rules of single aggregate are evaluated sequentially. Failure of
+ * aggregate evaluation or of its listener is counted in summary and does not
+ * stop the batch.
+ * <p>
+ * Aggregates are evaluated on executor threads while iterating thread reads
+ * further ones, so they must not load lazy attributes through entity manager
+ * of iterating thread, which is not thread safe. Aggregates must be detached
+ * and fully fetched (for example by <code>JOIN FETCH</code> of everything the
+ * rules read), or evaluated without executor in iterating thread.
+ * 
+ * <pre>
+ * RuleBatchSummary summary = new BatchRuleEvaluator(executor).evaluate(OrderRules.class, orders, false,
+ *         new ViolationListener() {
+ *             public void violated(Object aggregate, List&lt;Violation&gt; violations) {
+ *                 report.write(((Order) aggregate).getId(), violations);
+ *             }
+ *         });
+ * </pre>
+ */
+public class BatchRuleEvaluator {
+    
+    /**
+     * Notified about each aggregate with violations, concurrently from
+     * executor threads.
+     */
+    public interface ViolationListener {
+        
+        void violated(Object aggregate, List<Violation> violations);
+    }
+    
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+    
+    private final ExecutorService executor;
+    private final int chunkSize;
+    private final int maxChunksInFlight;
+    private final RuleEngine ruleEngine = new RuleEngine();
+    
+    /**
+     * Chunks of {@link #DEFAULT_CHUNK_SIZE} aggregates, two chunks in flight
+     * per available processor.
+     */
+    public BatchRuleEvaluator(ExecutorService executor) {
+        this(executor, DEFAULT_CHUNK_SIZE, 2 * Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * @param executor
+     *            executor for chunks, or <code>null</code> for evaluation in
+     *            calling thread
+     * @param maxChunksInFlight
+     *            chunks read from iterator and not yet evaluated
+     */
+    public BatchRuleEvaluator(ExecutorService executor, int chunkSize, int maxChunksInFlight) {
+        if (chunkSize <= 0 || maxChunksInFlight <= 0) {
+            throw new IllegalArgumentException("Chunk size and chunks in flight must be positive: " + chunkSize + ", "
+                    + maxChunksInFlight);
+        }
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+        this.maxChunksInFlight = maxChunksInFlight;
+    }
+    
+    /**
+     * @param shortCircuit
+     *            stop evaluation of aggregate on its first hard violation
+     * @param listener
+     *            listener of aggregates with violations, or <code>null</code>
+     * @throws RuleEvaluationException
+     *             when rule set is misconfigured or waiting for chunks was
+     *             interrupted
+     * @throws RejectedExecutionException
+     *             when executor rejected chunk, thrown after chunks already
+     *             submitted completed
+     */
+    public RuleBatchSummary evaluate(Class<?> ruleSetClass, Iterator<?> aggregates, boolean shortCircuit,
+            ViolationListener listener) {
+        long start = System.nanoTime();
+        RuleSetPlan plan = RuleSetPlan.of(ruleSetClass);
+        RuleBatchSummary summary = new RuleBatchSummary(plan.getRuleClasses());
+        Semaphore inFlight = new Semaphore(maxChunksInFlight);
+        try {
+            while (aggregates.hasNext()) {
+                inFlight.acquire();
+                List<Object> aggregatesOfChunk = new ArrayList<Object>(chunkSize);
+                while (aggregatesOfChunk.size() < chunkSize && aggregates.hasNext()) {
+                    aggregatesOfChunk.add(aggregates.next());
+                }
+                submit(new Chunk(plan, aggregatesOfChunk, shortCircuit, listener, summary, inFlight), inFlight);
+            }
+            inFlight.acquire(maxChunksInFlight);
+            inFlight.release(maxChunksInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuleEvaluationException("Interrupted while evaluating " + ruleSetClass.getName(), e);
+        }
+        synchronized (summary) {
+            summary.setElapsedNanos(System.nanoTime() - start);
+            return summary;
+        }
+    }
+    
+    private void submit(Chunk chunk, Semaphore inFlight) throws InterruptedException {
+        if (executor == null) {
+            chunk.run();
+            return;
+        }
+        try {
+            executor.execute(chunk);
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            awaitChunks(inFlight);
+            throw e;
+        }
+    }
+    
+    /**
+     * Waits for chunks in flight, so none of them reads aggregates or updates
+     * summary after evaluation ended. Chunks dropped by terminated executor
+     * are not waited for.
+     */
+    private void awaitChunks(Semaphore inFlight) throws InterruptedException {
+        while (!inFlight.tryAcquire(maxChunksInFlight, 100, TimeUnit.MILLISECONDS)) {
+            if (executor.isTerminated()) {
+                return;
+            }
+        }
+        inFlight.release(maxChunksInFlight);
+    }
+    
+    private class Chunk implements Runnable {
+        
+        private final RuleSetPlan plan;
+        private final List<Object> aggregates;
+        private final boolean shortCircuit;
+        private final ViolationListener listener;
+        private final RuleBatchSummary summary;
+        private final Semaphore inFlight;
+        
+        Chunk(RuleSetPlan plan, List<Object> aggregates, boolean shortCircuit, ViolationListener listener,
+                RuleBatchSummary summary, Semaphore inFlight) {
+            this.plan = plan;
+            this.aggregates = aggregates;
+            this.shortCircuit = shortCircuit;
+            this.listener = listener;
+            this.summary = summary;
+            this.inFlight = inFlight;
+        }
+        
+        @Override
+        public void run() {
+            RuleBatchSummary chunkSummary = new RuleBatchSummary(plan.getRuleClasses());
+            try {
+                for (Object aggregate : aggregates) {
+                    evaluate(aggregate, chunkSummary);
+                }
+            } finally {
+                synchronized (summary) {
+                    summary.merge(chunkSummary);
+                }
+                inFlight.release();
+            }
+        }
+        
+        /**
+         * Aggregate is counted in summary after listener was notified, so
+         * failure of rule, engine or listener counts it as failed only.
+         */
+        private void evaluate(Object aggregate, RuleBatchSummary chunkSummary) {
+            RuleSetResult result;
+            try {
+                result = ruleEngine.evaluate(plan.getRuleSetClass(), aggregate, shortCircuit);
+            } catch (RuleEvaluationException e) {
+                chunkSummary.addFailure(e);
+                return;
+            } catch (RuntimeException e) {
+                chunkSummary.addFailure(new RuleEvaluationException("Evaluation of " + plan.getRuleSetClass().getName()
+                        + " failed", e));
+                return;
+            }
+            if (listener != null && !result.getViolations().isEmpty()) {
+                try {
+                    listener.violated(aggregate, result.getViolations());
+                } catch (RuntimeException e) {
+                    chunkSummary.addFailure(new RuleEvaluationException("Violation listener of "
+                            + plan.getRuleSetClass().getName() + " failed", e));
+                    return;
+                }
+            }
+            chunkSummary.add(result);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package server.rules;
+
+/**
+ * Business rule validating aggregate.
+ * <p>
+ * Rules are evaluated concurrently, implementation must be stateless or
+ * thread safe. Rule is created once by its public no-argument constructor
+ * and is not CDI bean, data it needs is passed in aggregate.
+ * 
+ * @see server.BusinessRule
+ * @see RuleEngine
+ */
+public interface Rule<AggregateType> {
+    
+    /**
+     * @return violation of rule or <code>null</code> when aggregate satisfies
+     *         rule
+     */
+    Violation evaluate(AggregateType aggregate);
+}
@@ -0,0 +1,149 @@
+package server.rules;
+
+import java.io.Serializable;
+
+/**
+ * Totals of batch evaluation by {@link BatchRuleEvaluator}: numbers of
+ * aggregates and numbers of violations of each rule, without results of
+ * individual aggregates.
+ */
+public class RuleBatchSummary implements Serializable {
+    
+    private static final long serialVersionUID = 4172083921760394516L;
+    
+    private final Class<?>[] ruleClasses;
+    private final long[] hardViolations;
+    private final long[] softViolations;
+    private long aggregates;
+    private long invalidAggregates;
+    private long failedAggregates;
+    private RuleEvaluationException firstFailure;
+    private long elapsedNanos;
+    
+    RuleBatchSummary(Class<?>[] ruleClasses) {
+        this.ruleClasses = ruleClasses;
+        this.hardViolations = new long[ruleClasses.length];
+        this.softViolations = new long[ruleClasses.length];
+    }
+    
+    void add(RuleSetResult result) {
+        aggregates++;
+        for (Violation violation : result.getViolations()) {
+            int rule = indexOf(violation.getRule());
+            if (violation.isHard()) {
+                hardViolations[rule]++;
+            } else {
+                softViolations[rule]++;
+            }
+        }
+        if (!result.isValid()) {
+            invalidAggregates++;
+        }
+    }
+    
+    void addFailure(RuleEvaluationException failure) {
+        aggregates++;
+        failedAggregates++;
+        if (firstFailure == null) {
+            firstFailure = failure;
+        }
+    }
+    
+    void merge(RuleBatchSummary chunk) {
+        for (int i = 0; i < ruleClasses.length; i++) {
+            hardViolations[i] += chunk.hardViolations[i];
+            softViolations[i] += chunk.softViolations[i];
+        }
+        aggregates += chunk.aggregates;
+        invalidAggregates += chunk.invalidAggregates;
+        failedAggregates += chunk.failedAggregates;
+        if (firstFailure == null) {
+            firstFailure = chunk.firstFailure;
+        }
+    }
+    
+    void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+    
+    private int indexOf(Class<?> ruleClass) {
+        for (int i = 0; i < ruleClasses.length; i++) {
+            if (ruleClasses[i] == ruleClass) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(ruleClass.getName() + " is not in rule set");
+    }
+    
+    public Class<?>[] getRuleClasses() {
+        return ruleClasses.clone();
+    }
+    
+    /**
+     * Number of violations of given rule with given severity.
+     */
+    public long getViolations(Class<?> ruleClass, Severity severity) {
+        int rule = indexOf(ruleClass);
+        return severity == Severity.HARD ? hardViolations[rule] : softViolations[rule];
+    }
+    
+    public long getAggregates() {
+        return aggregates;
+    }
+    
+    public long getValidAggregates() {
+        return aggregates - invalidAggregates - failedAggregates;
+    }
+    
+    /**
+     * Aggregates with at least one hard violation.
+     */
+    public long getInvalidAggregates() {
+        return invalidAggregates;
+    }
+    
+    /**
+     * Aggregates whose evaluation failed with exception.
+     */
+    public long getFailedAggregates() {
+        return failedAggregates;
+    }
+    
+    /**
+     * First exception of failed aggregate, <code>null</code> when none
+     * failed. Failures of other exceptions than
+     * {@link RuleEvaluationException}, like failures of violation listener,
+     * are its cause.
+     */
+    public RuleEvaluationException getFirstFailure() {
+        return firstFailure;
+    }
+    
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("RuleBatchSummary [aggregates=");
+        builder.append(aggregates);
+        builder.append(", invalidAggregates=");
+        builder.append(invalidAggregates);
+        builder.append(", failedAggregates=");
+        builder.append(failedAggregates);
+        builder.append(", violations={");
+        for (int i = 0; i < ruleClasses.length; i++) {
+            builder.append(i == 0 ? "" : ", ");
+            builder.append(ruleClasses[i].getSimpleName());
+            builder.append("=");
+            builder.append(hardViolations[i]);
+            builder.append("/");
+            builder.append(softViolations[i]);
+        }
+        builder.append("}, elapsedMillis=");
+        builder.append(elapsedNanos / 1000000);
+        builder.append("]");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,43 @@
+package server.rules;
+
+/**
+ * Rules of {@link server.BusinessRuleSet} resolved at compile time by
+ * {@link RuleSetProcessor}, so {@link RuleEngine} needs neither annotation
+ * reflection nor reflective instantiation of rules.
+ * <p>
+ * Reflection is not removed completely: table of each rule set is looked up
+ * by name with {@link Class#forName(String)} and instantiated reflectively,
+ * once per rule set. Values of rule inputs are not read by generated
+ * accessors, {@link AggregateMetadata} reads them by getters or fields
+ * resolved by reflection once per aggregate class.
+ * <p>
+ * Rules are identified by index in {@link #getRuleClasses()}.
+ */
+public interface RuleDispatchTable {
+    
+    String CLASS_NAME_SUFFIX = "DispatchTable";
+    
+    Class<?> getAggregateType();
+    
+    Class<?>[] getRuleClasses();
+    
+    /**
+     * New instances of rules in order of {@link #getRuleClasses()}.
+     */
+    Rule<?>[] createRules();
+    
+    /**
+     * Indexes of rules each rule depends on.
+     */
+    int[][] getDependencies();
+    
+    /**
+     * Names of aggregate properties each rule reads.
+     */
+    String[][] getInputs();
+    
+    /**
+     * Indexes of rules in evaluation layers ordered by dependencies.
+     */
+    int[][] getLayers();
+}
@@ -0,0 +1,265 @@
+package server.rules;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import server.BusinessRule;
+import server.BusinessRuleSet;
+
+/**
+ * Evaluates rules of {@link BusinessRuleSet} for its aggregate.
+ * <p>
+ * Rules are evaluated in layers given by {@link BusinessRule#dependsOn()},
+ * independent rules of one layer run in parallel on given executor. Rule is
+ * skipped when rule it depends on is violated hard. With short-circuit
+ * evaluation stops on first hard violation and remaining rules are skipped.
+ * Without executor rules run sequentially in calling thread. With
+ * {@link RuleResultCache} outcomes of rules are reused for unchanged
+ * aggregates. Evaluations are measured by {@link RuleStatistics} when
+ * enabled.
+ * 
+ * <pre>
+ * RuleSetResult result = ruleEngine.evaluate(OrderRules.class, order);
+ * if (!result.isValid()) {
+ *     throw new InvalidOrderException(result.getViolations(Severity.HARD));
+ * }
+ * </pre>
+ */
+public class RuleEngine {
+    
+    private final ExecutorService executor;
+    private final RuleResultCache cache;
+    
+    /**
+     * Rules are evaluated sequentially in calling thread.
+     */
+    public RuleEngine() {
+        this(null, null);
+    }
+    
+    public RuleEngine(ExecutorService executor) {
+        this(executor, null);
+    }
+    
+    /**
+     * @param executor
+     *            executor for independent rules, or <code>null</code> for
+     *            sequential evaluation
+     * @param cache
+     *            memoized outcomes of rules, or <code>null</code>
+     */
+    public RuleEngine(ExecutorService executor, RuleResultCache cache) {
+        this.executor = executor;
+        this.cache = cache;
+    }
+    
+    public RuleSetResult evaluate(Class<?> ruleSetClass, Object aggregate) {
+        return evaluate(ruleSetClass, aggregate, false);
+    }
+    
+    /**
+     * @param shortCircuit
+     *            stop on first hard violation
+     * @throws RuleEvaluationException
+     *             when rule set is misconfigured or any rule fails
+     */
+    public RuleSetResult evaluate(Class<?> ruleSetClass, Object aggregate, boolean shortCircuit) {
+        RuleSetPlan plan = RuleSetPlan.of(ruleSetClass);
+        plan.checkAggregate(aggregate);
+        RuleStatistics.RuleSetStatistics statistics = RuleStatistics.of(plan);
+        long start = statistics == null ? 0 : System.nanoTime();
+        RuleResultCache.Memo memo = cache == null ? null : cache.memo(plan, aggregate);
+        Evaluation evaluation = new Evaluation(plan, aggregate, shortCircuit, memo, statistics);
+        try {
+            for (RuleSetPlan.Node[] layer : plan.getLayers()) {
+                List<RuleSetPlan.Node> runnable = evaluation.runnable(layer);
+                if (executor == null || runnable.size() < 2) {
+                    evaluation.evaluateSequentially(runnable);
+                } else {
+                    evaluation.evaluateInParallel(runnable);
+                }
+            }
+        } catch (RuleEvaluationException e) {
+            if (statistics != null) {
+                statistics.ruleSet.recordEvaluation(System.nanoTime() - start, RuleStatistic.FAILURES);
+            }
+            throw e;
+        }
+        if (memo != null) {
+            evaluation.store();
+        }
+        RuleSetResult result = evaluation.result();
+        if (statistics != null) {
+            evaluation.recordStatistics(result, System.nanoTime() - start);
+        }
+        return result;
+    }
+    
+    private class Evaluation {
+        
+        private final RuleSetPlan plan;
+        private final Object aggregate;
+        private final boolean shortCircuit;
+        private final RuleResultCache.Memo memo;
+        private final RuleStatistics.RuleSetStatistics statistics;
+        private final Violation[] violations;
+        private final boolean[] passed;
+        /** rules started by executor, which record their own evaluation statistics */
+        private final AtomicIntegerArray started;
+        private int evaluated;
+        private int reused;
+        private boolean shortCircuited;
+        
+        Evaluation(RuleSetPlan plan, Object aggregate, boolean shortCircuit, RuleResultCache.Memo memo,
+                RuleStatistics.RuleSetStatistics statistics) {
+            this.plan = plan;
+            this.aggregate = aggregate;
+            this.shortCircuit = shortCircuit;
+            this.memo = memo;
+            this.statistics = statistics;
+            this.violations = new Violation[plan.size()];
+            this.passed = new boolean[plan.size()];
+            this.started = new AtomicIntegerArray(plan.size());
+        }
+        
+        /**
+         * Rules of layer whose dependencies were not violated hard, other
+         * rules are skipped. Memoized outcomes are recorded immediately.
+         */
+        List<RuleSetPlan.Node> runnable(RuleSetPlan.Node[] layer) {
+            List<RuleSetPlan.Node> runnable = new ArrayList<RuleSetPlan.Node>(layer.length);
+            for (RuleSetPlan.Node node : layer) {
+                boolean dependenciesPassed = !shortCircuited;
+                for (int dependency : node.dependencies) {
+                    dependenciesPassed &= passed[dependency];
+                }
+                if (dependenciesPassed && memo != null && memo.reusable(node)) {
+                    reused++;
+                    if (statistics != null) {
+                        statistics.rules[node.index].record(RuleStatistic.REUSED, 1);
+                    }
+                    record(node, memo.violation(node));
+                } else if (dependenciesPassed) {
+                    runnable.add(node);
+                }
+            }
+            return runnable;
+        }
+        
+        void evaluateSequentially(List<RuleSetPlan.Node> nodes) {
+            for (RuleSetPlan.Node node : nodes) {
+                if (!shortCircuited) {
+                    record(node, RuleEngine.evaluate(node, aggregate, statistics));
+                }
+            }
+        }
+        
+        void evaluateInParallel(List<RuleSetPlan.Node> nodes) {
+            CompletionService<RuleSetPlan.Node> completion = new ExecutorCompletionService<RuleSetPlan.Node>(executor);
+            List<Future<RuleSetPlan.Node>> futures = new ArrayList<Future<RuleSetPlan.Node>>(nodes.size());
+            final Violation[] results = new Violation[plan.size()];
+            for (final RuleSetPlan.Node node : nodes) {
+                futures.add(completion.submit(new Callable<RuleSetPlan.Node>() {
+                    @Override
+                    public RuleSetPlan.Node call() {
+                        started.set(node.index, 1);
+                        results[node.index] = RuleEngine.evaluate(node, aggregate, statistics);
+                        return node;
+                    }
+                }));
+            }
+            try {
+                for (int i = 0; i < nodes.size() && !shortCircuited; i++) {
+                    RuleSetPlan.Node node = completion.take().get();
+                    record(node, results[node.index]);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuleEvaluationException("Interrupted while evaluating " + plan.getRuleSetClass().getName(), e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuleEvaluationException) {
+                    throw (RuleEvaluationException) e.getCause();
+                }
+                throw new RuleEvaluationException("Evaluation of " + plan.getRuleSetClass().getName() + " failed", e.getCause());
+            } finally {
+                for (Future<RuleSetPlan.Node> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+        
+        private void record(RuleSetPlan.Node node, Violation violation) {
+            evaluated++;
+            if (violation == null) {
+                passed[node.index] = true;
+                return;
+            }
+            violations[node.index] = violation.of(node.ruleClass);
+            passed[node.index] = !violation.isHard();
+            if (shortCircuit && violation.isHard()) {
+                shortCircuited = true;
+                if (statistics != null) {
+                    statistics.rules[node.index].record(RuleStatistic.SHORT_CIRCUITS, 1);
+                }
+            }
+        }
+        
+        void store() {
+            memo.store(violations, passed, plan);
+        }
+        
+        RuleSetResult result() {
+            List<Violation> result = new ArrayList<Violation>();
+            for (Violation violation : violations) {
+                if (violation != null) {
+                    result.add(violation);
+                }
+            }
+            return new RuleSetResult(result, evaluated, reused, plan.size() - evaluated, shortCircuited);
+        }
+        
+        /**
+         * Rules evaluated in parallel and completed after short circuit are
+         * not in result, but recorded their evaluation, so they are not
+         * counted as skipped.
+         */
+        void recordStatistics(RuleSetResult result, long nanos) {
+            int skipped = 0;
+            for (int i = 0; i < passed.length; i++) {
+                if (!passed[i] && violations[i] == null && started.get(i) == 0) {
+                    statistics.rules[i].record(RuleStatistic.SKIPPED, 1);
+                    skipped++;
+                }
+            }
+            RuleStatistic ruleSet = statistics.ruleSet;
+            ruleSet.recordEvaluation(nanos, result.isValid() ? RuleStatistic.PASSED : RuleStatistic.HARD_VIOLATIONS);
+            ruleSet.record(RuleStatistic.SKIPPED, skipped);
+            ruleSet.record(RuleStatistic.REUSED, reused);
+            ruleSet.record(RuleStatistic.SHORT_CIRCUITS, shortCircuited ? 1 : 0);
+        }
+    }
+    
+    private static Violation evaluate(RuleSetPlan.Node node, Object aggregate, RuleStatistics.RuleSetStatistics statistics) {
+        long start = statistics == null ? 0 : System.nanoTime();
+        try {
+            Violation violation = node.rule.evaluate(aggregate);
+            if (statistics != null) {
+                statistics.rules[node.index].recordEvaluation(System.nanoTime() - start, violation == null ? RuleStatistic.PASSED
+                        : violation.isHard() ? RuleStatistic.HARD_VIOLATIONS : RuleStatistic.SOFT_VIOLATIONS);
+            }
+            return violation;
+        } catch (RuntimeException e) {
+            if (statistics != null) {
+                statistics.rules[node.index].recordEvaluation(System.nanoTime() - start, RuleStatistic.FAILURES);
+            }
+            throw new RuleEvaluationException("Rule " + node.ruleClass.getName() + " failed", e);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package server.rules;
+
+/**
+ * Thrown when rule set is misconfigured or rule fails with exception.
+ */
+public class RuleEvaluationException extends RuntimeException {
+    
+    private static final long serialVersionUID = -8120657434530071292L;
+    
+    public RuleEvaluationException(String message) {
+        super(message);
+    }
+    
+    public RuleEvaluationException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,57 @@
+package server.rules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Topological ordering of rules shared by {@link RuleSetPlan} and
+ * {@link RuleSetProcessor}, each layer holds rules whose dependencies are all
+ * in previous layers.
+ */
+final class RuleLayers {
+    
+    /**
+     * @param dependencies
+     *            indexes of rules each rule depends on
+     * @return indexes of rules in layers, or <code>null</code> for cyclic
+     *         dependencies
+     */
+    static int[][] of(int[][] dependencies) {
+        int[] layerOf = new int[dependencies.length];
+        Arrays.fill(layerOf, -1);
+        List<int[]> layers = new ArrayList<int[]>();
+        int placed = 0;
+        while (placed < dependencies.length) {
+            List<Integer> layer = new ArrayList<Integer>();
+            for (int rule = 0; rule < dependencies.length; rule++) {
+                if (layerOf[rule] < 0 && dependenciesPlaced(dependencies[rule], layerOf, layers.size())) {
+                    layer.add(rule);
+                }
+            }
+            if (layer.isEmpty()) {
+                return null;
+            }
+            int[] indexes = new int[layer.size()];
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = layer.get(i);
+                layerOf[indexes[i]] = layers.size();
+            }
+            layers.add(indexes);
+            placed += indexes.length;
+        }
+        return layers.toArray(new int[layers.size()][]);
+    }
+    
+    private static boolean dependenciesPlaced(int[] dependencies, int[] layerOf, int currentLayer) {
+        for (int dependency : dependencies) {
+            if (layerOf[dependency] < 0 || layerOf[dependency] >= currentLayer) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private RuleLayers() {
+    }
+}
@@ -0,0 +1,319 @@
+package server.rules;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.Id;
+import javax.persistence.Version;
+
+import server.BusinessRule;
+
+/**
+ * Outcomes of rules memoized per rule set and aggregate identity, so repeated
+ * validations of unchanged aggregate (in controller, in service and before
+ * persist) do not evaluate rules again.
+ * <p>
+ * Aggregate is identified by its {@link Id}. In {@link Mode#VERSION} mode
+ * outcomes are reused while aggregate {@link Version} and state of its
+ * persistent fields are the same, so changes made in memory and not yet
+ * flushed are not missed. State is compared deeply, including loaded
+ * referenced entities, embeddables and elements of collections, so change of
+ * child entity (for example quantity of order line) is detected although
+ * version of aggregate stays the same. Aggregates without identifier or
+ * version are always evaluated. Lazy attributes are not loaded by comparison
+ * of state, attribute loaded since last evaluation counts as change.
+ * <p>
+ * In {@link Mode#INCREMENTAL} mode rule declaring
+ * {@link BusinessRule#inputs()} is evaluated again only when any of these
+ * properties changed since last evaluation, rules without declared inputs are
+ * always evaluated. Aggregates not yet persisted are identified by instance,
+ * which is held weakly, so outcomes of discarded aggregates are forgotten.
+ * <p>
+ * Declared inputs are compared by the same deep snapshots.
+ * <p>
+ * Number of memoized aggregates is bounded by {@link #getMaximumSize()}, least
+ * recently used are evicted first.
+ * 
+ * <pre>
+ * RuleEngine ruleEngine = new RuleEngine(null, new RuleResultCache(Mode.INCREMENTAL));
+ * </pre>
+ */
+public class RuleResultCache {
+    
+    public enum Mode {
+        /** reuse outcomes while identifier, version and state are the same */
+        VERSION,
+        /** evaluate only rules whose declared inputs changed */
+        INCREMENTAL
+    }
+    
+    public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+    
+    private final Mode mode;
+    private final int maximumSize;
+    private final Map<Key, Entry> entries;
+    /** references of collected aggregates not yet persisted */
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    
+    public RuleResultCache(Mode mode) {
+        this(mode, DEFAULT_MAXIMUM_SIZE);
+    }
+    
+    public RuleResultCache(Mode mode, final int maximumSize) {
+        this.mode = mode;
+        this.maximumSize = maximumSize;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+    
+    public Mode getMode() {
+        return mode;
+    }
+    
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+    
+    public int size() {
+        synchronized (entries) {
+            expungeCollected();
+            return entries.size();
+        }
+    }
+    
+    /**
+     * Number of rule outcomes reused without evaluation.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+    
+    /**
+     * Number of rules evaluated because outcome was not memoized or is stale.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+    
+    /**
+     * Forgets outcomes of given aggregate in all rule sets.
+     */
+    public void invalidate(Object aggregate) {
+        synchronized (entries) {
+            for (Iterator<Key> keys = entries.keySet().iterator(); keys.hasNext();) {
+                if (keys.next().identifies(aggregate)) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+    
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+    
+    /**
+     * Memoized outcomes of given aggregate, or <code>null</code> when
+     * aggregate can't be identified.
+     */
+    Memo memo(RuleSetPlan plan, Object aggregate) {
+        AggregateMetadata metadata = AggregateMetadata.of(plan.getAggregateType());
+        Object id = metadata.getId(aggregate);
+        Object version = metadata.getVersion(aggregate);
+        if (mode == Mode.VERSION && (id == null || version == null)) {
+            return null;
+        }
+        Key key = id == null ? new Key(plan.getRuleSetClass(), aggregate, collected) : new Key(plan.getRuleSetClass(), id);
+        Entry entry;
+        synchronized (entries) {
+            expungeCollected();
+            entry = entries.get(key);
+        }
+        Object state = mode == Mode.VERSION ? AggregateMetadata.stateSnapshot(aggregate) : null;
+        return new Memo(key, aggregate, version, state, entry);
+    }
+    
+    /**
+     * Removes outcomes of aggregates without identifier which were garbage
+     * collected, called with lock of entries held.
+     */
+    private void expungeCollected() {
+        boolean anyCollected = false;
+        while (collected.poll() != null) {
+            anyCollected = true;
+        }
+        if (anyCollected) {
+            for (Iterator<Key> keys = entries.keySet().iterator(); keys.hasNext();) {
+                if (keys.next().isCollected()) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Outcomes of single evaluation, reused ones are decided by
+     * {@link #reusable(RuleSetPlan.Node)}, evaluated ones are stored by
+     * {@link #store(Violation[], boolean[], RuleSetPlan)}.
+     */
+    class Memo {
+        
+        private final Key key;
+        private final Object aggregate;
+        private final Object version;
+        /** snapshot of persistent state, in version mode only */
+        private final Object state;
+        private final Entry entry;
+        private final boolean stateUnchanged;
+        
+        Memo(Key key, Object aggregate, Object version, Object state, Entry entry) {
+            this.key = key;
+            this.aggregate = aggregate;
+            this.version = version;
+            this.state = state;
+            this.entry = entry;
+            this.stateUnchanged = entry != null && mode == Mode.VERSION && version.equals(entry.version)
+                    && entry.state.equals(state);
+        }
+        
+        boolean reusable(RuleSetPlan.Node node) {
+            boolean reusable = entry != null && entry.evaluated[node.index];
+            if (reusable && mode == Mode.INCREMENTAL) {
+                reusable = node.inputs.length > 0;
+                for (int i = 0; i < node.inputs.length && reusable; i++) {
+                    reusable = equal(entry.inputs[node.index][i], AggregateMetadata.snapshot(node.inputs[i].get(aggregate)));
+                }
+            } else if (reusable) {
+                reusable = stateUnchanged;
+            }
+            if (reusable) {
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+            }
+            return reusable;
+        }
+        
+        /**
+         * Memoized violation of reusable rule, <code>null</code> when rule
+         * passed.
+         */
+        Violation violation(RuleSetPlan.Node node) {
+            return entry.violations[node.index];
+        }
+        
+        void store(Violation[] violations, boolean[] passed, RuleSetPlan plan) {
+            boolean[] evaluated = new boolean[violations.length];
+            Object[][] inputs = new Object[violations.length][];
+            for (RuleSetPlan.Node[] layer : plan.getLayers()) {
+                for (RuleSetPlan.Node node : layer) {
+                    evaluated[node.index] = passed[node.index] || violations[node.index] != null;
+                    if (evaluated[node.index] && mode == Mode.INCREMENTAL) {
+                        inputs[node.index] = new Object[node.inputs.length];
+                        for (int i = 0; i < node.inputs.length; i++) {
+                            inputs[node.index][i] = AggregateMetadata.snapshot(node.inputs[i].get(aggregate));
+                        }
+                    }
+                }
+            }
+            Entry stored = new Entry(version, state, evaluated, violations.clone(), inputs);
+            synchronized (entries) {
+                entries.put(key, stored);
+            }
+        }
+    }
+    
+    private static boolean equal(Object first, Object second) {
+        return first == null ? second == null : first.equals(second);
+    }
+    
+    private static class Entry {
+        
+        final Object version;
+        /** snapshot of persistent state, in version mode only */
+        final Object state;
+        final boolean[] evaluated;
+        final Violation[] violations;
+        /** snapshots of rule inputs, in incremental mode only */
+        final Object[][] inputs;
+        
+        Entry(Object version, Object state, boolean[] evaluated, Violation[] violations, Object[][] inputs) {
+            this.version = version;
+            this.state = state;
+            this.evaluated = evaluated;
+            this.violations = violations;
+            this.inputs = inputs;
+        }
+    }
+    
+    /**
+     * Rule set and aggregate identifier, or weakly referenced aggregate
+     * instance compared by identity when it has no identifier yet.
+     */
+    private static class Key {
+        
+        private final Class<?> ruleSetClass;
+        private final Object id;
+        private final WeakReference<Object> instance;
+        private final int hash;
+        
+        Key(Class<?> ruleSetClass, Object id) {
+            this.ruleSetClass = ruleSetClass;
+            this.id = id;
+            this.instance = null;
+            this.hash = 31 * ruleSetClass.hashCode() + id.hashCode();
+        }
+        
+        Key(Class<?> ruleSetClass, Object aggregate, ReferenceQueue<Object> queue) {
+            this.ruleSetClass = ruleSetClass;
+            this.id = null;
+            this.instance = new WeakReference<Object>(aggregate, queue);
+            this.hash = 31 * ruleSetClass.hashCode() + System.identityHashCode(aggregate);
+        }
+        
+        boolean identifies(Object aggregate) {
+            return instance == null ? id.equals(AggregateMetadata.of(aggregate.getClass()).getId(aggregate))
+                    : instance.get() == aggregate;
+        }
+        
+        boolean isCollected() {
+            return instance != null && instance.get() == null;
+        }
+        
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            if (ruleSetClass != other.ruleSetClass || (instance == null) != (other.instance == null)) {
+                return false;
+            }
+            if (instance == null) {
+                return id.equals(other.id);
+            }
+            Object aggregate = instance.get();
+            return aggregate != null && aggregate == other.instance.get();
+        }
+    }
+}
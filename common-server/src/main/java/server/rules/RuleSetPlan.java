@@ -0,0 +1,203 @@
+package server.rules;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import server.BusinessRule;
+import server.BusinessRuleSet;
+
+/**
+ * Rules of {@link BusinessRuleSet} instantiated once and ordered in layers by
+ * {@link BusinessRule#dependsOn()}, rules of one layer depend only on rules of
+ * previous layers.
+ * <p>
+ * Plan is taken from {@link RuleDispatchTable} generated at compile time when
+ * present, otherwise it is resolved from annotations by reflection.
+ */
+final class RuleSetPlan {
+    
+    private static final ConcurrentMap<Class<?>, RuleSetPlan> plans = new ConcurrentHashMap<Class<?>, RuleSetPlan>();
+    
+    static RuleSetPlan of(Class<?> ruleSetClass) {
+        RuleSetPlan plan = plans.get(ruleSetClass);
+        if (plan == null) {
+            RuleDispatchTable table = dispatchTableOf(ruleSetClass);
+            plan = table == null ? new RuleSetPlan(ruleSetClass) : new RuleSetPlan(ruleSetClass, table);
+            plans.putIfAbsent(ruleSetClass, plan);
+        }
+        return plan;
+    }
+    
+    /**
+     * Table generated by {@link RuleSetProcessor} next to rule set, or
+     * <code>null</code> when rule set was compiled without processor.
+     */
+    static RuleDispatchTable dispatchTableOf(Class<?> ruleSetClass) {
+        String packagePrefix = ruleSetClass.getPackage() == null ? "" : ruleSetClass.getPackage().getName() + ".";
+        String name = packagePrefix + ruleSetClass.getName().substring(packagePrefix.length()).replace('$', '_')
+                + RuleDispatchTable.CLASS_NAME_SUFFIX;
+        try {
+            Class<?> tableClass = Class.forName(name, true, ruleSetClass.getClassLoader());
+            return (RuleDispatchTable) tableClass.newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (InstantiationException e) {
+            throw new RuleEvaluationException("Can't instantiate " + name, e);
+        } catch (IllegalAccessException e) {
+            throw new RuleEvaluationException("Can't instantiate " + name, e);
+        }
+    }
+    
+    static class Node {
+        
+        final int index;
+        final Class<?> ruleClass;
+        final Rule<Object> rule;
+        final int[] dependencies;
+        /** properties read by rule, empty when not declared */
+        final AggregateMetadata.Property[] inputs;
+        
+        Node(int index, Class<?> ruleClass, Rule<Object> rule, int[] dependencies, AggregateMetadata.Property[] inputs) {
+            this.index = index;
+            this.ruleClass = ruleClass;
+            this.rule = rule;
+            this.dependencies = dependencies;
+            this.inputs = inputs;
+        }
+    }
+    
+    private final Class<?> ruleSetClass;
+    private final Class<?> aggregateType;
+    private final Node[][] layers;
+    private final int size;
+    
+    private RuleSetPlan(Class<?> ruleSetClass) {
+        BusinessRuleSet ruleSet = ruleSetClass.getAnnotation(BusinessRuleSet.class);
+        if (ruleSet == null) {
+            throw new RuleEvaluationException(ruleSetClass.getName() + " is not annotated with @BusinessRuleSet");
+        }
+        this.ruleSetClass = ruleSetClass;
+        this.aggregateType = ruleSet.aggregates();
+        Class<?>[] ruleClasses = ruleSet.rules();
+        Map<Class<?>, Integer> indexes = new HashMap<Class<?>, Integer>();
+        for (int i = 0; i < ruleClasses.length; i++) {
+            indexes.put(ruleClasses[i], i);
+        }
+        AggregateMetadata metadata = AggregateMetadata.of(aggregateType);
+        Node[] nodes = new Node[ruleClasses.length];
+        for (int i = 0; i < ruleClasses.length; i++) {
+            BusinessRule rule = ruleClasses[i].getAnnotation(BusinessRule.class);
+            nodes[i] = new Node(i, ruleClasses[i], instantiate(ruleClasses[i]), dependencies(ruleClasses[i], indexes),
+                    metadata.properties(rule == null ? new String[0] : rule.inputs()));
+        }
+        this.layers = layers(nodes);
+        this.size = nodes.length;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private RuleSetPlan(Class<?> ruleSetClass, RuleDispatchTable table) {
+        this.ruleSetClass = ruleSetClass;
+        this.aggregateType = table.getAggregateType();
+        Class<?>[] ruleClasses = table.getRuleClasses();
+        Rule<?>[] rules = table.createRules();
+        int[][] dependencies = table.getDependencies();
+        String[][] inputs = table.getInputs();
+        AggregateMetadata metadata = AggregateMetadata.of(aggregateType);
+        Node[] nodes = new Node[ruleClasses.length];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new Node(i, ruleClasses[i], (Rule<Object>) rules[i], dependencies[i], metadata.properties(inputs[i]));
+        }
+        this.layers = nodesOf(table.getLayers(), nodes);
+        this.size = nodes.length;
+    }
+    
+    Class<?> getRuleSetClass() {
+        return ruleSetClass;
+    }
+    
+    Class<?> getAggregateType() {
+        return aggregateType;
+    }
+    
+    Node[][] getLayers() {
+        return layers;
+    }
+    
+    /**
+     * Rule classes ordered by their indexes.
+     */
+    Class<?>[] getRuleClasses() {
+        Class<?>[] ruleClasses = new Class<?>[size];
+        for (Node[] layer : layers) {
+            for (Node node : layer) {
+                ruleClasses[node.index] = node.ruleClass;
+            }
+        }
+        return ruleClasses;
+    }
+    
+    int size() {
+        return size;
+    }
+    
+    void checkAggregate(Object aggregate) {
+        if (!aggregateType.isInstance(aggregate)) {
+            throw new RuleEvaluationException(ruleSetClass.getName() + " validates " + aggregateType.getName()
+                    + ", not " + (aggregate == null ? null : aggregate.getClass().getName()));
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private Rule<Object> instantiate(Class<?> ruleClass) {
+        if (!Rule.class.isAssignableFrom(ruleClass)) {
+            throw new RuleEvaluationException(ruleClass.getName() + " of " + ruleSetClass.getName() + " does not implement Rule");
+        }
+        try {
+            return (Rule<Object>) ruleClass.newInstance();
+        } catch (InstantiationException e) {
+            throw new RuleEvaluationException("Can't instantiate rule " + ruleClass.getName(), e);
+        } catch (IllegalAccessException e) {
+            throw new RuleEvaluationException("Can't instantiate rule " + ruleClass.getName(), e);
+        }
+    }
+    
+    private int[] dependencies(Class<?> ruleClass, Map<Class<?>, Integer> indexes) {
+        BusinessRule rule = ruleClass.getAnnotation(BusinessRule.class);
+        Class<?>[] dependsOn = rule == null ? new Class<?>[0] : rule.dependsOn();
+        int[] dependencies = new int[dependsOn.length];
+        for (int i = 0; i < dependsOn.length; i++) {
+            Integer index = indexes.get(dependsOn[i]);
+            if (index == null) {
+                throw new RuleEvaluationException(ruleClass.getName() + " depends on " + dependsOn[i].getName()
+                        + " which is not in " + ruleSetClass.getName());
+            }
+            dependencies[i] = index;
+        }
+        return dependencies;
+    }
+    
+    private Node[][] layers(Node[] nodes) {
+        int[][] dependencies = new int[nodes.length][];
+        for (int i = 0; i < nodes.length; i++) {
+            dependencies[i] = nodes[i].dependencies;
+        }
+        int[][] layerIndexes = RuleLayers.of(dependencies);
+        if (layerIndexes == null) {
+            throw new RuleEvaluationException("Cyclic rule dependencies in " + ruleSetClass.getName());
+        }
+        return nodesOf(layerIndexes, nodes);
+    }
+    
+    private static Node[][] nodesOf(int[][] layerIndexes, Node[] nodes) {
+        Node[][] layers = new Node[layerIndexes.length][];
+        for (int i = 0; i < layerIndexes.length; i++) {
+            layers[i] = new Node[layerIndexes[i].length];
+            for (int j = 0; j < layerIndexes[i].length; j++) {
+                layers[i][j] = nodes[layerIndexes[i][j]];
+            }
+        }
+        return layers;
+    }
+}
@@ -0,0 +1,294 @@
+package server.rules;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+import server.BusinessRule;
+import server.BusinessRuleSet;
+
+/**
+ * Generates {@link RuleDispatchTable} of each {@link BusinessRuleSet} at
+ * compile time, named <code>&lt;RuleSet&gt;DispatchTable</code>.
+ * <p>
+ * Rules are checked to implement {@link Rule} of rule set aggregate, have
+ * public no-argument constructor, depend only on rules of the same set
+ * without cycles and read only existing properties of aggregate, violations
+ * are reported as compilation errors. Evaluation layers are computed by
+ * processor, so {@link RuleEngine} only walks arrays. Accessors of rule inputs
+ * are not generated, see {@link RuleDispatchTable}.
+ * <p>
+ * Processor is registered in <code>META-INF/services</code>, so it runs
+ * whenever this module is on compilation class path.
+ */
+@SupportedAnnotationTypes("server.BusinessRuleSet")
+public class RuleSetProcessor extends AbstractProcessor {
+    
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+    
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(BusinessRuleSet.class)) {
+            if (element.getKind() == ElementKind.CLASS || element.getKind() == ElementKind.INTERFACE) {
+                generate((TypeElement) element);
+            }
+        }
+        return false;
+    }
+    
+    private void generate(TypeElement ruleSet) {
+        AnnotationMirror annotation = annotation(ruleSet, BusinessRuleSet.class.getName());
+        TypeMirror aggregate = (TypeMirror) value(annotation, "aggregates").getValue();
+        List<TypeElement> rules = typesOf(value(annotation, "rules"));
+        boolean valid = true;
+        for (TypeElement rule : rules) {
+            valid &= checkRule(ruleSet, rule, aggregate);
+        }
+        if (!valid) {
+            return;
+        }
+        int[][] dependencies = new int[rules.size()][];
+        String[][] inputs = new String[rules.size()][];
+        for (int i = 0; i < rules.size(); i++) {
+            dependencies[i] = dependencies(ruleSet, rules.get(i), rules);
+            inputs[i] = inputs(ruleSet, rules.get(i), aggregate);
+            if (dependencies[i] == null || inputs[i] == null) {
+                return;
+            }
+        }
+        int[][] layers = RuleLayers.of(dependencies);
+        if (layers == null) {
+            error(ruleSet, "cyclic rule dependencies");
+            return;
+        }
+        write(ruleSet, aggregate, rules, dependencies, inputs, layers);
+    }
+    
+    private boolean checkRule(TypeElement ruleSet, TypeElement rule, TypeMirror aggregate) {
+        Types types = processingEnv.getTypeUtils();
+        TypeElement ruleInterface = processingEnv.getElementUtils().getTypeElement(Rule.class.getName());
+        DeclaredType expected = types.getDeclaredType(ruleInterface, types.getWildcardType(null, aggregate));
+        if (!types.isAssignable(rule.asType(), expected)) {
+            error(ruleSet, rule.getQualifiedName() + " does not implement Rule of " + aggregate);
+            return false;
+        }
+        if (rule.getKind() != ElementKind.CLASS || rule.getModifiers().contains(Modifier.ABSTRACT)
+                || !rule.getModifiers().contains(Modifier.PUBLIC)
+                || (rule.getNestingKind() == NestingKind.MEMBER && !rule.getModifiers().contains(Modifier.STATIC))) {
+            error(ruleSet, rule.getQualifiedName() + " should be public concrete top level or static nested class");
+            return false;
+        }
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(rule.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC)) {
+                return true;
+            }
+        }
+        error(ruleSet, rule.getQualifiedName() + " should have public no-argument constructor");
+        return false;
+    }
+    
+    private int[] dependencies(TypeElement ruleSet, TypeElement rule, List<TypeElement> rules) {
+        AnnotationMirror annotation = annotation(rule, BusinessRule.class.getName());
+        List<TypeElement> dependsOn = annotation == null ? Collections.<TypeElement> emptyList() : typesOf(value(annotation, "dependsOn"));
+        int[] dependencies = new int[dependsOn.size()];
+        for (int i = 0; i < dependencies.length; i++) {
+            dependencies[i] = rules.indexOf(dependsOn.get(i));
+            if (dependencies[i] < 0) {
+                error(ruleSet, rule.getQualifiedName() + " depends on " + dependsOn.get(i).getQualifiedName() + " which is not in rule set");
+                return null;
+            }
+        }
+        return dependencies;
+    }
+    
+    private String[] inputs(TypeElement ruleSet, TypeElement rule, TypeMirror aggregate) {
+        AnnotationMirror annotation = annotation(rule, BusinessRule.class.getName());
+        AnnotationValue value = annotation == null ? null : value(annotation, "inputs");
+        List<?> items = value == null ? Collections.emptyList() : (List<?>) value.getValue();
+        String[] inputs = new String[items.size()];
+        TypeElement aggregateElement = (TypeElement) processingEnv.getTypeUtils().asElement(aggregate);
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = (String) ((AnnotationValue) items.get(i)).getValue();
+            if (!hasProperty(aggregateElement, inputs[i])) {
+                error(ruleSet, rule.getQualifiedName() + " reads " + inputs[i] + " which is not property of " + aggregate);
+                return null;
+            }
+        }
+        return inputs;
+    }
+    
+    private boolean hasProperty(TypeElement type, String name) {
+        String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        for (TypeElement current = type; current != null; current = superclass(current)) {
+            for (Element member : current.getEnclosedElements()) {
+                String memberName = member.getSimpleName().toString();
+                if (member.getKind() == ElementKind.FIELD && memberName.equals(name)) {
+                    return true;
+                }
+                if (member.getKind() == ElementKind.METHOD && ((ExecutableElement) member).getParameters().isEmpty()
+                        && (memberName.equals("get" + suffix) || memberName.equals("is" + suffix))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    private TypeElement superclass(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        return superclass.getKind() == TypeKind.DECLARED ? (TypeElement) processingEnv.getTypeUtils().asElement(superclass) : null;
+    }
+    
+    private void write(TypeElement ruleSet, TypeMirror aggregate, List<TypeElement> rules, int[][] dependencies, String[][] inputs,
+            int[][] layers) {
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(ruleSet);
+        String packageName = packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+        String simpleName = ruleSet.getQualifiedName().toString().substring(packageName.isEmpty() ? 0 : packageName.length() + 1)
+                .replace('.', '_') + RuleDispatchTable.CLASS_NAME_SUFFIX;
+        String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+        try {
+            PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(qualifiedName, ruleSet).openWriter());
+            try {
+                if (!packageName.isEmpty()) {
+                    out.println("package " + packageName + ";");
+                    out.println();
+                }
+                out.println("@javax.annotation.Generated(\"" + RuleSetProcessor.class.getName() + "\")");
+                out.println("public final class " + simpleName + " implements server.rules.RuleDispatchTable {");
+                out.println();
+                out.println("    @Override");
+                out.println("    public Class<?> getAggregateType() {");
+                out.println("        return " + processingEnv.getTypeUtils().erasure(aggregate) + ".class;");
+                out.println("    }");
+                out.println();
+                out.println("    @Override");
+                out.println("    public Class<?>[] getRuleClasses() {");
+                out.print("        return new Class<?>[] {");
+                for (int i = 0; i < rules.size(); i++) {
+                    out.print((i == 0 ? " " : ", ") + rules.get(i).getQualifiedName() + ".class");
+                }
+                out.println(" };");
+                out.println("    }");
+                out.println();
+                out.println("    @Override");
+                out.println("    public server.rules.Rule<?>[] createRules() {");
+                out.print("        return new server.rules.Rule<?>[] {");
+                for (int i = 0; i < rules.size(); i++) {
+                    out.print((i == 0 ? " " : ", ") + "new " + rules.get(i).getQualifiedName() + "()");
+                }
+                out.println(" };");
+                out.println("    }");
+                out.println();
+                out.println("    @Override");
+                out.println("    public int[][] getDependencies() {");
+                out.println("        return " + arrays(dependencies) + ";");
+                out.println("    }");
+                out.println();
+                out.println("    @Override");
+                out.println("    public String[][] getInputs() {");
+                out.println("        return " + arrays(inputs) + ";");
+                out.println("    }");
+                out.println();
+                out.println("    @Override");
+                out.println("    public int[][] getLayers() {");
+                out.println("        return " + arrays(layers) + ";");
+                out.println("    }");
+                out.println("}");
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            error(ruleSet, "can't generate " + qualifiedName + ": " + e.getMessage());
+        }
+    }
+    
+    private static String arrays(String[][] arrays) {
+        StringBuilder builder = new StringBuilder("new String[][] {");
+        for (int i = 0; i < arrays.length; i++) {
+            builder.append(i == 0 ? " {" : ", {");
+            for (int j = 0; j < arrays[i].length; j++) {
+                builder.append(j == 0 ? " \"" : ", \"").append(arrays[i][j]).append('"');
+            }
+            builder.append(arrays[i].length == 0 ? "}" : " }");
+        }
+        return builder.append(" }").toString();
+    }
+    
+    private static String arrays(int[][] arrays) {
+        StringBuilder builder = new StringBuilder("new int[][] {");
+        for (int i = 0; i < arrays.length; i++) {
+            builder.append(i == 0 ? " {" : ", {");
+            int[] array = arrays[i];
+            for (int j = 0; j < array.length; j++) {
+                builder.append(j == 0 ? " " : ", ").append(array[j]);
+            }
+            builder.append(array.length == 0 ? "}" : " }");
+        }
+        return builder.append(" }").toString();
+    }
+    
+    private List<TypeElement> typesOf(AnnotationValue value) {
+        List<TypeElement> types = new ArrayList<TypeElement>();
+        if (value == null) {
+            return types;
+        }
+        for (Object item : (List<?>) value.getValue()) {
+            TypeMirror type = (TypeMirror) ((AnnotationValue) item).getValue();
+            types.add((TypeElement) processingEnv.getTypeUtils().asElement(type));
+        }
+        return types;
+    }
+    
+    private static AnnotationMirror annotation(Element element, String annotationName) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotationName)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Explicitly given value of annotation element, <code>null</code> for
+     * default value.
+     */
+    private static AnnotationValue value(AnnotationMirror annotation, String name) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : annotation.getElementValues().entrySet()) {
+            if (value.getKey().getSimpleName().contentEquals(name)) {
+                return value.getValue();
+            }
+        }
+        return null;
+    }
+    
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
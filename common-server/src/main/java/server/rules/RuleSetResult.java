@@ -0,0 +1,97 @@
+package server.rules;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Consolidated result of rule set evaluation: violations of all evaluated
+ * rules and rules skipped because of hard violations.
+ */
+public class RuleSetResult implements Serializable {
+    
+    private static final long serialVersionUID = -2305894617209453172L;
+    
+    private final List<Violation> violations;
+    private final int evaluatedRules;
+    private final int reusedRules;
+    private final int skippedRules;
+    private final boolean shortCircuited;
+    
+    RuleSetResult(List<Violation> violations, int evaluatedRules, int reusedRules, int skippedRules, boolean shortCircuited) {
+        this.violations = Collections.unmodifiableList(violations);
+        this.evaluatedRules = evaluatedRules;
+        this.reusedRules = reusedRules;
+        this.skippedRules = skippedRules;
+        this.shortCircuited = shortCircuited;
+    }
+    
+    /**
+     * Aggregate is valid when no rule is violated hard.
+     */
+    public boolean isValid() {
+        for (Violation violation : violations) {
+            if (violation.isHard()) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    public List<Violation> getViolations() {
+        return violations;
+    }
+    
+    public List<Violation> getViolations(Severity severity) {
+        List<Violation> result = new ArrayList<Violation>(violations.size());
+        for (Violation violation : violations) {
+            if (violation.getSeverity() == severity) {
+                result.add(violation);
+            }
+        }
+        return result;
+    }
+    
+    public int getEvaluatedRules() {
+        return evaluatedRules;
+    }
+    
+    /**
+     * Evaluated rules whose outcomes were taken from {@link RuleResultCache}.
+     */
+    public int getReusedRules() {
+        return reusedRules;
+    }
+    
+    /**
+     * Rules not evaluated because rule they depend on was violated hard or
+     * evaluation was short-circuited.
+     */
+    public int getSkippedRules() {
+        return skippedRules;
+    }
+    
+    public boolean isShortCircuited() {
+        return shortCircuited;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("RuleSetResult [valid=");
+        builder.append(isValid());
+        builder.append(", violations=");
+        builder.append(violations);
+        builder.append(", evaluatedRules=");
+        builder.append(evaluatedRules);
+        builder.append(", reusedRules=");
+        builder.append(reusedRules);
+        builder.append(", skippedRules=");
+        builder.append(skippedRules);
+        builder.append(", shortCircuited=");
+        builder.append(shortCircuited);
+        builder.append("]");
+        return builder.toString();
+    }
+}
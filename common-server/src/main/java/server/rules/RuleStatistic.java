@@ -0,0 +1,130 @@
+package server.rules;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free counters of single rule of rule set: outcomes and latency
+ * histogram with power of two microseconds buckets.
+ * <p>
+ * Counters and maximal duration are striped by thread, each stripe occupies
+ * its own cache lines, so threads evaluating the same rule do not contend on
+ * the same counter. Stripes are summed by {@link #snapshot()}.
+ * 
+ * @see RuleStatistics
+ */
+class RuleStatistic {
+    
+    static final int EVALUATIONS = 0;
+    static final int PASSED = 1;
+    static final int HARD_VIOLATIONS = 2;
+    static final int SOFT_VIOLATIONS = 3;
+    static final int FAILURES = 4;
+    static final int SKIPPED = 5;
+    static final int SHORT_CIRCUITS = 6;
+    static final int REUSED = 7;
+    static final int TOTAL_NANOS = 8;
+    static final int HISTOGRAM = 9;
+    static final int BUCKETS = 32;
+    /** maximum of stripe, not sum */
+    static final int MAX_NANOS = HISTOGRAM + BUCKETS;
+    /** counters of one stripe padded to whole 64 byte cache lines */
+    static final int STRIPE_WIDTH = (MAX_NANOS + 1 + 7) / 8 * 8 + 8;
+    static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+    
+    private final String aggregateType;
+    private final String ruleSet;
+    private final String rule;
+    private final AtomicLongArray counters = new AtomicLongArray(STRIPES * STRIPE_WIDTH);
+    
+    RuleStatistic(String aggregateType, String ruleSet, String rule) {
+        this.aggregateType = aggregateType;
+        this.ruleSet = ruleSet;
+        this.rule = rule;
+    }
+    
+    /**
+     * Records execution of given duration with outcome counter
+     * {@link #PASSED}, {@link #HARD_VIOLATIONS}, {@link #SOFT_VIOLATIONS} or
+     * {@link #FAILURES}.
+     */
+    void recordEvaluation(long nanos, int outcome) {
+        int stripe = stripe();
+        counters.incrementAndGet(stripe + EVALUATIONS);
+        counters.incrementAndGet(stripe + outcome);
+        counters.addAndGet(stripe + TOTAL_NANOS, nanos);
+        counters.incrementAndGet(stripe + HISTOGRAM + bucketOf(nanos));
+        long max = counters.get(stripe + MAX_NANOS);
+        while (nanos > max && !counters.compareAndSet(stripe + MAX_NANOS, max, nanos)) {
+            max = counters.get(stripe + MAX_NANOS);
+        }
+    }
+    
+    void record(int counter, long count) {
+        if (count != 0) {
+            counters.addAndGet(stripe() + counter, count);
+        }
+    }
+    
+    static int bucketOf(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+    
+    RuleStatisticsSnapshot snapshot() {
+        long[] totals = new long[HISTOGRAM + BUCKETS];
+        long maxNanos = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            for (int i = 0; i < totals.length; i++) {
+                totals[i] += counters.get(stripe * STRIPE_WIDTH + i);
+            }
+            maxNanos = Math.max(maxNanos, counters.get(stripe * STRIPE_WIDTH + MAX_NANOS));
+        }
+        long evaluations = totals[EVALUATIONS];
+        long[] buckets = new long[BUCKETS];
+        System.arraycopy(totals, HISTOGRAM, buckets, 0, BUCKETS);
+        return new RuleStatisticsSnapshot(aggregateType, ruleSet, rule, evaluations, totals[PASSED],
+                totals[HARD_VIOLATIONS], totals[SOFT_VIOLATIONS], totals[FAILURES], totals[SKIPPED],
+                totals[SHORT_CIRCUITS], totals[REUSED],
+                evaluations == 0 ? 0 : toMillis(totals[TOTAL_NANOS]) / evaluations,
+                toMillis(maxNanos),
+                percentileMillis(buckets, evaluations, 0.50),
+                percentileMillis(buckets, evaluations, 0.95),
+                percentileMillis(buckets, evaluations, 0.99));
+    }
+    
+    private static int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id ^ (id >>> 16)) & (STRIPES - 1)) * STRIPE_WIDTH;
+    }
+    
+    /**
+     * Power of two not lower than number of processors, at most 16.
+     */
+    private static int stripes(int processors) {
+        int stripes = 1;
+        while (stripes < processors && stripes < 16) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+    
+    /**
+     * Upper bound of bucket holding given percentile.
+     */
+    private static double percentileMillis(long[] buckets, long count, double percentile) {
+        long threshold = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= threshold && seen > 0) {
+                return (1L << i) / 1000.0;
+            }
+        }
+        return 0;
+    }
+    
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,159 @@
+package server.rules;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import server.BusinessRule;
+
+/**
+ * Per rule statistics of {@link RuleEngine} evaluations: latency histograms,
+ * outcome counts, short-circuits and reuse of memoized outcomes for each
+ * {@link BusinessRule} of each rule set and its aggregate type, and the same
+ * for whole rule set evaluations.
+ * <p>
+ * Statistics are disabled by default, when disabled each evaluation costs
+ * single volatile read. Statistics are switched on by
+ * {@link #setEnabled(boolean)}, JMX or system property
+ * <strong>server.rules.statistics.enabled=true</strong>.
+ * <p>
+ * Shared statistics are registered in platform MBean server when this class is
+ * loaded, under {@link #getObjectName()}
+ * (<strong>server:type=RuleStatistics,context=&lt;class loader&gt;</strong>),
+ * so they can be switched on by JMX while disabled. Application unregisters
+ * them by {@link #unregisterMBean()} when it is undeployed.
+ */
+public class RuleStatistics implements RuleStatisticsMXBean {
+    
+    public static final String OBJECT_NAME = "server:type=RuleStatistics";
+    
+    private static final Logger log = Logger.getLogger(RuleStatistics.class.getName());
+    private static final RuleStatistics shared = new RuleStatistics(Boolean.getBoolean("server.rules.statistics.enabled"));
+    
+    static {
+        shared.registerMBean();
+    }
+    
+    public static RuleStatistics getShared() {
+        return shared;
+    }
+    
+    /**
+     * Statistics of rule set and its rules by rule index, or <code>null</code>
+     * when statistics are disabled.
+     */
+    static RuleSetStatistics of(RuleSetPlan plan) {
+        return shared.enabled ? shared.statisticsOf(plan) : null;
+    }
+    
+    /**
+     * Statistics of single rule set, whole evaluation and rules by index.
+     */
+    static class RuleSetStatistics {
+        
+        final RuleStatistic ruleSet;
+        final RuleStatistic[] rules;
+        
+        RuleSetStatistics(RuleSetPlan plan) {
+            String aggregateType = plan.getAggregateType().getName();
+            String ruleSetName = plan.getRuleSetClass().getName();
+            this.ruleSet = new RuleStatistic(aggregateType, ruleSetName, ruleSetName);
+            Class<?>[] ruleClasses = plan.getRuleClasses();
+            this.rules = new RuleStatistic[ruleClasses.length];
+            for (int i = 0; i < ruleClasses.length; i++) {
+                rules[i] = new RuleStatistic(aggregateType, ruleSetName, ruleClasses[i].getName());
+            }
+        }
+    }
+    
+    private volatile boolean enabled;
+    private final ConcurrentMap<Class<?>, RuleSetStatistics> byRuleSet = new ConcurrentHashMap<Class<?>, RuleSetStatistics>();
+    private boolean registered;
+    
+    RuleStatistics(boolean enabled) {
+        setEnabled(enabled);
+    }
+    
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+    
+    @Override
+    public List<RuleStatisticsSnapshot> getSnapshots() {
+        List<RuleStatisticsSnapshot> snapshots = new ArrayList<RuleStatisticsSnapshot>();
+        for (RuleSetStatistics statistics : byRuleSet.values()) {
+            snapshots.add(statistics.ruleSet.snapshot());
+            for (RuleStatistic rule : statistics.rules) {
+                snapshots.add(rule.snapshot());
+            }
+        }
+        return snapshots;
+    }
+    
+    @Override
+    public void reset() {
+        byRuleSet.clear();
+    }
+    
+    /**
+     * Name of bean, {@link #OBJECT_NAME} qualified by class loader of this
+     * class, so applications bundling own copy of this library have own beans.
+     */
+    public static String getObjectName() {
+        return OBJECT_NAME + ",context=" + Integer.toHexString(System.identityHashCode(RuleStatistics.class.getClassLoader()));
+    }
+    
+    public synchronized void registerMBean() {
+        if (registered) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(getObjectName()));
+            registered = true;
+        } catch (JMException e) {
+            log.log(Level.WARNING, "Can't register rule statistics in MBean server", e);
+        }
+    }
+    
+    /**
+     * Unregisters bean, application calls it when it is undeployed (for
+     * example in <code>ServletContextListener.contextDestroyed</code>), so
+     * MBean server does not hold its class loader.
+     */
+    public synchronized void unregisterMBean() {
+        if (!registered) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(getObjectName()));
+        } catch (JMException e) {
+            log.log(Level.WARNING, "Can't unregister rule statistics from MBean server", e);
+        }
+        registered = false;
+    }
+    
+    private RuleSetStatistics statisticsOf(RuleSetPlan plan) {
+        RuleSetStatistics statistics = byRuleSet.get(plan.getRuleSetClass());
+        if (statistics == null) {
+            RuleSetStatistics created = new RuleSetStatistics(plan);
+            statistics = byRuleSet.putIfAbsent(plan.getRuleSetClass(), created);
+            if (statistics == null) {
+                statistics = created;
+            }
+        }
+        return statistics;
+    }
+}
@@ -0,0 +1,18 @@
+package server.rules;
+
+import java.util.List;
+
+/**
+ * JMX view of {@link RuleStatistics}, registered as
+ * {@link RuleStatistics#getObjectName()}.
+ */
+public interface RuleStatisticsMXBean {
+    
+    boolean isEnabled();
+    
+    void setEnabled(boolean enabled);
+    
+    List<RuleStatisticsSnapshot> getSnapshots();
+    
+    void reset();
+}
@@ -0,0 +1,170 @@
+package server.rules;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Point in time view of statistics of single rule of rule set, or of whole
+ * rule set when {@link #getRule()} equals {@link #getRuleSet()}. Rule set
+ * counts evaluated aggregates: passed are valid ones, hard violations are
+ * invalid ones, skipped and reused are summed over its rules.
+ * 
+ * @see RuleStatistics#getSnapshots()
+ */
+public class RuleStatisticsSnapshot {
+    
+    private final String aggregateType;
+    private final String ruleSet;
+    private final String rule;
+    private final long evaluations;
+    private final long passed;
+    private final long hardViolations;
+    private final long softViolations;
+    private final long failures;
+    private final long skipped;
+    private final long shortCircuits;
+    private final long reused;
+    private final double meanMillis;
+    private final double maxMillis;
+    private final double medianMillis;
+    private final double percentile95Millis;
+    private final double percentile99Millis;
+    
+    @ConstructorProperties({ "aggregateType", "ruleSet", "rule", "evaluations", "passed", "hardViolations", "softViolations", "failures", "skipped", "shortCircuits", "reused", "meanMillis", "maxMillis", "medianMillis", "percentile95Millis", "percentile99Millis" })
+    public RuleStatisticsSnapshot(String aggregateType, String ruleSet, String rule, long evaluations, long passed,
+            long hardViolations, long softViolations, long failures, long skipped, long shortCircuits, long reused,
+            double meanMillis, double maxMillis, double medianMillis, double percentile95Millis, double percentile99Millis) {
+        this.aggregateType = aggregateType;
+        this.ruleSet = ruleSet;
+        this.rule = rule;
+        this.evaluations = evaluations;
+        this.passed = passed;
+        this.hardViolations = hardViolations;
+        this.softViolations = softViolations;
+        this.failures = failures;
+        this.skipped = skipped;
+        this.shortCircuits = shortCircuits;
+        this.reused = reused;
+        this.meanMillis = meanMillis;
+        this.maxMillis = maxMillis;
+        this.medianMillis = medianMillis;
+        this.percentile95Millis = percentile95Millis;
+        this.percentile99Millis = percentile99Millis;
+    }
+    
+    public String getAggregateType() {
+        return aggregateType;
+    }
+    
+    public String getRuleSet() {
+        return ruleSet;
+    }
+    
+    public String getRule() {
+        return rule;
+    }
+    
+    /**
+     * Number of executions, without outcomes reused from
+     * {@link RuleResultCache}.
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+    
+    public long getPassed() {
+        return passed;
+    }
+    
+    public long getHardViolations() {
+        return hardViolations;
+    }
+    
+    public long getSoftViolations() {
+        return softViolations;
+    }
+    
+    /**
+     * Executions ended by exception.
+     */
+    public long getFailures() {
+        return failures;
+    }
+    
+    /**
+     * Rule not evaluated because of hard violation of rule it depends on or
+     * short-circuit.
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+    
+    /**
+     * Hard violations which stopped short-circuit evaluation.
+     */
+    public long getShortCircuits() {
+        return shortCircuits;
+    }
+    
+    /**
+     * Outcomes reused from {@link RuleResultCache}.
+     */
+    public long getReused() {
+        return reused;
+    }
+    
+    /**
+     * Share of outcomes reused from {@link RuleResultCache}.
+     */
+    public double getHitRate() {
+        return reused + evaluations == 0 ? 0 : reused / (double) (reused + evaluations);
+    }
+    
+    public double getMeanMillis() {
+        return meanMillis;
+    }
+    
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+    
+    public double getMedianMillis() {
+        return medianMillis;
+    }
+    
+    public double getPercentile95Millis() {
+        return percentile95Millis;
+    }
+    
+    public double getPercentile99Millis() {
+        return percentile99Millis;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("RuleStatisticsSnapshot [aggregateType=");
+        builder.append(aggregateType);
+        builder.append(", rule=");
+        builder.append(rule);
+        builder.append(", evaluations=");
+        builder.append(evaluations);
+        builder.append(", passed=");
+        builder.append(passed);
+        builder.append(", hardViolations=");
+        builder.append(hardViolations);
+        builder.append(", softViolations=");
+        builder.append(softViolations);
+        builder.append(", shortCircuits=");
+        builder.append(shortCircuits);
+        builder.append(", hitRate=");
+        builder.append(getHitRate());
+        builder.append(", meanMillis=");
+        builder.append(meanMillis);
+        builder.append(", percentile95Millis=");
+        builder.append(percentile95Millis);
+        builder.append(", maxMillis=");
+        builder.append(maxMillis);
+        builder.append("]");
+        return builder.toString();
+    }
+}
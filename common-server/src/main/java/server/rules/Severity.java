@@ -0,0 +1,18 @@
+package server.rules;
+
+/**
+ * Severity of rule {@link Violation}.
+ */
+public enum Severity {
+    
+    /**
+     * Aggregate is invalid, dependent rules are skipped and evaluation may be
+     * short-circuited.
+     */
+    HARD,
+    
+    /**
+     * Aggregate is valid, violation is warning only.
+     */
+    SOFT
+}
@@ -0,0 +1,68 @@
+package server.rules;
+
+import java.io.Serializable;
+
+/**
+ * Violation of business rule returned by {@link Rule#evaluate(Object)}.
+ */
+public class Violation implements Serializable {
+    
+    private static final long serialVersionUID = 6471903425566081147L;
+    
+    public static Violation hard(String message) {
+        return new Violation(null, Severity.HARD, message);
+    }
+    
+    public static Violation soft(String message) {
+        return new Violation(null, Severity.SOFT, message);
+    }
+    
+    private final Class<?> rule;
+    private final Severity severity;
+    private final String message;
+    
+    Violation(Class<?> rule, Severity severity, String message) {
+        this.rule = rule;
+        this.severity = severity;
+        this.message = message;
+    }
+    
+    /**
+     * Same violation attributed to given rule.
+     */
+    Violation of(Class<?> ruleClass) {
+        return rule == ruleClass ? this : new Violation(ruleClass, severity, message);
+    }
+    
+    /**
+     * Class of violated rule.
+     */
+    public Class<?> getRule() {
+        return rule;
+    }
+    
+    public Severity getSeverity() {
+        return severity;
+    }
+    
+    public boolean isHard() {
+        return severity == Severity.HARD;
+    }
+    
+    public String getMessage() {
+        return message;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Violation [rule=");
+        builder.append(rule == null ? null : rule.getSimpleName());
+        builder.append(", severity=");
+        builder.append(severity);
+        builder.append(", message=");
+        builder.append(message);
+        builder.append("]");
+        return builder.toString();
+    }
+}
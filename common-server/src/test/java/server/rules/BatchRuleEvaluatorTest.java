@@ -0,0 +1,179 @@
+package server.rules;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import server.BusinessRule;
+import server.BusinessRuleSet;
+
+public class BatchRuleEvaluatorTest {
+    
+    @BusinessRuleSet(aggregates = Item.class, rules = { PositiveRule.class, EvenRule.class })
+    public static class ItemRules {
+    }
+    
+    @BusinessRule
+    public static class PositiveRule implements Rule<Item> {
+        
+        @Override
+        public Violation evaluate(Item item) {
+            if (item.number == 0) {
+                throw new IllegalStateException("broken item");
+            }
+            sleep(item.progress.evaluationMillis);
+            item.progress.evaluated.incrementAndGet();
+            return item.number < 0 ? Violation.hard("should be positive") : null;
+        }
+    }
+    
+    @BusinessRule
+    public static class EvenRule implements Rule<Item> {
+        
+        @Override
+        public Violation evaluate(Item item) {
+            return item.number % 2 != 0 ? Violation.soft("should be even") : null;
+        }
+    }
+    
+    @Test
+    public void shouldSummarizeViolationsInCallingThread() {
+        Progress progress = new Progress(0);
+        RuleBatchSummary summary = new BatchRuleEvaluator(null, 3, 1).evaluate(ItemRules.class,
+                progress.items(2, -4, 5, -7, 8), false, null);
+        assertThat(summary.getAggregates()).isEqualTo(5);
+        assertThat(summary.getInvalidAggregates()).isEqualTo(2);
+        assertThat(summary.getValidAggregates()).isEqualTo(3);
+        assertThat(summary.getViolations(PositiveRule.class, Severity.HARD)).isEqualTo(2);
+        assertThat(summary.getViolations(EvenRule.class, Severity.SOFT)).isEqualTo(2);
+        assertThat(summary.getFailedAggregates()).isEqualTo(0);
+    }
+    
+    @Test
+    public void shouldCountFailedAggregatesAndContinue() {
+        Progress progress = new Progress(0);
+        RuleBatchSummary summary = new BatchRuleEvaluator(null, 2, 1).evaluate(ItemRules.class,
+                progress.items(2, 0, 4, 0, 6), false, null);
+        assertThat(summary.getAggregates()).isEqualTo(5);
+        assertThat(summary.getFailedAggregates()).isEqualTo(2);
+        assertThat(summary.getValidAggregates()).isEqualTo(3);
+        assertThat(summary.getFirstFailure().getCause()).isInstanceOf(IllegalStateException.class);
+    }
+    
+    @Test
+    public void shouldCountFailedListenerAsFailedAggregate() {
+        Progress progress = new Progress(0);
+        RuleBatchSummary summary = new BatchRuleEvaluator(null, 2, 1).evaluate(ItemRules.class, progress.items(2, -4, 6),
+                false, new BatchRuleEvaluator.ViolationListener() {
+                    @Override
+                    public void violated(Object aggregate, List<Violation> violations) {
+                        throw new IllegalStateException("report is full");
+                    }
+                });
+        assertThat(summary.getAggregates()).isEqualTo(3);
+        assertThat(summary.getFailedAggregates()).isEqualTo(1);
+        assertThat(summary.getInvalidAggregates()).isEqualTo(0);
+        assertThat(summary.getFirstFailure().getMessage()).contains("Violation listener");
+    }
+    
+    @Test
+    public void shouldNotReadAheadMoreThanChunksInFlight() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Progress progress = new Progress(1);
+            int[] numbers = new int[100];
+            for (int i = 0; i < numbers.length; i++) {
+                numbers[i] = i + 1;
+            }
+            RuleBatchSummary summary = new BatchRuleEvaluator(executor, 5, 2).evaluate(ItemRules.class,
+                    progress.items(numbers), false, null);
+            assertThat(summary.getAggregates()).isEqualTo(100);
+            assertThat(summary.getViolations(EvenRule.class, Severity.SOFT)).isEqualTo(50);
+            assertThat(progress.maximumReadAhead).isLessThanOrEqualTo(5 * 2);
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    @Test
+    public void shouldWaitForSubmittedChunksWhenExecutorRejectsChunk() {
+        ExecutorService executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new SynchronousQueue<Runnable>());
+        Progress progress = new Progress(50);
+        try {
+            new BatchRuleEvaluator(executor, 2, 2).evaluate(ItemRules.class, progress.items(1, 2, 3, 4), false, null);
+            fail("rejection expected");
+        } catch (RejectedExecutionException e) {
+            assertThat(progress.evaluated.get()).isEqualTo(2);
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    public static class Item {
+        
+        final int number;
+        final Progress progress;
+        
+        Item(int number, Progress progress) {
+            this.number = number;
+            this.progress = progress;
+        }
+    }
+    
+    /**
+     * Aggregates read from iterator and evaluated by rules of single test.
+     */
+    static class Progress {
+        
+        final long evaluationMillis;
+        final AtomicInteger evaluated = new AtomicInteger();
+        volatile int maximumReadAhead;
+        
+        Progress(long evaluationMillis) {
+            this.evaluationMillis = evaluationMillis;
+        }
+        
+        Iterator<Item> items(final int... numbers) {
+            return new Iterator<Item>() {
+                
+                private int read;
+                
+                @Override
+                public boolean hasNext() {
+                    return read < numbers.length;
+                }
+                
+                @Override
+                public Item next() {
+                    read++;
+                    maximumReadAhead = Math.max(maximumReadAhead, read - evaluated.get());
+                    return new Item(numbers[read - 1], Progress.this);
+                }
+                
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+    
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package server.rules;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import server.BusinessRule;
+import server.BusinessRuleSet;
+
+public class RuleEngineTest {
+    
+    @BusinessRuleSet(aggregates = SampleOrder.class, rules = { LinesRule.class, QuantityRule.class, StatusRule.class })
+    public static class OrderRules {
+    }
+    
+    @BusinessRuleSet(aggregates = SampleOrder.class, rules = { CyclicRule.class, OtherCyclicRule.class })
+    public static class CyclicRules {
+    }
+    
+    @BusinessRuleSet(aggregates = SampleOrder.class, rules = FailingRule.class)
+    public static class FailingRules {
+    }
+    
+    @BusinessRule
+    public static class LinesRule implements Rule<SampleOrder> {
+        
+        @Override
+        public Violation evaluate(SampleOrder order) {
+            order.evaluatedBy(this);
+            return order.getLines().isEmpty() ? Violation.hard("order has no lines") : null;
+        }
+    }
+    
+    @BusinessRule(dependsOn = LinesRule.class)
+    public static class QuantityRule implements Rule<SampleOrder> {
+        
+        @Override
+        public Violation evaluate(SampleOrder order) {
+            order.evaluatedBy(this);
+            return order.getLines().get(0).getQuantity() > 10 ? Violation.soft("large quantity") : null;
+        }
+    }
+    
+    @BusinessRule
+    public static class StatusRule implements Rule<SampleOrder> {
+        
+        @Override
+        public Violation evaluate(SampleOrder order) {
+            order.evaluatedBy(this);
+            return "CANCELLED".equals(order.getStatus()) ? Violation.hard("order is cancelled") : null;
+        }
+    }
+    
+    @BusinessRule(dependsOn = OtherCyclicRule.class)
+    public static class CyclicRule implements Rule<SampleOrder> {
+        
+        @Override
+        public Violation evaluate(SampleOrder order) {
+            return null;
+        }
+    }
+    
+    @BusinessRule(dependsOn = CyclicRule.class)
+    public static class OtherCyclicRule implements Rule<SampleOrder> {
+        
+        @Override
+        public Violation evaluate(SampleOrder order) {
+            return null;
+        }
+    }
+    
+    @BusinessRule
+    public static class FailingRule implements Rule<SampleOrder> {
+        
+        @Override
+        public Violation evaluate(SampleOrder order) {
+            throw new IllegalStateException("broken rule");
+        }
+    }
+    
+    @Test
+    public void shouldPassValidAggregate() {
+        RuleSetResult result = new RuleEngine().evaluate(OrderRules.class, new SampleOrder(1L, 1L).addLine(1));
+        assertThat(result.isValid()).isTrue();
+        assertThat(result.getViolations()).isEmpty();
+        assertThat(result.getEvaluatedRules()).isEqualTo(3);
+        assertThat(result.getSkippedRules()).isEqualTo(0);
+    }
+    
+    @Test
+    public void shouldAttributeViolationToRule() {
+        RuleSetResult result = new RuleEngine().evaluate(OrderRules.class, new SampleOrder(1L, 1L).addLine(11));
+        assertThat(result.isValid()).isTrue();
+        assertThat(result.getViolations(Severity.SOFT)).hasSize(1);
+        assertThat(result.getViolations().get(0).getRule()).isEqualTo(QuantityRule.class);
+    }
+    
+    @Test
+    public void shouldSkipRulesDependingOnHardViolation() {
+        SampleOrder order = new SampleOrder(1L, 1L);
+        RuleSetResult result = new RuleEngine().evaluate(OrderRules.class, order);
+        assertThat(result.isValid()).isFalse();
+        assertThat(result.getViolations(Severity.HARD)).hasSize(1);
+        assertThat(result.getEvaluatedRules()).isEqualTo(2);
+        assertThat(result.getSkippedRules()).isEqualTo(1);
+        assertThat(result.isShortCircuited()).isFalse();
+        assertThat(order.evaluations(QuantityRule.class)).isEqualTo(0);
+        assertThat(order.evaluations(StatusRule.class)).isEqualTo(1);
+    }
+    
+    @Test
+    public void shouldStopOnFirstHardViolationWhenShortCircuited() {
+        SampleOrder order = new SampleOrder(1L, 1L).addLine(1);
+        order.setStatus("CANCELLED");
+        new RuleEngine().evaluate(OrderRules.class, order);
+        assertThat(order.evaluations(QuantityRule.class)).isEqualTo(1);
+        RuleSetResult result = new RuleEngine().evaluate(OrderRules.class, order, true);
+        assertThat(result.isShortCircuited()).isTrue();
+        assertThat(result.getViolations(Severity.HARD)).hasSize(1);
+        assertThat(result.getSkippedRules()).isEqualTo(1);
+        assertThat(order.evaluations(QuantityRule.class)).isEqualTo(1);
+    }
+    
+    @Test
+    public void shouldEvaluateIndependentRulesInParallel() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            SampleOrder order = new SampleOrder(1L, 1L);
+            order.setStatus("CANCELLED");
+            RuleSetResult result = new RuleEngine(executor).evaluate(OrderRules.class, order);
+            assertThat(result.getViolations(Severity.HARD)).hasSize(2);
+            assertThat(result.getEvaluatedRules()).isEqualTo(2);
+            assertThat(result.getSkippedRules()).isEqualTo(1);
+            assertThat(order.evaluations(QuantityRule.class)).isEqualTo(0);
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    @Test
+    public void shouldRejectCyclicDependencies() {
+        try {
+            new RuleEngine().evaluate(CyclicRules.class, new SampleOrder(1L, 1L));
+            fail("cyclic dependencies expected");
+        } catch (RuleEvaluationException e) {
+            assertThat(e.getMessage()).contains("Cyclic rule dependencies");
+        }
+    }
+    
+    @Test
+    public void shouldWrapFailureOfRule() {
+        try {
+            new RuleEngine().evaluate(FailingRules.class, new SampleOrder(1L, 1L));
+            fail("failure expected");
+        } catch (RuleEvaluationException e) {
+            assertThat(e.getMessage()).contains(FailingRule.class.getName());
+            assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+        }
+    }
+    
+    @Test
+    public void shouldRejectAggregateOfOtherType() {
+        try {
+            new RuleEngine().evaluate(OrderRules.class, "order");
+            fail("aggregate type mismatch expected");
+        } catch (RuleEvaluationException e) {
+            assertThat(e.getMessage()).contains("not java.lang.String");
+        }
+    }
+}
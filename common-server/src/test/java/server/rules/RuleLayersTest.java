@@ -0,0 +1,49 @@
+package server.rules;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class RuleLayersTest {
+    
+    @Test
+    public void shouldPlaceIndependentRulesInFirstLayer() {
+        int[][] layers = RuleLayers.of(new int[][] { {}, {}, {} });
+        assertThat(layers.length).isEqualTo(1);
+        assertThat(layers[0]).isEqualTo(new int[] { 0, 1, 2 });
+    }
+    
+    @Test
+    public void shouldPlaceRulesAfterTheirDependencies() {
+        // 0 <- 2 <- 1, 3 depends on 0 and 1
+        int[][] layers = RuleLayers.of(new int[][] { {}, { 2 }, { 0 }, { 0, 1 } });
+        assertThat(layers.length).isEqualTo(4);
+        assertThat(layers[0]).isEqualTo(new int[] { 0 });
+        assertThat(layers[1]).isEqualTo(new int[] { 2 });
+        assertThat(layers[2]).isEqualTo(new int[] { 1 });
+        assertThat(layers[3]).isEqualTo(new int[] { 3 });
+    }
+    
+    @Test
+    public void shouldShareLayerOfRulesWithDependenciesInPreviousLayers() {
+        int[][] layers = RuleLayers.of(new int[][] { {}, { 0 }, { 0 }, {} });
+        assertThat(layers.length).isEqualTo(2);
+        assertThat(layers[0]).isEqualTo(new int[] { 0, 3 });
+        assertThat(layers[1]).isEqualTo(new int[] { 1, 2 });
+    }
+    
+    @Test
+    public void shouldDetectCycle() {
+        assertThat(RuleLayers.of(new int[][] { {}, { 2 }, { 3 }, { 1 } })).isNull();
+    }
+    
+    @Test
+    public void shouldDetectSelfDependency() {
+        assertThat(RuleLayers.of(new int[][] { { 0 } })).isNull();
+    }
+    
+    @Test
+    public void shouldAcceptEmptyRuleSet() {
+        assertThat(RuleLayers.of(new int[0][]).length).isEqualTo(0);
+    }
+}
@@ -0,0 +1,170 @@
+package server.rules;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+import server.BusinessRule;
+import server.BusinessRuleSet;
+import server.rules.RuleResultCache.Mode;
+
+public class RuleResultCacheTest {
+    
+    @BusinessRuleSet(aggregates = SampleOrder.class, rules = { QuantityRule.class, StatusRule.class })
+    public static class OrderRules {
+    }
+    
+    /**
+     * Declares no inputs, so it is reused in version mode only.
+     */
+    @BusinessRule
+    public static class QuantityRule implements Rule<SampleOrder> {
+        
+        @Override
+        public Violation evaluate(SampleOrder order) {
+            order.evaluatedBy(this);
+            for (SampleOrder.Line line : order.getLines()) {
+                if (line.getQuantity() <= 0) {
+                    return Violation.hard("quantity should be positive");
+                }
+            }
+            return null;
+        }
+    }
+    
+    @BusinessRule(inputs = "status")
+    public static class StatusRule implements Rule<SampleOrder> {
+        
+        @Override
+        public Violation evaluate(SampleOrder order) {
+            order.evaluatedBy(this);
+            return "CANCELLED".equals(order.getStatus()) ? Violation.soft("order is cancelled") : null;
+        }
+    }
+    
+    @Test
+    public void shouldReuseOutcomesOfUnchangedAggregate() {
+        RuleResultCache cache = new RuleResultCache(Mode.VERSION);
+        RuleEngine engine = new RuleEngine(null, cache);
+        SampleOrder order = new SampleOrder(1L, 1L).addLine(1);
+        engine.evaluate(OrderRules.class, order);
+        RuleSetResult result = engine.evaluate(OrderRules.class, order);
+        assertThat(result.getReusedRules()).isEqualTo(2);
+        assertThat(order.evaluations(QuantityRule.class)).isEqualTo(1);
+        assertThat(cache.getHits()).isEqualTo(2);
+        assertThat(cache.getMisses()).isEqualTo(2);
+    }
+    
+    @Test
+    public void shouldReuseOutcomesOfEqualAggregateLoadedAgain() {
+        RuleEngine engine = new RuleEngine(null, new RuleResultCache(Mode.VERSION));
+        engine.evaluate(OrderRules.class, new SampleOrder(1L, 1L).addLine(1));
+        SampleOrder loadedAgain = new SampleOrder(1L, 1L).addLine(1);
+        assertThat(engine.evaluate(OrderRules.class, loadedAgain).getReusedRules()).isEqualTo(2);
+        assertThat(loadedAgain.evaluations(QuantityRule.class)).isEqualTo(0);
+    }
+    
+    @Test
+    public void shouldEvaluateAgainAfterVersionChanged() {
+        RuleEngine engine = new RuleEngine(null, new RuleResultCache(Mode.VERSION));
+        SampleOrder order = new SampleOrder(1L, 1L).addLine(1);
+        engine.evaluate(OrderRules.class, order);
+        order.setVersion(2L);
+        assertThat(engine.evaluate(OrderRules.class, order).getReusedRules()).isEqualTo(0);
+        assertThat(order.evaluations(QuantityRule.class)).isEqualTo(2);
+    }
+    
+    @Test
+    public void shouldEvaluateAgainAfterUnflushedChange() {
+        RuleEngine engine = new RuleEngine(null, new RuleResultCache(Mode.VERSION));
+        SampleOrder order = new SampleOrder(1L, 1L).addLine(1);
+        engine.evaluate(OrderRules.class, order);
+        order.setStatus("CANCELLED");
+        RuleSetResult result = engine.evaluate(OrderRules.class, order);
+        assertThat(result.getReusedRules()).isEqualTo(0);
+        assertThat(result.getViolations(Severity.SOFT)).hasSize(1);
+    }
+    
+    @Test
+    public void shouldEvaluateAgainAfterChildEntityChanged() {
+        RuleEngine engine = new RuleEngine(null, new RuleResultCache(Mode.VERSION));
+        SampleOrder order = new SampleOrder(1L, 1L).addLine(1).addLine(2);
+        assertThat(engine.evaluate(OrderRules.class, order).isValid()).isTrue();
+        order.getLines().get(0).setQuantity(0);
+        RuleSetResult result = engine.evaluate(OrderRules.class, order);
+        assertThat(result.isValid()).isFalse();
+        assertThat(result.getReusedRules()).isEqualTo(0);
+    }
+    
+    @Test
+    public void shouldEvaluateAgainAfterChildEntityAdded() {
+        RuleEngine engine = new RuleEngine(null, new RuleResultCache(Mode.VERSION));
+        SampleOrder order = new SampleOrder(1L, 1L).addLine(1);
+        engine.evaluate(OrderRules.class, order);
+        order.addLine(-1);
+        assertThat(engine.evaluate(OrderRules.class, order).isValid()).isFalse();
+    }
+    
+    @Test
+    public void shouldNotMemoizeAggregateWithoutVersionInVersionMode() {
+        RuleResultCache cache = new RuleResultCache(Mode.VERSION);
+        RuleEngine engine = new RuleEngine(null, cache);
+        SampleOrder order = new SampleOrder(1L, null);
+        engine.evaluate(OrderRules.class, order);
+        engine.evaluate(OrderRules.class, order);
+        assertThat(order.evaluations(QuantityRule.class)).isEqualTo(2);
+        assertThat(cache.size()).isEqualTo(0);
+    }
+    
+    @Test
+    public void shouldForgetInvalidatedAggregate() {
+        RuleResultCache cache = new RuleResultCache(Mode.VERSION);
+        RuleEngine engine = new RuleEngine(null, cache);
+        SampleOrder order = new SampleOrder(1L, 1L);
+        engine.evaluate(OrderRules.class, order);
+        cache.invalidate(order);
+        assertThat(cache.size()).isEqualTo(0);
+        assertThat(engine.evaluate(OrderRules.class, order).getReusedRules()).isEqualTo(0);
+    }
+    
+    @Test
+    public void shouldEvictLeastRecentlyUsedAggregate() {
+        RuleResultCache cache = new RuleResultCache(Mode.VERSION, 2);
+        RuleEngine engine = new RuleEngine(null, cache);
+        SampleOrder first = new SampleOrder(1L, 1L);
+        engine.evaluate(OrderRules.class, first);
+        engine.evaluate(OrderRules.class, new SampleOrder(2L, 1L));
+        engine.evaluate(OrderRules.class, first);
+        engine.evaluate(OrderRules.class, new SampleOrder(3L, 1L));
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(engine.evaluate(OrderRules.class, first).getReusedRules()).isEqualTo(2);
+    }
+    
+    @Test
+    public void shouldEvaluateOnlyRulesWithChangedInputsInIncrementalMode() {
+        RuleEngine engine = new RuleEngine(null, new RuleResultCache(Mode.INCREMENTAL));
+        SampleOrder order = new SampleOrder(1L, 1L).addLine(1);
+        engine.evaluate(OrderRules.class, order);
+        RuleSetResult unchanged = engine.evaluate(OrderRules.class, order);
+        assertThat(unchanged.getReusedRules()).isEqualTo(1);
+        assertThat(order.evaluations(StatusRule.class)).isEqualTo(1);
+        assertThat(order.evaluations(QuantityRule.class)).isEqualTo(2);
+        order.setStatus("CANCELLED");
+        RuleSetResult changed = engine.evaluate(OrderRules.class, order);
+        assertThat(changed.getReusedRules()).isEqualTo(0);
+        assertThat(changed.getViolations(Severity.SOFT)).hasSize(1);
+        assertThat(order.evaluations(StatusRule.class)).isEqualTo(2);
+    }
+    
+    @Test
+    public void shouldIdentifyUnsavedAggregateByInstanceInIncrementalMode() {
+        RuleResultCache cache = new RuleResultCache(Mode.INCREMENTAL);
+        RuleEngine engine = new RuleEngine(null, cache);
+        SampleOrder order = new SampleOrder(null, null);
+        engine.evaluate(OrderRules.class, order);
+        assertThat(engine.evaluate(OrderRules.class, order).getReusedRules()).isEqualTo(1);
+        SampleOrder other = new SampleOrder(null, null);
+        assertThat(engine.evaluate(OrderRules.class, other).getReusedRules()).isEqualTo(0);
+        assertThat(cache.size()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,87 @@
+package server.rules;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.data.Offset.offset;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RuleStatisticTest {
+    
+    private static final double DELTA = 1e-9;
+    
+    @Test
+    public void shouldBucketDurationsByPowerOfTwoMicroseconds() {
+        assertThat(RuleStatistic.bucketOf(0)).isEqualTo(0);
+        assertThat(RuleStatistic.bucketOf(999)).isEqualTo(0);
+        assertThat(RuleStatistic.bucketOf(1000)).isEqualTo(1);
+        assertThat(RuleStatistic.bucketOf(1999)).isEqualTo(1);
+        assertThat(RuleStatistic.bucketOf(2000)).isEqualTo(2);
+        assertThat(RuleStatistic.bucketOf(3999)).isEqualTo(2);
+        assertThat(RuleStatistic.bucketOf(4000)).isEqualTo(3);
+        assertThat(RuleStatistic.bucketOf(TimeUnit.MILLISECONDS.toNanos(1))).isEqualTo(10);
+    }
+    
+    @Test
+    public void shouldKeepLongDurationsInLastBucket() {
+        assertThat(RuleStatistic.bucketOf(TimeUnit.HOURS.toNanos(1))).isEqualTo(RuleStatistic.BUCKETS - 1);
+        assertThat(RuleStatistic.bucketOf(Long.MAX_VALUE)).isEqualTo(RuleStatistic.BUCKETS - 1);
+    }
+    
+    @Test
+    public void shouldReportUpperBoundsOfPercentileBuckets() {
+        RuleStatistic statistic = new RuleStatistic("Order", "OrderRules", "StockRule");
+        for (int i = 0; i < 90; i++) {
+            statistic.recordEvaluation(1000, RuleStatistic.PASSED);
+        }
+        for (int i = 0; i < 10; i++) {
+            statistic.recordEvaluation(TimeUnit.MILLISECONDS.toNanos(1), RuleStatistic.HARD_VIOLATIONS);
+        }
+        RuleStatisticsSnapshot snapshot = statistic.snapshot();
+        assertThat(snapshot.getEvaluations()).isEqualTo(100);
+        assertThat(snapshot.getPassed()).isEqualTo(90);
+        assertThat(snapshot.getHardViolations()).isEqualTo(10);
+        assertThat(snapshot.getMedianMillis()).isEqualTo(0.002, offset(DELTA));
+        assertThat(snapshot.getPercentile95Millis()).isEqualTo(1.024, offset(DELTA));
+        assertThat(snapshot.getPercentile99Millis()).isEqualTo(1.024, offset(DELTA));
+        assertThat(snapshot.getMeanMillis()).isEqualTo(0.1009, offset(DELTA));
+        assertThat(snapshot.getMaxMillis()).isEqualTo(1.0, offset(DELTA));
+    }
+    
+    @Test
+    public void shouldReportZeroPercentilesWithoutEvaluations() {
+        RuleStatisticsSnapshot snapshot = new RuleStatistic("Order", "OrderRules", "StockRule").snapshot();
+        assertThat(snapshot.getEvaluations()).isEqualTo(0);
+        assertThat(snapshot.getMeanMillis()).isEqualTo(0.0);
+        assertThat(snapshot.getMedianMillis()).isEqualTo(0.0);
+        assertThat(snapshot.getPercentile99Millis()).isEqualTo(0.0);
+    }
+    
+    @Test
+    public void shouldSumStripesOfAllThreads() throws InterruptedException {
+        final RuleStatistic statistic = new RuleStatistic("Order", "OrderRules", "StockRule");
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final long nanos = TimeUnit.MICROSECONDS.toNanos(i + 1);
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        statistic.recordEvaluation(nanos, RuleStatistic.PASSED);
+                        statistic.record(RuleStatistic.SKIPPED, 2);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        RuleStatisticsSnapshot snapshot = statistic.snapshot();
+        assertThat(snapshot.getEvaluations()).isEqualTo(8000);
+        assertThat(snapshot.getPassed()).isEqualTo(8000);
+        assertThat(snapshot.getSkipped()).isEqualTo(16000);
+        assertThat(snapshot.getMaxMillis()).isEqualTo(0.008, offset(DELTA));
+    }
+}
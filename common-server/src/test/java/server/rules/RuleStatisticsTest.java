@@ -0,0 +1,33 @@
+package server.rules;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class RuleStatisticsTest {
+    
+    @Test
+    public void shouldRegisterSharedStatisticsUnderNameOfClassLoader() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(RuleStatistics.getObjectName());
+        RuleStatistics.getShared();
+        assertThat(RuleStatistics.getObjectName()).contains(RuleStatistics.OBJECT_NAME + ",context=");
+        assertThat(server.isRegistered(name)).isTrue();
+        assertThat(server.getAttribute(name, "Enabled")).isEqualTo(RuleStatistics.getShared().isEnabled());
+    }
+    
+    @Test
+    public void shouldNotEvictSharedStatistics() throws JMException {
+        RuleStatistics.getShared();
+        RuleStatistics other = new RuleStatistics(false);
+        other.registerMBean();
+        other.unregisterMBean();
+        assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(RuleStatistics.getObjectName()))).isTrue();
+    }
+}
@@ -0,0 +1,90 @@
+package server.rules;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Version;
+
+/**
+ * Aggregate validated in tests, rules record their evaluations in it.
+ */
+@Entity
+public class SampleOrder {
+    
+    @Id
+    private Long id;
+    @Version
+    private Long version;
+    private String status = "NEW";
+    private final List<Line> lines = new ArrayList<Line>();
+    private final transient List<Class<?>> evaluatedRules = Collections.synchronizedList(new ArrayList<Class<?>>());
+    
+    public SampleOrder(Long id, Long version) {
+        this.id = id;
+        this.version = version;
+    }
+    
+    public Long getId() {
+        return id;
+    }
+    
+    public Long getVersion() {
+        return version;
+    }
+    
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+    
+    public String getStatus() {
+        return status;
+    }
+    
+    public void setStatus(String status) {
+        this.status = status;
+    }
+    
+    public List<Line> getLines() {
+        return lines;
+    }
+    
+    public SampleOrder addLine(int quantity) {
+        lines.add(new Line(this, quantity));
+        return this;
+    }
+    
+    void evaluatedBy(Rule<?> rule) {
+        evaluatedRules.add(rule.getClass());
+    }
+    
+    int evaluations(Class<?> ruleClass) {
+        return Collections.frequency(evaluatedRules, ruleClass);
+    }
+    
+    @Entity
+    public static class Line {
+        
+        private final SampleOrder order;
+        private int quantity;
+        
+        Line(SampleOrder order, int quantity) {
+            this.order = order;
+            this.quantity = quantity;
+        }
+        
+        public SampleOrder getOrder() {
+            return order;
+        }
+        
+        public int getQuantity() {
+            return quantity;
+        }
+        
+        public void setQuantity(int quantity) {
+            this.quantity = quantity;
+        }
+    }
+}
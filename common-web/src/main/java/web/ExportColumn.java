@@ -0,0 +1,15 @@
+package web;
+
+/**
+ * Column of {@link ResultExporter exported} rows.
+ */
+public interface ExportColumn<Type> {
+    
+    String getName();
+    
+    /**
+     * Value of column in given row, written as text except of numbers and
+     * booleans in JSON.
+     */
+    Object valueOf(Type row);
+}
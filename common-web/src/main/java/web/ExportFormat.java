@@ -0,0 +1,157 @@
+package web;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streaming text formats of {@link ResultExporter}, each row is written
+ * separately so whole export is never held in memory.
+ */
+public enum ExportFormat {
+    
+    /**
+     * RFC 4180 comma separated values with header line.
+     */
+    CSV("text/csv", ".csv") {
+        @Override
+        void writeHeader(Writer writer, String[] names) throws IOException {
+            writeLine(writer, names);
+        }
+        
+        @Override
+        void writeRow(Writer writer, String[] names, Object[] values, long index) throws IOException {
+            writeLine(writer, values);
+        }
+        
+        @Override
+        void writeFooter(Writer writer) {
+        }
+        
+        private void writeLine(Writer writer, Object[] values) throws IOException {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                if (values[i] != null) {
+                    writeField(writer, values[i].toString());
+                }
+            }
+            writer.write("\r\n");
+        }
+        
+        private void writeField(Writer writer, String value) throws IOException {
+            boolean quoted = false;
+            for (int i = 0; i < value.length() && !quoted; i++) {
+                char c = value.charAt(i);
+                quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quoted) {
+                writer.write(value);
+                return;
+            }
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        }
+    },
+    
+    /**
+     * JSON array of objects with column names as keys.
+     */
+    JSON("application/json", ".json") {
+        @Override
+        void writeHeader(Writer writer, String[] names) throws IOException {
+            writer.write('[');
+        }
+        
+        @Override
+        void writeRow(Writer writer, String[] names, Object[] values, long index) throws IOException {
+            writer.write(index == 0 ? "\n{" : ",\n{");
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeString(writer, names[i]);
+                writer.write(':');
+                writeValue(writer, values[i]);
+            }
+            writer.write('}');
+        }
+        
+        @Override
+        void writeFooter(Writer writer) throws IOException {
+            writer.write("\n]\n");
+        }
+        
+        private void writeValue(Writer writer, Object value) throws IOException {
+            if (value == null) {
+                writer.write("null");
+            } else if (value instanceof Boolean || isFinite(value)) {
+                writer.write(value.toString());
+            } else {
+                writeString(writer, value.toString());
+            }
+        }
+        
+        private boolean isFinite(Object value) {
+            if (value instanceof Double || value instanceof Float) {
+                double number = ((Number) value).doubleValue();
+                return !Double.isNaN(number) && !Double.isInfinite(number);
+            }
+            return value instanceof Number;
+        }
+        
+        private void writeString(Writer writer, String value) throws IOException {
+            writer.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        writer.write("\\\"");
+                        break;
+                    case '\\':
+                        writer.write("\\\\");
+                        break;
+                    case '\n':
+                        writer.write("\\n");
+                        break;
+                    case '\r':
+                        writer.write("\\r");
+                        break;
+                    case '\t':
+                        writer.write("\\t");
+                        break;
+                    default:
+                        if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                            writer.write(String.format("\\u%04x", (int) c));
+                        } else {
+                            writer.write(c);
+                        }
+                }
+            }
+            writer.write('"');
+        }
+    };
+    
+    private final String contentType;
+    private final String extension;
+    
+    private ExportFormat(String contentType, String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+    
+    public String getContentType() {
+        return contentType;
+    }
+    
+    public String getExtension() {
+        return extension;
+    }
+    
+    abstract void writeHeader(Writer writer, String[] names) throws IOException;
+    
+    abstract void writeRow(Writer writer, String[] names, Object[] values, long index) throws IOException;
+    
+    abstract void writeFooter(Writer writer) throws IOException;
+}
@@ -0,0 +1,88 @@
+package web;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import javax.enterprise.context.RequestScoped;
+import javax.faces.context.FacesContext;
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletResponse;
+
+import persistence.ResultIterator;
+
+/**
+ * Streams query results to HTTP response as CSV or JSON file download in
+ * constant memory.
+ * <p>
+ * Rows are read from cursor backed {@link ResultIterator} and response is
+ * flushed every {@link #CHUNK_ROWS} rows, so response buffer does not grow
+ * with result size. Entities of exported rows stay managed unless iterator is
+ * {@link ResultIterator#detaching() detaching}, which keeps persistence context
+ * from growing too. Exporter does not switch detaching on by itself, as it
+ * would detach entities the caller still uses. JSF rendering of current view
+ * is skipped.
+ * 
+ * <pre>
+ * &#064;Inject ResultExporter exporter;
+ * 
+ * public void exportOrders() throws IOException {
+ *     exporter.export(EntityManagerHelper.iterateMany(entityManager, OrderEntity.class,
+ *             &quot;SELECT o FROM OrderEntity o&quot;, withoutParams(), 500).detaching(), columns, ExportFormat.CSV, &quot;orders&quot;);
+ * }
+ * </pre>
+ */
+@RequestScoped
+public class ResultExporter {
+    
+    public static final int CHUNK_ROWS = 500;
+    public static final int BUFFER_SIZE = 32 * 1024;
+    
+    @Inject
+    HttpServletResponse response;
+    
+    /**
+     * Writes all rows and closes iterator.
+     * 
+     * @return number of exported rows
+     */
+    public <Type> long export(ResultIterator<Type> rows, List<? extends ExportColumn<? super Type>> columns,
+            ExportFormat format, String fileName) throws IOException {
+        try {
+            response.setBufferSize(BUFFER_SIZE);
+            response.setContentType(format.getContentType());
+            response.setCharacterEncoding("UTF-8");
+            response.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + format.getExtension() + "\"");
+            long count = write(rows, columns, format, response.getWriter());
+            response.flushBuffer();
+            FacesContext.getCurrentInstance().responseComplete();
+            return count;
+        } finally {
+            rows.close();
+        }
+    }
+    
+    static <Type> long write(ResultIterator<Type> rows, List<? extends ExportColumn<? super Type>> columns,
+            ExportFormat format, Writer writer) throws IOException {
+        String[] names = new String[columns.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = columns.get(i).getName();
+        }
+        Object[] values = new Object[names.length];
+        format.writeHeader(writer, names);
+        long count = 0;
+        while (rows.hasNext()) {
+            Type row = rows.next();
+            for (int i = 0; i < values.length; i++) {
+                values[i] = columns.get(i).valueOf(row);
+            }
+            format.writeRow(writer, names, values, count++);
+            if (count % CHUNK_ROWS == 0) {
+                writer.flush();
+            }
+        }
+        format.writeFooter(writer);
+        writer.flush();
+        return count;
+    }
+}